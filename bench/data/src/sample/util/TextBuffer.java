@@ -0,0 +1,247 @@
+/*
+ * Sample source for the MergeDoc benchmarks.
+ * This file is not compiled; it is merged with the sample API document.
+ */
+package sample.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A growable buffer of characters with search and formatting helpers.
+ * <p>
+ * The buffer can be split into {@link Segment} objects that refer to
+ * ranges of the buffer without copying the characters. The following
+ * table lists the main operations:
+ * <table border="1" summary="Operations">
+ * <tr><th>Method</th><th>Description</th></tr>
+ * <tr><td>{@link #append(String)}</td><td>Adds text to the end of the buffer</td></tr>
+ * <tr><td>{@link #indexOf(String, int)}</td><td>Searches for a substring</td></tr>
+ * <tr><td>{@link #split(char)}</td><td>Splits the buffer into segments</td></tr>
+ * </table>
+ * <p>
+ * A typical usage looks like this:
+ * <pre>
+ *     TextBuffer buf = new TextBuffer();
+ *     buf.append("key=value");
+ *     int pos = buf.indexOf("=", 0);
+ * </pre>
+ *
+ * @author  Sample Author
+ * @see     Segment
+ * @since   1.0
+ */
+public class TextBuffer implements CharSequence {
+
+    /**
+     * The default capacity of a new buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    // The characters of this buffer
+    private char[] value;
+
+    // The number of characters used
+    private int count;
+
+    /**
+     * Constructs an empty buffer with the default capacity.
+     */
+    public TextBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty buffer with the specified capacity.
+     *
+     * @param capacity the initial capacity
+     * @throws IllegalArgumentException if the capacity is negative
+     */
+    public TextBuffer(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        value = new char[capacity];
+    }
+
+    /**
+     * Appends the specified string to this buffer.
+     * <p>
+     * If {@code str} is {@code null}, then the four characters
+     * {@code "null"} are appended.
+     *
+     * @param str a string
+     * @return a reference to this object
+     */
+    public TextBuffer append(String str) {
+        if (str == null) {
+            str = "null";
+        }
+        int len = str.length();
+        ensureCapacity(count + len);
+        str.getChars(0, len, value, count);
+        count += len;
+        return this;
+    }
+
+    /*
+     * Grows the internal array if necessary.
+     */
+    private void ensureCapacity(int minimumCapacity) {
+        if (minimumCapacity > value.length) {
+            char[] newValue = new char[Math.max(minimumCapacity, value.length * 2 + 2)];
+            System.arraycopy(value, 0, newValue, 0, count);
+            value = newValue;
+        }
+    }
+
+    /**
+     * Returns the index within this buffer of the first occurrence of the
+     * specified substring, starting at the specified index.
+     *
+     * @param str the substring to search for
+     * @param fromIndex the index from which to start the search
+     * @return the index of the first occurrence of the specified substring,
+     *         starting at the specified index, or {@code -1} if there is
+     *         no such occurrence
+     * @throws NullPointerException if {@code str} is {@code null}
+     */
+    public int indexOf(String str, int fromIndex) {
+        return toString().indexOf(str, fromIndex);
+    }
+
+    /**
+     * Returns the length of this buffer.
+     *
+     * @return the number of characters in this buffer
+     */
+    @Override
+    public int length() {
+        return count;
+    }
+
+    /**
+     * Returns the {@code char} value at the specified index.
+     *
+     * @param index the index of the {@code char} value
+     * @return the {@code char} value at the specified index
+     * @throws IndexOutOfBoundsException if {@code index} is negative or not
+     *         less than {@code length()}
+     */
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index);
+        }
+        return value[index];
+    }
+
+    /**
+     * Returns a new character sequence that is a subsequence of this buffer.
+     *
+     * @param start the start index, inclusive
+     * @param end the end index, exclusive
+     * @return the specified subsequence
+     * @throws IndexOutOfBoundsException if {@code start} or {@code end} are
+     *         negative, if {@code end} is greater than {@code length()},
+     *         or if {@code start} is greater than {@code end}
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * Appends each entry of the map to this buffer as a {@code key=value}
+     * line.
+     *
+     * @param <K> the type of keys maintained by the map
+     * @param <V> the type of mapped values
+     * @param map the map whose entries are appended
+     * @return the number of lines appended
+     */
+    public <K, V> int appendAll(Map<K, V> map) {
+        int lines = 0;
+        for (Map.Entry<K, V> e : map.entrySet()) {
+            append(String.valueOf(e.getKey())).append("=").append(String.valueOf(e.getValue())).append("\n");
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the contents of this buffer to the specified destination.
+     *
+     * @param out the destination
+     * @throws IOException if an I/O error occurs
+     * @deprecated Use {@link #toString()} and write the result instead.
+     */
+    @Deprecated
+    public void writeTo(Appendable out) throws IOException {
+        out.append(this);
+    }
+
+    /**
+     * Splits this buffer around occurrences of the specified separator.
+     * The separator itself is not included in any segment.
+     *
+     * @param separator the separator character
+     * @return the list of segments, in the order they appear in the buffer
+     * @see Segment
+     */
+    public List<Segment> split(char separator) {
+        List<Segment> list = new ArrayList<Segment>();
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            if (value[i] == separator) {
+                list.add(new Segment(start, i));
+                start = i + 1;
+            }
+        }
+        list.add(new Segment(start, count));
+        return list;
+    }
+
+    /**
+     * Returns a string containing the characters in this buffer.
+     *
+     * @return a string representation of this buffer
+     */
+    @Override
+    public String toString() {
+        return new String(value, 0, count);
+    }
+
+    /**
+     * A contiguous range of characters in a {@link TextBuffer}.
+     *
+     * @since 1.0
+     */
+    public static class Segment {
+
+        private final int start;
+        private final int end;
+
+        /**
+         * Creates a segment for the specified range.
+         *
+         * @param start the start index, inclusive
+         * @param end the end index, exclusive
+         */
+        public Segment(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the number of characters in this segment.
+         *
+         * @return the length of this segment
+         */
+        public int length() {
+            return end - start;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.bench;
+
+/**
+ * ベンチマーク対象の処理です。
+ * <p>
+ * {@link #run()} の戻り値は {@link BenchmarkRunner} が保持するため、
+ * 結果を捨てる処理として JIT に除去されることはありません。
+ *
+ * @author Shinji Kashihara
+ */
+public abstract class Benchmark {
+
+    /** ベンチマーク名 */
+    private final String name;
+
+    /**
+     * コンストラクタです。
+     * @param name ベンチマーク名
+     */
+    public Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * ベンチマーク名を取得します。
+     * @return ベンチマーク名
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 計測前に 1 度だけ呼び出されます。
+     * @throws Exception 準備に失敗した場合
+     */
+    public void setUp() throws Exception {
+    }
+
+    /**
+     * 計測対象の処理を 1 回実行します。
+     * @return 処理結果
+     * @throws Exception 処理に失敗した場合
+     */
+    public abstract Object run() throws Exception;
+}
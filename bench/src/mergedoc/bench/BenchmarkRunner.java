@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.bench;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * ベンチマークを実行し、結果を表形式で出力するランナーです。
+ * <p>
+ * 各ベンチマークはウォームアップの後、指定時間の計測を指定回数繰り返します。
+ * 1 操作あたりの時間に加え、計測スレッドのアロケーション量（B/op、MB/秒）と
+ * 計測中の GC 回数、GC 時間を出力するため、アロケーションの増加による
+ * 性能劣化を検出できます。アロケーション量は HotSpot 系の JVM でのみ
+ * 取得でき、取得できない場合は "-" と出力します。出力はコンソールの
+ * エンコーディングに依存しないよう ASCII 文字のみとします。
+ *
+ * @author Shinji Kashihara
+ */
+public class BenchmarkRunner {
+
+    /** ウォームアップの回数 */
+    private int warmupIterations = 3;
+
+    /** 計測の回数 */
+    private int iterations = 5;
+
+    /** 1 回の計測時間（ミリ秒） */
+    private long iterationMillis = 1000;
+
+    /** 実行するベンチマーク名のフィルタ。null の場合はすべて実行。 */
+    private Pattern filter;
+
+    /** ベンチマークのリスト */
+    private final List<Benchmark> benchmarks = new LinkedList<Benchmark>();
+
+    /** 処理結果の保持先 */
+    private static volatile Object sink;
+
+    /**
+     * 1 回の計測結果です。
+     */
+    private static class Iteration {
+
+        /** 操作回数 */
+        long ops;
+
+        /** 経過時間（ナノ秒） */
+        long nanos;
+
+        /** アロケーション量（バイト）。取得できない場合は -1。 */
+        long bytes;
+
+        /** GC 回数 */
+        long gcCount;
+
+        /** GC 時間（ミリ秒） */
+        long gcMillis;
+    }
+
+    /**
+     * ウォームアップの回数をセットします。
+     * @param warmupIterations ウォームアップの回数
+     */
+    public void setWarmupIterations(int warmupIterations) {
+        this.warmupIterations = warmupIterations;
+    }
+
+    /**
+     * 計測の回数をセットします。
+     * @param iterations 計測の回数
+     */
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * 1 回の計測時間をセットします。
+     * @param iterationMillis 1 回の計測時間（ミリ秒）
+     */
+    public void setIterationMillis(long iterationMillis) {
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * 実行するベンチマーク名のフィルタをセットします。
+     * @param regex ベンチマーク名の一部に一致する正規表現
+     */
+    public void setFilter(String regex) {
+        this.filter = Pattern.compile(regex);
+    }
+
+    /**
+     * ベンチマークを追加します。
+     * @param benchmark ベンチマーク
+     */
+    public void add(Benchmark benchmark) {
+        benchmarks.add(benchmark);
+    }
+
+    /**
+     * ベンチマークを実行します。
+     * @param out 結果の出力先
+     * @throws Exception ベンチマークの処理に失敗した場合
+     */
+    public void run(PrintStream out) throws Exception {
+
+        out.println("# Warmup: " + warmupIterations + " iterations, Measurement: " + iterations
+            + " iterations x " + iterationMillis + " ms");
+        out.println(String.format("%-44s %12s %10s %12s %10s %6s %8s",
+            "Benchmark", "ns/op", "error", "B/op", "MB/s", "GC", "GC ms"));
+
+        for (Benchmark benchmark : benchmarks) {
+
+            if (filter != null && !filter.matcher(benchmark.getName()).find()) {
+                continue;
+            }
+            benchmark.setUp();
+            for (int i = 0; i < warmupIterations; i++) {
+                iterate(benchmark);
+            }
+
+            // 計測結果の集計
+            double[] nsPerOps = new double[iterations];
+            Iteration total = new Iteration();
+            for (int i = 0; i < iterations; i++) {
+                Iteration it = iterate(benchmark);
+                nsPerOps[i] = (double) it.nanos / it.ops;
+                total.ops += it.ops;
+                total.nanos += it.nanos;
+                total.bytes = (it.bytes < 0 || total.bytes < 0) ? -1 : total.bytes + it.bytes;
+                total.gcCount += it.gcCount;
+                total.gcMillis += it.gcMillis;
+            }
+            out.println(format(benchmark.getName(), nsPerOps, total));
+        }
+        sink = null;
+    }
+
+    /**
+     * 計測時間の間、ベンチマークを繰り返し実行します。
+     * @param benchmark ベンチマーク
+     * @return 計測結果
+     * @throws Exception ベンチマークの処理に失敗した場合
+     */
+    private Iteration iterate(Benchmark benchmark) throws Exception {
+
+        Iteration it = new Iteration();
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long deadline = start + iterationMillis * 1000000;
+
+        long now;
+        do {
+            sink = benchmark.run();
+            it.ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+
+        it.nanos = now - start;
+        long endBytes = allocatedBytes();
+        it.bytes = (bytes < 0 || endBytes < 0) ? -1 : endBytes - bytes;
+        it.gcCount = gcCount() - gcCount;
+        it.gcMillis = gcMillis() - gcMillis;
+        return it;
+    }
+
+    /**
+     * 計測結果を 1 行の文字列に整形します。
+     * @param name ベンチマーク名
+     * @param nsPerOps 計測ごとの 1 操作あたりの時間（ナノ秒）
+     * @param total 計測結果の合計
+     * @return 整形した文字列
+     */
+    private String format(String name, double[] nsPerOps, Iteration total) {
+
+        double mean = (double) total.nanos / total.ops;
+        double variance = 0;
+        for (double ns : nsPerOps) {
+            variance += (ns - mean) * (ns - mean);
+        }
+        double error = (nsPerOps.length > 1) ? Math.sqrt(variance / (nsPerOps.length - 1)) : 0;
+
+        String bytesPerOp = "-";
+        String rate = "-";
+        if (total.bytes >= 0) {
+            bytesPerOp = String.format("%.1f", (double) total.bytes / total.ops);
+            rate = String.format("%.1f", total.bytes / (1024.0 * 1024.0) / (total.nanos / 1e9));
+        }
+        return String.format("%-44s %12.1f %10.1f %12s %10s %6d %8d",
+            name, mean, error, bytesPerOp, rate, total.gcCount, total.gcMillis);
+    }
+
+    /**
+     * 現在のスレッドがこれまでにアロケーションしたバイト数を取得します。
+     * @return バイト数。取得できない場合は -1。
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * すべてのガベージコレクタの累積 GC 回数を取得します。
+     * @return GC 回数
+     */
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * すべてのガベージコレクタの累積 GC 時間を取得します。
+     * @return GC 時間（ミリ秒）
+     */
+    static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,748 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ベンチマーク用の合成コーパスを生成するクラスです。
+ * <p>
+ * 英語の Javadoc コメントを持つ Java ソースの ZIP ファイル（src.zip）と、
+ * 対応する日本語の API ドキュメント（Java 7 の javadoc 形式の HTML）を
+ * 生成します。クラスにはジェネリクス、可変長引数、非推奨メソッド、長い表と
+ * pre ブロックを含むコメント、2 段にネストしたインナークラスが含まれます。
+ * 同じパラメータで生成した内容は常に同一です。
+ *
+ * @author Shinji Kashihara
+ */
+public class CorpusGenerator {
+
+    /** 改行 */
+    private static final String LF = "\n";
+
+    /** クラス名の接頭辞 */
+    private static final String[] NAMES = {
+        "Buffer", "Channel", "Codec", "Cursor", "Index", "Ledger", "Queue", "Reader", "Registry", "Table",
+    };
+
+    /** 英語の説明文 */
+    private static final String[] EN = {
+        "Returns the number of elements that satisfy the given condition.",
+        "Copies the contents into a newly allocated array.",
+        "Resolves the value associated with the specified key.",
+        "Scans the underlying storage from the current position.",
+        "Releases any resources held by this object.",
+        "Appends the specified text and returns this object.",
+        "Checks whether the state is consistent with the last update.",
+        "Computes a hash of the contents that is stable across runs.",
+    };
+
+    /** 日本語の説明文 */
+    private static final String[] JA = {
+        "指定された条件を満たす要素の数を返します。",
+        "内容を新しく割り当てられた配列にコピーします。",
+        "指定されたキーに関連付けられた値を解決します。",
+        "現在の位置から基になる記憶域を走査します。",
+        "このオブジェクトが保持しているリソースを解放します。",
+        "指定されたテキストを追加し、このオブジェクトを返します。",
+        "状態が最後の更新と整合しているかどうかを判定します。",
+        "実行ごとに変化しない内容のハッシュ値を計算します。",
+    };
+
+    /**
+     * クラスのメンバーです。
+     */
+    private static class Member {
+
+        /** メンバー名（h4 見出し） */
+        String name;
+
+        /** HTML のアンカー名 */
+        String anchor;
+
+        /** Java ソースの宣言 */
+        String decl;
+
+        /** HTML の pre 要素の内容 */
+        String pre;
+
+        /** Java ソースのメンバー本体。フィールドの場合は null。 */
+        String body;
+
+        /** 英語の説明 */
+        String en;
+
+        /** 日本語の説明 */
+        String ja;
+
+        /** 型パラメータ（名前、英語、日本語） */
+        List<String[]> typeParams = new ArrayList<String[]>();
+
+        /** パラメータ（名前、英語、日本語） */
+        List<String[]> params = new ArrayList<String[]>();
+
+        /** 戻り値（英語、日本語） */
+        String[] ret;
+
+        /** 例外（単純名、完全修飾名、英語、日本語） */
+        List<String[]> throwses = new ArrayList<String[]>();
+
+        /** 非推奨（英語、日本語） */
+        String[] deprecated;
+    }
+
+    /**
+     * クラスです。
+     */
+    private static class Type {
+
+        /** パッケージ名 */
+        String pkg;
+
+        /** 単純名（インナークラスの場合は外側のクラス名を含む、例: Outer.Inner） */
+        String name;
+
+        /** ソース上のクラス名 */
+        String simpleName;
+
+        /** 型パラメータ（無い場合は null） */
+        String typeParam;
+
+        /** 英語の説明 */
+        String en;
+
+        /** 日本語の説明 */
+        String ja;
+
+        /** フィールド */
+        List<Member> fields = new ArrayList<Member>();
+
+        /** コンストラクタ */
+        List<Member> constructors = new ArrayList<Member>();
+
+        /** メソッド */
+        List<Member> methods = new ArrayList<Member>();
+
+        /** インナークラス */
+        List<Type> inners = new ArrayList<Type>();
+    }
+
+    /** クラス数 */
+    private final int classCount;
+
+    /** 1 クラスあたりのメソッド数 */
+    private final int methodCount;
+
+    /** 乱数 */
+    private final Random random;
+
+    /** 生成した Java ソースの合計バイト数 */
+    private long sourceBytes;
+
+    /**
+     * コンストラクタです。
+     * @param classCount トップレベルクラス数
+     * @param methodCount 1 クラスあたりのメソッド数
+     * @param seed 乱数の種
+     */
+    public CorpusGenerator(int classCount, int methodCount, long seed) {
+        this.classCount = classCount;
+        this.methodCount = methodCount;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * コーパスを生成します。
+     * @param srcZip 出力する Java ソース ZIP ファイル
+     * @param docDir 出力する API ドキュメントディレクトリ
+     * @throws IOException 入出力例外が発生した場合
+     */
+    public void generate(File srcZip, File docDir) throws IOException {
+
+        StringBuilder allClasses = new StringBuilder();
+        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(srcZip)));
+        try {
+            String lastPkg = null;
+            for (int i = 0; i < classCount; i++) {
+
+                String pkg = String.format("synth.p%03d", i / 50);
+                if (!pkg.equals(lastPkg)) {
+                    lastPkg = pkg;
+                    String info = "/**" + LF + " * Synthetic package " + pkg + "." + LF + " */" + LF + "package " + pkg + ";" + LF;
+                    putEntry(zos, pkg.replace('.', '/') + "/package-info.java", info);
+                }
+
+                Type type = createType(pkg, NAMES[i % NAMES.length] + i, i);
+                String path = pkg.replace('.', '/') + "/" + type.simpleName;
+                putEntry(zos, path + ".java", toSource(type));
+                writeDocs(docDir, type, null, allClasses);
+            }
+        } finally {
+            zos.close();
+        }
+
+        String html = "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\" \"http://www.w3.org/TR/html4/loose.dtd\">" + LF
+            + "<html lang=\"ja\">" + LF + "<head>" + LF
+            + "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">" + LF
+            + "<title>すべてのクラス</title>" + LF + "</head>" + LF + "<body>" + LF
+            + "<h1 class=\"bar\">すべてのクラス</h1>" + LF + "<div class=\"indexContainer\">" + LF + "<ul>" + LF
+            + allClasses + "</ul>" + LF + "</div>" + LF + "</body>" + LF + "</html>" + LF;
+        write(new File(docDir, "allclasses-frame.html"), html);
+    }
+
+    /**
+     * 生成した Java ソースの合計バイト数を取得します。
+     * @return 合計バイト数
+     */
+    public long getSourceBytes() {
+        return sourceBytes;
+    }
+
+    /**
+     * クラスを作成します。
+     * @param pkg パッケージ名
+     * @param name クラス名
+     * @param index クラスの番号
+     * @return クラス
+     */
+    private Type createType(String pkg, String name, int index) {
+
+        Type type = new Type();
+        type.pkg = pkg;
+        type.name = name;
+        type.simpleName = name;
+        type.typeParam = (index % 3 == 0) ? "E" : null;
+        describeClass(type, 10 + random.nextInt(30));
+
+        Member field = new Member();
+        field.name = "LIMIT";
+        field.anchor = "LIMIT";
+        field.decl = "public static final int LIMIT = " + (index + 16) + ";";
+        field.pre = "public static final&nbsp;int LIMIT";
+        field.en = "The maximum number of entries held by one instance.";
+        field.ja = "1 つのインスタンスが保持するエントリの最大数です。";
+        type.fields.add(field);
+
+        addConstructors(type);
+        for (int j = 0; j < methodCount; j++) {
+            type.methods.add(createMethod(type, j));
+        }
+
+        // 2 段にネストしたインナークラス
+        if (index % 2 == 0) {
+            Type inner = createInner(type, "Entry");
+            inner.inners.add(createInner(inner, "Node"));
+            type.inners.add(inner);
+        }
+        return type;
+    }
+
+    /**
+     * インナークラスを作成します。
+     * @param outer 外側のクラス
+     * @param simpleName クラス名
+     * @return インナークラス
+     */
+    private Type createInner(Type outer, String simpleName) {
+
+        Type inner = new Type();
+        inner.pkg = outer.pkg;
+        inner.name = outer.name + "." + simpleName;
+        inner.simpleName = simpleName;
+        describeClass(inner, 3);
+        addConstructors(inner);
+        for (int j = 0; j < 3; j++) {
+            inner.methods.add(createMethod(inner, j * 2));
+        }
+        return inner;
+    }
+
+    /**
+     * クラスの説明を設定します。説明には表と pre ブロックが含まれます。
+     * @param type クラス
+     * @param rows 表の行数
+     */
+    private void describeClass(Type type, int rows) {
+
+        StringBuilder en = new StringBuilder();
+        StringBuilder ja = new StringBuilder();
+        en.append("A synthetic ").append(type.simpleName).append(" used to measure the merge.").append(LF);
+        ja.append("マージの計測に使用する合成の ").append(type.simpleName).append(" です。").append(LF);
+
+        en.append("<p>").append(LF).append("The operations are summarized below.").append(LF);
+        ja.append(" <p>").append(LF).append(" 操作の概要を次の表に示します。").append(LF);
+        en.append("<table border=\"1\" summary=\"operations\">").append(LF);
+        ja.append(" <table border=\"1\" summary=\"操作\">").append(LF);
+        en.append("<tr><th>Operation</th><th>Description</th></tr>").append(LF);
+        ja.append(" <tr><th>操作</th><th>説明</th></tr>").append(LF);
+        for (int i = 0; i < rows; i++) {
+            int s = random.nextInt(EN.length);
+            en.append("<tr><td><code>op").append(i).append("()</code></td><td>").append(EN[s]).append("</td></tr>").append(LF);
+            ja.append(" <tr><td><code>op").append(i).append("()</code></td><td>").append(JA[s]).append("</td></tr>").append(LF);
+        }
+        en.append("</table>").append(LF);
+        ja.append(" </table>").append(LF);
+
+        en.append("<p>").append(LF).append("Typical usage:").append(LF).append("<pre>").append(LF);
+        ja.append(" <p>").append(LF).append(" 一般的な使用方法は次のとおりです。").append(LF).append(" <pre>").append(LF);
+        String var = type.simpleName.toLowerCase();
+        String[] code = {
+            "    " + type.simpleName + " " + var + " = new " + type.simpleName + "(LIMIT);",
+            "    Map&lt;String, List&lt;Integer&gt;&gt; map = new HashMap&lt;&gt;();",
+            "    for (int i = 0; i &lt; " + var + ".size(); i++) {",
+            "        map.put(\"key\" + i, " + var + ".values(i));",
+            "    }",
+        };
+        for (String line : code) {
+            en.append(line).append(LF);
+            ja.append("     ").append(line.substring(4)).append(LF);
+        }
+        en.append("</pre>");
+        ja.append(" </pre>");
+
+        type.en = en.toString();
+        type.ja = ja.toString();
+    }
+
+    /**
+     * コンストラクタを追加します。
+     * @param type クラス
+     */
+    private void addConstructors(Type type) {
+
+        Member noArg = new Member();
+        noArg.name = type.name;
+        noArg.anchor = type.name + "()";
+        noArg.decl = "public " + type.simpleName + "()";
+        noArg.pre = "public&nbsp;" + type.name + "()";
+        noArg.body = "this(LIMIT);";
+        noArg.en = "Constructs an empty instance with the default capacity.";
+        noArg.ja = "デフォルトの容量で空のインスタンスを構築します。";
+        type.constructors.add(noArg);
+
+        Member cap = new Member();
+        cap.name = type.name;
+        cap.anchor = type.name + "(int)";
+        cap.decl = "public " + type.simpleName + "(int capacity)";
+        cap.pre = "public&nbsp;" + type.name + "(int&nbsp;capacity)";
+        cap.body = "if (capacity < 0) throw new IllegalArgumentException();";
+        cap.en = "Constructs an empty instance with the specified capacity.";
+        cap.ja = "指定された容量で空のインスタンスを構築します。";
+        cap.params.add(new String[] {"capacity", "the initial capacity", "初期容量"});
+        cap.throwses.add(new String[] {"IllegalArgumentException", "java.lang.IllegalArgumentException",
+            "if the capacity is negative", "容量が負の場合"});
+        type.constructors.add(cap);
+    }
+
+    /**
+     * メソッドを作成します。
+     * @param type クラス
+     * @param j メソッドの番号
+     * @return メソッド
+     */
+    private Member createMethod(Type type, int j) {
+
+        int s = random.nextInt(EN.length);
+        Member m = new Member();
+        m.en = EN[s];
+        m.ja = JA[s];
+
+        switch (j % 5) {
+        case 0:
+            m.name = "find" + j;
+            m.anchor = m.name + "(java.lang.String, int)";
+            m.decl = "public int " + m.name + "(String text, int offset)";
+            m.pre = "public&nbsp;int&nbsp;" + m.name + "(java.lang.String&nbsp;text," + LF + "       int&nbsp;offset)";
+            m.body = "return text.indexOf('x', offset);";
+            m.params.add(new String[] {"text", "the text to search", "検索するテキスト"});
+            m.params.add(new String[] {"offset", "the index to start from", "検索を開始するインデックス"});
+            m.ret = new String[] {"the index, or <code>-1</code>", "インデックス。見つからない場合は <code>-1</code>"};
+            m.throwses.add(new String[] {"NullPointerException", "java.lang.NullPointerException",
+                "if <code>text</code> is <code>null</code>", "<code>text</code> が <code>null</code> の場合"});
+            break;
+
+        case 1:
+            m.name = "group" + j;
+            m.anchor = m.name + "(java.util.List, V)";
+            m.decl = "public <K, V> Map<K, V> " + m.name + "(List<? extends K> keys, V value)";
+            m.pre = "public&nbsp;&lt;K,V&gt;&nbsp;java.util.Map&lt;K,V&gt;&nbsp;" + m.name
+                + "(java.util.List&lt;? extends K&gt;&nbsp;keys," + LF + "       V&nbsp;value)";
+            m.body = "return null;";
+            m.typeParams.add(new String[] {"K", "the type of keys", "キーの型"});
+            m.typeParams.add(new String[] {"V", "the type of values", "値の型"});
+            m.params.add(new String[] {"keys", "the keys", "キー"});
+            m.params.add(new String[] {"value", "the value for every key", "すべてのキーの値"});
+            m.ret = new String[] {"a new map", "新しいマップ"};
+            break;
+
+        case 2:
+            m.name = "write" + j;
+            m.anchor = m.name + "(int[])";
+            m.decl = "public void " + m.name + "(int[] values) throws IOException";
+            m.pre = "public&nbsp;void&nbsp;" + m.name + "(int[]&nbsp;values)" + LF + "           throws java.io.IOException";
+            m.body = "if (values == null) throw new IOException();";
+            m.params.add(new String[] {"values", "the values to write", "書き込む値"});
+            m.throwses.add(new String[] {"IOException", "java.io.IOException",
+                "if an I/O error occurs", "入出力エラーが発生した場合"});
+            if (j % 10 == 2) {
+                m.deprecated = new String[] {"use <code>find0</code> instead", "代わりに <code>find0</code> を使用してください。"};
+            }
+            break;
+
+        case 3:
+            m.name = "format" + j;
+            m.anchor = m.name + "(java.lang.String, java.lang.Object...)";
+            m.decl = "public static String " + m.name + "(String pattern, Object... args)";
+            m.pre = "public static&nbsp;java.lang.String&nbsp;" + m.name + "(java.lang.String&nbsp;pattern," + LF
+                + "       java.lang.Object...&nbsp;args)";
+            m.body = "return String.format(pattern, args);";
+            m.params.add(new String[] {"pattern", "the format pattern", "書式パターン"});
+            m.params.add(new String[] {"args", "the arguments", "引数"});
+            m.ret = new String[] {"the formatted text", "書式化されたテキスト"};
+            break;
+
+        default:
+            String elem = (type.typeParam != null) ? "E" : "Object";
+            String elemHtml = (type.typeParam != null) ? "E" : "java.lang.Object";
+            m.name = "collect" + j;
+            m.anchor = m.name + "(" + elemHtml + ")";
+            m.decl = "public List<" + elem + "> " + m.name + "(" + elem + " element)";
+            m.pre = "public&nbsp;java.util.List&lt;" + elemHtml + "&gt;&nbsp;" + m.name + "(" + elemHtml + "&nbsp;element)";
+            m.body = "return null;";
+            m.en += LF + "<pre>" + LF + "    List&lt;" + elem + "&gt; list = " + m.name + "(e);" + LF + "</pre>";
+            m.ja += LF + " <pre>" + LF + "     List&lt;" + elem + "&gt; list = " + m.name + "(e);" + LF + " </pre>";
+            m.params.add(new String[] {"element", "the element", "要素"});
+            m.ret = new String[] {"a list containing the element", "要素を含むリスト"};
+            break;
+        }
+        return m;
+    }
+
+    //--------------------------------------------------------------------------
+    // Java ソース
+    //--------------------------------------------------------------------------
+
+    /**
+     * Java ソースを作成します。
+     * @param type クラス
+     * @return Java ソース
+     */
+    private String toSource(Type type) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("/*").append(LF);
+        sb.append(" * Synthetic source generated for merge benchmarks.").append(LF);
+        sb.append(" */").append(LF).append(LF);
+        sb.append("package ").append(type.pkg).append(";").append(LF).append(LF);
+        sb.append("import java.io.IOException;").append(LF);
+        sb.append("import java.util.List;").append(LF);
+        sb.append("import java.util.Map;").append(LF).append(LF);
+        appendType(sb, type, "");
+        return sb.toString();
+    }
+
+    /**
+     * クラスの Java ソースを追加します。
+     * @param sb 追加先
+     * @param type クラス
+     * @param indent インデント
+     */
+    private void appendType(StringBuilder sb, Type type, String indent) {
+
+        appendComment(sb, indent, type.en, null);
+        sb.append(indent).append(indent.length() == 0 ? "public class " : "public static class ");
+        sb.append(type.simpleName);
+        if (type.typeParam != null) {
+            sb.append("<").append(type.typeParam).append(">");
+        }
+        sb.append(" {").append(LF);
+
+        String in = indent + "    ";
+        for (Member m : type.fields) {
+            sb.append(LF);
+            appendComment(sb, in, m.en, m);
+            sb.append(in).append(m.decl).append(LF);
+        }
+        for (Member m : type.constructors) {
+            appendMember(sb, in, m);
+        }
+        for (Member m : type.methods) {
+            appendMember(sb, in, m);
+        }
+        for (Type inner : type.inners) {
+            sb.append(LF);
+            appendType(sb, inner, in);
+        }
+        sb.append(indent).append("}").append(LF);
+    }
+
+    /**
+     * メソッド、コンストラクタの Java ソースを追加します。
+     * @param sb 追加先
+     * @param indent インデント
+     * @param m メンバー
+     */
+    private void appendMember(StringBuilder sb, String indent, Member m) {
+        sb.append(LF);
+        appendComment(sb, indent, m.en, m);
+        if (m.deprecated != null) {
+            sb.append(indent).append("@Deprecated").append(LF);
+        }
+        sb.append(indent).append(m.decl).append(" {").append(LF);
+        sb.append(indent).append("    ").append(m.body).append(LF);
+        sb.append(indent).append("}").append(LF);
+    }
+
+    /**
+     * Javadoc コメントを追加します。
+     * @param sb 追加先
+     * @param indent インデント
+     * @param text 説明
+     * @param m メンバー。タグを出力しない場合は null。
+     */
+    private void appendComment(StringBuilder sb, String indent, String text, Member m) {
+
+        sb.append(indent).append("/**").append(LF);
+        for (String line : text.split(LF)) {
+            sb.append(indent).append(" * ").append(line).append(LF);
+        }
+        if (m == null) {
+            sb.append(indent).append(" *").append(LF);
+            sb.append(indent).append(" * @author Synthetic").append(LF);
+            sb.append(indent).append(" * @since 1.0").append(LF);
+        } else if (m.typeParams.size() + m.params.size() + m.throwses.size() > 0 || m.ret != null || m.deprecated != null) {
+            sb.append(indent).append(" *").append(LF);
+            for (String[] p : m.typeParams) {
+                sb.append(indent).append(" * @param <").append(p[0]).append("> ").append(p[1]).append(LF);
+            }
+            for (String[] p : m.params) {
+                sb.append(indent).append(" * @param ").append(p[0]).append(" ").append(p[1]).append(LF);
+            }
+            if (m.ret != null) {
+                sb.append(indent).append(" * @return ").append(m.ret[0]).append(LF);
+            }
+            for (String[] t : m.throwses) {
+                sb.append(indent).append(" * @throws ").append(t[0]).append(" ").append(t[2]).append(LF);
+            }
+            if (m.deprecated != null) {
+                sb.append(indent).append(" * @deprecated ").append(m.deprecated[0]).append(LF);
+            }
+        }
+        sb.append(indent).append(" */").append(LF);
+    }
+
+    //--------------------------------------------------------------------------
+    // API ドキュメント
+    //--------------------------------------------------------------------------
+
+    /**
+     * クラスとインナークラスの API ドキュメントを出力します。
+     * @param docDir API ドキュメントディレクトリ
+     * @param type クラス
+     * @param outer 外側のクラス。トップレベルクラスの場合は null。
+     * @param allClasses allclasses-frame.html の項目の追加先
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private void writeDocs(File docDir, Type type, Type outer, StringBuilder allClasses) throws IOException {
+
+        String path = type.pkg.replace('.', '/') + "/" + type.name + ".html";
+        allClasses.append("<li><a href=\"").append(path).append("\" title=\"").append(type.pkg)
+            .append("内のクラス\" target=\"classFrame\">").append(type.name).append("</a></li>").append(LF);
+        write(new File(docDir, path), toHtml(type, outer));
+
+        for (Type inner : type.inners) {
+            writeDocs(docDir, inner, type, allClasses);
+        }
+    }
+
+    /**
+     * クラスの API ドキュメントを作成します。
+     * @param type クラス
+     * @param outer 外側のクラス。トップレベルクラスの場合は null。
+     * @return HTML
+     */
+    private String toHtml(Type type, Type outer) {
+
+        String title = type.name + (type.typeParam != null ? "&lt;" + type.typeParam + "&gt;" : "");
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\" \"http://www.w3.org/TR/html4/loose.dtd\">").append(LF);
+        sb.append("<!-- NewPage -->").append(LF);
+        sb.append("<html lang=\"ja\">").append(LF).append("<head>").append(LF);
+        sb.append("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">").append(LF);
+        sb.append("<title>").append(type.name).append("</title>").append(LF);
+        sb.append("</head>").append(LF).append("<body>").append(LF);
+        sb.append("<!-- ======== START OF CLASS DATA ======== -->").append(LF);
+        sb.append("<div class=\"header\">").append(LF);
+        sb.append("<div class=\"subTitle\">").append(type.pkg).append("</div>").append(LF);
+        sb.append("<h2 title=\"クラス ").append(title).append("\" class=\"title\">クラス ").append(title).append("</h2>").append(LF);
+        sb.append("</div>").append(LF);
+        sb.append("<div class=\"contentContainer\">").append(LF);
+
+        // クラスの説明
+        sb.append("<div class=\"description\">").append(LF);
+        sb.append("<ul class=\"blockList\">").append(LF).append("<li class=\"blockList\">").append(LF);
+        if (outer != null) {
+            sb.append("<dl>").append(LF).append("<dt>含まれているクラス:</dt>").append(LF);
+            sb.append("<dd>").append(outer.name).append("</dd>").append(LF).append("</dl>").append(LF);
+        }
+        sb.append("<hr>").append(LF).append("<br>").append(LF);
+        sb.append("<pre>public ").append(outer != null ? "static " : "").append("class <span class=\"strong\">")
+            .append(title).append("</span>").append(LF).append("extends java.lang.Object</pre>").append(LF);
+        sb.append("<div class=\"block\">").append(type.ja).append("</div>").append(LF);
+        sb.append("<dl><dt><span class=\"strong\">導入されたバージョン:</span></dt>").append(LF);
+        sb.append("  <dd>1.0</dd></dl>").append(LF);
+        sb.append("</li>").append(LF).append("</ul>").append(LF).append("</div>").append(LF);
+
+        // 詳細
+        sb.append("<div class=\"details\">").append(LF);
+        sb.append("<ul class=\"blockList\">").append(LF).append("<li class=\"blockList\">").append(LF);
+        appendDetails(sb, "FIELD DETAIL", "field_detail", "フィールドの詳細", type.fields);
+        appendDetails(sb, "CONSTRUCTOR DETAIL", "constructor_detail", "コンストラクタの詳細", type.constructors);
+        appendDetails(sb, "METHOD DETAIL", "method_detail", "メソッドの詳細", type.methods);
+        sb.append("</li>").append(LF).append("</ul>").append(LF).append("</div>").append(LF);
+
+        sb.append("</div>").append(LF);
+        sb.append("<!-- ========= END OF CLASS DATA ========= -->").append(LF);
+        sb.append("</body>").append(LF).append("</html>").append(LF);
+        return sb.toString();
+    }
+
+    /**
+     * 詳細のセクションを追加します。
+     * @param sb 追加先
+     * @param comment セクションのコメント
+     * @param anchor セクションのアンカー名
+     * @param heading セクションの見出し
+     * @param members メンバー
+     */
+    private void appendDetails(StringBuilder sb, String comment, String anchor, String heading, List<Member> members) {
+
+        if (members.isEmpty()) {
+            return;
+        }
+        sb.append("<!-- ").append(comment).append(" -->").append(LF);
+        sb.append("<ul class=\"blockList\">").append(LF);
+        sb.append("<li class=\"blockList\"><a name=\"").append(anchor).append("\">").append(LF);
+        sb.append("<!--   -->").append(LF).append("</a>").append(LF);
+        sb.append("<h3>").append(heading).append("</h3>").append(LF);
+
+        for (int i = 0; i < members.size(); i++) {
+            Member m = members.get(i);
+            sb.append("<a name=\"").append(m.anchor).append("\">").append(LF);
+            sb.append("<!--   -->").append(LF).append("</a>").append(LF);
+            sb.append(i == members.size() - 1 ? "<ul class=\"blockListLast\">" : "<ul class=\"blockList\">").append(LF);
+            sb.append("<li class=\"blockList\">").append(LF);
+            sb.append("<h4>").append(m.name).append("</h4>").append(LF);
+            sb.append("<pre>").append(m.deprecated != null ? "@Deprecated" + LF : "").append(m.pre).append("</pre>").append(LF);
+            if (m.deprecated != null) {
+                sb.append("<div class=\"block\"><span class=\"strong\">非推奨。</span>&nbsp;<i>")
+                    .append(m.deprecated[1]).append("</i></div>").append(LF);
+            }
+            sb.append("<div class=\"block\">").append(m.ja).append("</div>").append(LF);
+            appendTags(sb, m);
+            sb.append("</li>").append(LF).append("</ul>").append(LF);
+        }
+        sb.append("</li>").append(LF).append("</ul>").append(LF);
+    }
+
+    /**
+     * メンバーのタグを追加します。
+     * @param sb 追加先
+     * @param m メンバー
+     */
+    private void appendTags(StringBuilder sb, Member m) {
+
+        List<String> dts = new ArrayList<String>();
+        if (!m.typeParams.isEmpty()) {
+            dts.add(dt("型パラメータ:") + dds(m.typeParams, 0, 2));
+        }
+        if (!m.params.isEmpty()) {
+            dts.add(dt("パラメータ:") + dds(m.params, 0, 2));
+        }
+        if (m.ret != null) {
+            dts.add(dt("戻り値:") + "<dd>" + m.ret[1] + "</dd>");
+        }
+        if (!m.throwses.isEmpty()) {
+            dts.add(dt("例外:") + LF + dds(m.throwses, 1, 3));
+        }
+        if (dts.isEmpty()) {
+            return;
+        }
+        sb.append("<dl>");
+        for (int i = 0; i < dts.size(); i++) {
+            sb.append(i == 0 ? "" : LF).append(dts.get(i));
+        }
+        sb.append("</dl>").append(LF);
+    }
+
+    /**
+     * dt 要素を作成します。
+     * @param label ラベル
+     * @return dt 要素
+     */
+    private static String dt(String label) {
+        return "<dt><span class=\"strong\">" + label + "</span></dt>";
+    }
+
+    /**
+     * 名前と説明の dd 要素を作成します。
+     * @param items 項目
+     * @param nameIndex 名前のインデックス
+     * @param descIndex 説明のインデックス
+     * @return dd 要素
+     */
+    private static String dds(List<String[]> items, int nameIndex, int descIndex) {
+        StringBuilder sb = new StringBuilder();
+        for (String[] item : items) {
+            sb.append("<dd><code>").append(item[nameIndex]).append("</code> - ").append(item[descIndex]).append("</dd>");
+        }
+        return sb.toString();
+    }
+
+    //--------------------------------------------------------------------------
+    // 入出力
+    //--------------------------------------------------------------------------
+
+    /**
+     * ZIP エントリを出力します。
+     * @param zos ZIP 出力ストリーム
+     * @param name エントリ名
+     * @param content 内容
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private void putEntry(ZipOutputStream zos, String name, String content) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        sourceBytes += bytes.length;
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
+    /**
+     * UTF-8 のファイルを出力します。
+     * @param file ファイル
+     * @param content 内容
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            os.write(content.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import mergedoc.core.MergeManager;
+import mergedoc.core.Preference;
+import mergedoc.core.WorkingState;
+import mergedoc.xml.ConfigManager;
+import mergedoc.xml.ReplaceEntry;
+
+/**
+ * 合成コーパスを使用したエンドツーエンドのベンチマークです。
+ * <p>
+ * {@link CorpusGenerator} で生成したソース ZIP と API ドキュメントを入力として
+ * MergeManager#execute() を実行し、アーカイブの入出力を含めたスループット
+ * （ファイル/秒、MB/秒）、GC 回数と時間、ヒープの最大使用量、プロセスの
+ * 最大常駐メモリ（Linux の /proc/self/status の VmHWM）と、最後の計測の
+ * 処理段階ごとの時間とカウンタを出力します。
+ * コーパスは作業ディレクトリにパラメータごとに生成され、次回以降は再利用されます。
+ * <pre>
+ * 使用方法: EndToEndBenchmark &lt;workDir&gt; [-classes N] [-methods N] [-seed N] [-runs N] [-regenerate]
+ * </pre>
+ *
+ * @author Shinji Kashihara
+ */
+public class EndToEndBenchmark {
+
+    /** トップレベルクラス数 */
+    private int classCount = 2000;
+
+    /** 1 クラスあたりのメソッド数 */
+    private int methodCount = 12;
+
+    /** 乱数の種 */
+    private long seed = 1;
+
+    /** 計測回数 */
+    private int runs = 3;
+
+    /** コーパスを再生成する場合は true */
+    private boolean regenerate;
+
+    /**
+     * メインです。
+     * @param args 起動引数
+     * @throws Exception ベンチマークの処理に失敗した場合
+     */
+    public static void main(String[] args) throws Exception {
+
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 0) {
+            System.err.println("Usage: EndToEndBenchmark <workDir> [-classes N] [-methods N] [-seed N] [-runs N] [-regenerate]");
+            System.exit(2);
+        }
+        EndToEndBenchmark bench = new EndToEndBenchmark();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-regenerate")) {
+                bench.regenerate = true;
+            } else if (i + 1 < args.length) {
+                String value = args[++i];
+                if (args[i - 1].equals("-classes")) {
+                    bench.classCount = Integer.parseInt(value);
+                } else if (args[i - 1].equals("-methods")) {
+                    bench.methodCount = Integer.parseInt(value);
+                } else if (args[i - 1].equals("-seed")) {
+                    bench.seed = Long.parseLong(value);
+                } else if (args[i - 1].equals("-runs")) {
+                    bench.runs = Integer.parseInt(value);
+                }
+            }
+        }
+        bench.run(new File(args[0]));
+
+        // エントリー数取得スレッドが残るため明示的に終了する
+        System.exit(0);
+    }
+
+    /**
+     * ベンチマークを実行します。
+     * @param workDir 作業ディレクトリ
+     * @throws Exception ベンチマークの処理に失敗した場合
+     */
+    private void run(File workDir) throws Exception {
+
+        // コーパスの生成
+        File corpusDir = new File(workDir, "corpus-" + classCount + "-" + methodCount + "-" + seed);
+        final File srcZip = new File(corpusDir, "src.zip");
+        final File docDir = new File(corpusDir, "api");
+        if (regenerate || !srcZip.exists()) {
+            delete(corpusDir);
+            docDir.mkdirs();
+            long start = System.nanoTime();
+            new CorpusGenerator(classCount, methodCount, seed).generate(srcZip, docDir);
+            System.out.println("# Generated " + corpusDir + " in " + format((System.nanoTime() - start) / 1e9) + " s");
+        }
+
+        // 入力の規模
+        int entryCount = 0;
+        int javaCount = 0;
+        long sourceBytes = 0;
+        ZipFile zip = new ZipFile(srcZip);
+        try {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                entryCount++;
+                if (entry.getName().endsWith(".java")) {
+                    javaCount++;
+                }
+                sourceBytes += entry.getSize();
+            }
+        } finally {
+            zip.close();
+        }
+        double sourceMB = sourceBytes / (1024.0 * 1024.0);
+        double zipMB = srcZip.length() / (1024.0 * 1024.0);
+        System.out.println("# Input: " + entryCount + " entries (" + javaCount + " java), "
+            + format(sourceMB) + " MB source, " + format(zipMB) + " MB zip");
+
+        List<ReplaceEntry> entryList = ConfigManager.getInstance().getGlobalEntries();
+        final ReplaceEntry[] globalEntries = entryList.toArray(new ReplaceEntry[entryList.size()]);
+        final File outZip = new File(workDir, "out.zip");
+        Preference pref = new Preference() {
+
+            @Override
+            public File getDocDirectory() {
+                return docDir;
+            }
+
+            @Override
+            public File getInputArchive() {
+                return srcZip;
+            }
+
+            @Override
+            public File getOutputArchive() {
+                return outZip;
+            }
+
+            @Override
+            public String getDocEncoding() {
+                return "UTF-8";
+            }
+
+            @Override
+            public String getInputEncoding() {
+                return "UTF-8";
+            }
+
+            @Override
+            public String getOutputEncoding() {
+                return "UTF-8";
+            }
+
+            @Override
+            public ReplaceEntry[] getGlobalEntries() {
+                return globalEntries;
+            }
+
+            @Override
+            public String[] getIncludePatterns() {
+                return new String[0];
+            }
+
+            @Override
+            public String[] getExcludePatterns() {
+                return new String[0];
+            }
+        };
+
+        System.out.println(String.format("%-4s %9s %10s %9s %9s %6s %8s %12s",
+            "Run", "sec", "files/s", "MB/s", "zipMB/s", "GC", "GC ms", "peakHeapMB"));
+        MergeManager manager = null;
+        for (int i = 1; i <= runs; i++) {
+
+            manager = new MergeManager();
+            manager.setPreference(pref);
+            manager.setChangeListener(new ChangeListener() {
+                @Override
+                public void stateChanged(ChangeEvent e) {
+                }
+            });
+            manager.validate();
+
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            long gcCount = BenchmarkRunner.gcCount();
+            long gcMillis = BenchmarkRunner.gcMillis();
+            long start = System.nanoTime();
+            manager.execute();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.println(String.format("%-4d %9.2f %10.1f %9.2f %9.2f %6d %8d %12.1f",
+                i, seconds, entryCount / seconds, sourceMB / seconds, zipMB / seconds,
+                BenchmarkRunner.gcCount() - gcCount, BenchmarkRunner.gcMillis() - gcMillis, peakHeap() / (1024.0 * 1024.0)));
+        }
+
+        if (manager != null) {
+            WorkingState state = manager.getWorkingState();
+            System.out.println("# Stages of the last run (sec):");
+            for (WorkingState.Stage stage : WorkingState.Stage.values()) {
+                System.out.println(String.format("#   %-14s %8.2f", stage.name().toLowerCase(), state.getTime(stage) / 1e9));
+            }
+            for (WorkingState.Counter counter : WorkingState.Counter.values()) {
+                System.out.println(String.format("#   %-18s %d", counter.name().toLowerCase(), state.getCount(counter)));
+            }
+        }
+        String hwm = peakRss();
+        System.out.println("# Peak RSS: " + (hwm == null ? "-" : hwm));
+        System.out.println("# Output: " + outZip + " (" + format(outZip.length() / (1024.0 * 1024.0)) + " MB)");
+    }
+
+    /**
+     * ヒープのメモリプールの最大使用量の合計を取得します。
+     * @return バイト数
+     */
+    private static long peakHeap() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                bytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * プロセスの最大常駐メモリを取得します。
+     * @return 最大常駐メモリ。取得できない場合は null。
+     */
+    private static String peakRss() {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(status), "US-ASCII"));
+            try {
+                for (String line; (line = reader.readLine()) != null;) {
+                    if (line.startsWith("VmHWM:")) {
+                        return line.substring("VmHWM:".length()).trim();
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * ディレクトリを再帰的に削除します。
+     * @param file ファイルまたはディレクトリ
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * 数値を小数点以下 1 桁の文字列に変換します。
+     * @param value 数値
+     * @return 文字列
+     */
+    private static String format(double value) {
+        return String.format("%.1f", value);
+    }
+}
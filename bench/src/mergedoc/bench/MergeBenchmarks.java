@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import mergedoc.core.APIDocument;
+import mergedoc.core.Comment;
+import mergedoc.core.FastStringUtils;
+import mergedoc.core.JavaBuffer;
+import mergedoc.core.Merger;
+import mergedoc.core.Signature;
+import mergedoc.xml.ConfigManager;
+import mergedoc.xml.ReplaceEngine;
+import mergedoc.xml.ReplaceEntry;
+
+import org.jsoup.Jsoup;
+
+/**
+ * マージ処理のホットパスのベンチマークです。
+ * <p>
+ * 同梱のサンプルソースと API ドキュメント（bench/data）を入力として、
+ * シグネチャ解析、コメントの整形とビルド、ソースの走査、API ドキュメントの
+ * ロード、置換エントリの適用、文字列ユーティリティを計測します。
+ * <pre>
+ * 使用方法: MergeBenchmarks &lt;dataDir&gt; [-f regex] [-wi count] [-i count] [-t millis]
+ * </pre>
+ *
+ * @author Shinji Kashihara
+ */
+public class MergeBenchmarks {
+
+    /** サンプルのクラス名 */
+    private static final String CLASS_NAME = "sample.util.TextBuffer";
+
+    /** 旧実装のダミーコメント */
+    private static final String DUMMY_COMMENT = "/** Empty comment. " + MergeBenchmarks.class.getName() + ". */\n";
+
+    /** API ドキュメントディレクトリ */
+    private final File docDir;
+
+    /** サンプルの Java ソース */
+    private final String source;
+
+    /**
+     * コンストラクタです。
+     * @param dataDir データディレクトリ
+     * @throws IOException サンプルの読み込みに失敗した場合
+     */
+    private MergeBenchmarks(File dataDir) throws IOException {
+        docDir = new File(dataDir, "api");
+        source = read(new File(dataDir, "src/" + CLASS_NAME.replace('.', '/') + ".java"));
+    }
+
+    /**
+     * メインです。
+     * @param args 起動引数
+     * @throws Exception ベンチマークの処理に失敗した場合
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length == 0) {
+            System.err.println("Usage: MergeBenchmarks <dataDir> [-f regex] [-wi count] [-i count] [-t millis]");
+            System.exit(2);
+        }
+        BenchmarkRunner runner = new BenchmarkRunner();
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            if (args[i].equals("-f")) {
+                runner.setFilter(value);
+            } else if (args[i].equals("-wi")) {
+                runner.setWarmupIterations(Integer.parseInt(value));
+            } else if (args[i].equals("-i")) {
+                runner.setIterations(Integer.parseInt(value));
+            } else if (args[i].equals("-t")) {
+                runner.setIterationMillis(Long.parseLong(value));
+            }
+        }
+        new MergeBenchmarks(new File(args[0])).addTo(runner);
+        runner.run(System.out);
+    }
+
+    /**
+     * ベンチマークをランナーに追加します。
+     * @param runner ランナー
+     * @throws Exception 準備に失敗した場合
+     */
+    private void addTo(BenchmarkRunner runner) throws Exception {
+
+        runner.add(new Benchmark("Signature.<init> (method)") {
+            @Override
+            public Object run() {
+                return new Signature(CLASS_NAME, "public <K, V> int appendAll(Map<K, V> map)");
+            }
+        });
+
+        runner.add(new Benchmark("Signature.<init> (class)") {
+            @Override
+            public Object run() {
+                return new Signature(CLASS_NAME, "public static class TextBuffer.Segment\nextends java.lang.Object");
+            }
+        });
+
+        // HTML 整形結果はメモキャッシュされるため、整形処理の計測では呼び出しごとに
+        // 異なるコメントを渡して常にキャッシュミスとする
+        runner.add(new Benchmark("Comment.formatHTML") {
+            private Signature sig;
+            private String docBody;
+            private int count;
+
+            @Override
+            public void setUp() throws Exception {
+                sig = new Signature(CLASS_NAME, "public class TextBuffer");
+                docBody = readClassDescription();
+            }
+
+            @Override
+            public Object run() {
+                Comment comment = new Comment(sig);
+                comment.setDocumentBody(docBody + (count++));
+                return comment;
+            }
+        });
+
+        runner.add(new Benchmark("Comment.formatHTML (cached)") {
+            private Signature sig;
+            private String docBody;
+
+            @Override
+            public void setUp() throws Exception {
+                sig = new Signature(CLASS_NAME, "public class TextBuffer");
+                docBody = readClassDescription();
+            }
+
+            @Override
+            public Object run() {
+                Comment comment = new Comment(sig);
+                comment.setDocumentBody(docBody);
+                return comment;
+            }
+        });
+
+        runner.add(new Benchmark("Comment.buildComment") {
+            private Comment comment;
+            private String srcBody;
+
+            @Override
+            public void setUp() throws Exception {
+                APIDocument apiDoc = new APIDocument(docDir, CLASS_NAME, "UTF-8");
+                comment = apiDoc.getComment(new Signature(CLASS_NAME, "public int indexOf(String str, int fromIndex)"));
+                int end = source.indexOf("public int indexOf");
+                srcBody = source.substring(source.lastIndexOf("    /**", end), end);
+            }
+
+            @Override
+            public Object run() {
+                comment.setSourceBody(srcBody);
+                return comment.buildComment();
+            }
+        });
+
+        runner.add(new Benchmark("JavaBuffer.<init> (setupDummyComment)") {
+            @Override
+            public Object run() {
+                return new JavaBuffer("class", CLASS_NAME, source);
+            }
+        });
+
+        runner.add(new Benchmark("JavaBuffer.<init> (legacy regex)") {
+            @Override
+            public Object run() {
+                return setupDummyCommentByRegex(source);
+            }
+        });
+
+        runner.add(new Benchmark("JavaBuffer.nextComment/getSignature") {
+            @Override
+            public Object run() {
+                JavaBuffer javaBuf = new JavaBuffer("class", CLASS_NAME, source);
+                Signature last = null;
+                while (javaBuf.nextComment()) {
+                    last = javaBuf.getSignature();
+                }
+                return last;
+            }
+        });
+
+        runner.add(new Benchmark("APIDocument.<init>") {
+            @Override
+            public Object run() throws IOException {
+                return new APIDocument(docDir, CLASS_NAME, "UTF-8");
+            }
+        });
+
+        runner.add(new Benchmark("Merger.merge") {
+            private Merger merger;
+
+            @Override
+            public void setUp() {
+                merger = new Merger(docDir);
+                merger.setDocEncoding("UTF-8");
+            }
+
+            @Override
+            public Object run() throws IOException {
+                return merger.merge(source, "TextBuffer");
+            }
+        });
+
+        // グローバル置換はマージ後のソースに適用する
+        Merger merger = new Merger(docDir);
+        merger.setDocEncoding("UTF-8");
+        final String merged = merger.merge(source, "TextBuffer");
+        List<ReplaceEntry> entryList = ConfigManager.getInstance().getGlobalEntries();
+        final ReplaceEntry[] entries = entryList.toArray(new ReplaceEntry[entryList.size()]);
+
+        runner.add(new Benchmark("ReplaceEntry.replace (" + entries.length + " global entries)") {
+            @Override
+            public Object run() {
+                String result = merged;
+                for (ReplaceEntry entry : entries) {
+                    result = entry.replace(result);
+                }
+                return result;
+            }
+        });
+
+        runner.add(new Benchmark("ReplaceEngine.replace (" + entries.length + " global entries)") {
+            private ReplaceEngine engine;
+
+            @Override
+            public void setUp() {
+                engine = new ReplaceEngine(entries);
+            }
+
+            @Override
+            public Object run() {
+                return engine.replace(merged, CLASS_NAME);
+            }
+        });
+
+        runner.add(new Benchmark("FastStringUtils.replaceAll") {
+            @Override
+            public Object run() {
+                return FastStringUtils.replaceAll(merged, "(?m)^ *\\* *", "");
+            }
+        });
+
+        runner.add(new Benchmark("String.replaceAll (baseline)") {
+            @Override
+            public Object run() {
+                return merged.replaceAll("(?m)^ *\\* *", "");
+            }
+        });
+
+        runner.add(new Benchmark("FastStringUtils.untabify") {
+            private String tabbed;
+
+            @Override
+            public void setUp() {
+                tabbed = merged.replace("    ", "\t");
+            }
+
+            @Override
+            public Object run() {
+                return FastStringUtils.untabify(tabbed);
+            }
+        });
+
+        runner.add(new Benchmark("FastStringUtils.optimizeLineSeparator") {
+            private String crlf;
+
+            @Override
+            public void setUp() {
+                crlf = merged.replace("\n", "\r\n");
+            }
+
+            @Override
+            public Object run() {
+                return FastStringUtils.optimizeLineSeparator(crlf);
+            }
+        });
+    }
+
+    /**
+     * JavaBuffer#setupDummyComment の正規表現による旧実装です。
+     * 1 文字ずつ評価する現在の実装との比較に使用します。
+     * @param src Java ソース文字列
+     * @return ダミーコメントを挿入したソース文字列
+     */
+    private static String setupDummyCommentByRegex(String src) {
+        Matcher mat = Pattern.compile("\\{[^@]").matcher(src);
+        int pos = 0;
+        if (mat.find()) pos = mat.start();
+        String head = src.substring(0, pos);
+        String body = src.substring(pos);
+        body = body.replaceAll(
+            "([^/\\s]( *?\n)+)((\\s*)[\\w\\s]*\\s(class|interface)\\s)",
+            "$1$4/\\*\\*" + DUMMY_COMMENT + "\\*/\n$3");
+        return head + body;
+    }
+
+    /**
+     * サンプルのクラスの API ドキュメントからクラスの説明の HTML を取得します。
+     * @return クラスの説明の HTML
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private String readClassDescription() throws IOException {
+        String html = read(new File(docDir, CLASS_NAME.replace('.', '/') + ".html"));
+        return Jsoup.parse(html).select("div.description div.block").first().html();
+    }
+
+    /**
+     * UTF-8 のファイルを読み込みます。
+     * @param file ファイル
+     * @return ファイルの内容
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private static String read(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int len; (len = is.read(buf)) != -1;) {
+                bos.write(buf, 0, len);
+            }
+            return FastStringUtils.optimizeLineSeparator(bos.toString("UTF-8"));
+        } finally {
+            is.close();
+        }
+    }
+}
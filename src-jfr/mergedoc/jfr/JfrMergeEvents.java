@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import mergedoc.core.MergeEvents;
+
+/**
+ * マージ処理のイベントを Java Flight Recorder のカスタムイベントとして記録します。
+ * <p>
+ * Java 11 以降の API を使用するため、src とは別に src-jfr から Java 11 以降を
+ * 対象にビルドされます。{@link MergeEvents#getInstance()} からリフレクションで
+ * 生成されます。各イベントは記録が無効の場合は生成直後に破棄されます。
+ *
+ * @author Shinji Kashihara
+ */
+public class JfrMergeEvents extends MergeEvents {
+
+    /** アーカイブのエントリの処理イベント */
+    @Name("mergedoc.Entry")
+    @Label("Merge Entry")
+    @Category("MergeDoc")
+    static class EntryEvent extends Event {
+
+        @Label("Entry Name")
+        String entryName;
+
+        @Label("Input Bytes")
+        @DataAmount
+        long inputBytes;
+
+        @Label("Output Bytes")
+        @DataAmount
+        long outputBytes;
+    }
+
+    /** クラスのマージイベント */
+    @Name("mergedoc.Merge")
+    @Label("Merge Class")
+    @Category("MergeDoc")
+    static class MergeEvent extends Event {
+
+        @Label("Class Name")
+        String className;
+
+        @Label("Source Length")
+        int sourceLength;
+
+        @Label("Matched Comments")
+        int matched;
+
+        @Label("Unmatched Comments")
+        int unmatched;
+    }
+
+    /** API ドキュメントファイルのロードイベント */
+    @Name("mergedoc.DocLoad")
+    @Label("API Document Load")
+    @Category("MergeDoc")
+    static class DocLoadEvent extends Event {
+
+        @Label("Class Name")
+        String className;
+
+        @Label("HTML Length")
+        int htmlLength;
+
+        @Label("Comments")
+        int comments;
+    }
+
+    /** コメントの行数調整イベント */
+    @Name("mergedoc.CommentResize")
+    @Label("Comment Resize")
+    @Category("MergeDoc")
+    static class CommentResizeEvent extends Event {
+
+        @Label("Signature")
+        String signature;
+
+        @Label("Resize Time")
+        @Timespan
+        long resizeTime;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    /** 置換エントリの適用イベント */
+    @Name("mergedoc.Replace")
+    @Label("Replace Rule")
+    @Category("MergeDoc")
+    static class ReplaceEvent extends Event {
+
+        @Label("Class Name")
+        String className;
+
+        @Label("Rule")
+        String rule;
+
+        @Label("Rule Count")
+        int ruleCount;
+
+        @Label("Input Length")
+        int inputLength;
+
+        @Label("Output Length")
+        int outputLength;
+    }
+
+    /**
+     * コンストラクタです。
+     */
+    public JfrMergeEvents() {
+    }
+
+    /**
+     * イベントの記録が有効な場合は計測を開始します。
+     * @param event イベント
+     * @return 記録が有効な場合はイベント、無効な場合は null
+     */
+    private static Event begin(Event event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Object beginEntry() {
+        return begin(new EntryEvent());
+    }
+
+    @Override
+    public void commitEntry(Object event, String entryName, long inputBytes, long outputBytes) {
+        EntryEvent e = (EntryEvent) event;
+        if (e == null) {
+            return;
+        }
+        e.end();
+        if (e.shouldCommit()) {
+            e.entryName = entryName;
+            e.inputBytes = inputBytes;
+            e.outputBytes = outputBytes;
+            e.commit();
+        }
+    }
+
+    @Override
+    public Object beginMerge() {
+        return begin(new MergeEvent());
+    }
+
+    @Override
+    public void commitMerge(Object event, String className, int sourceLength, int matched, int unmatched) {
+        MergeEvent e = (MergeEvent) event;
+        if (e == null) {
+            return;
+        }
+        e.end();
+        if (e.shouldCommit()) {
+            e.className = className;
+            e.sourceLength = sourceLength;
+            e.matched = matched;
+            e.unmatched = unmatched;
+            e.commit();
+        }
+    }
+
+    @Override
+    public Object beginDocLoad() {
+        return begin(new DocLoadEvent());
+    }
+
+    @Override
+    public void commitDocLoad(Object event, String className, int htmlLength, int comments) {
+        DocLoadEvent e = (DocLoadEvent) event;
+        if (e == null) {
+            return;
+        }
+        e.end();
+        if (e.shouldCommit()) {
+            e.className = className;
+            e.htmlLength = htmlLength;
+            e.comments = comments;
+            e.commit();
+        }
+    }
+
+    @Override
+    public Object beginCommentBuild() {
+        return begin(new CommentResizeEvent());
+    }
+
+    @Override
+    public void commitCommentResize(Object event, String signature, long resizeNanos, boolean failed) {
+        CommentResizeEvent e = (CommentResizeEvent) event;
+        if (e == null || resizeNanos == 0) {
+            return;
+        }
+        e.end();
+        if (e.shouldCommit()) {
+            e.signature = signature;
+            e.resizeTime = resizeNanos;
+            e.failed = failed;
+            e.commit();
+        }
+    }
+
+    @Override
+    public Object beginReplace() {
+        return begin(new ReplaceEvent());
+    }
+
+    @Override
+    public void commitReplace(Object event, String className, String rule, int ruleCount, int inputLength, int outputLength) {
+        ReplaceEvent e = (ReplaceEvent) event;
+        if (e == null) {
+            return;
+        }
+        e.end();
+        if (e.shouldCommit()) {
+            e.className = className;
+            e.rule = rule;
+            e.ruleCount = ruleCount;
+            e.inputLength = inputLength;
+            e.outputLength = outputLength;
+            e.commit();
+        }
+    }
+}
@@ -12,6 +12,7 @@ import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.plaf.FontUIResource;
 
+import mergedoc.cli.CommandLine;
 import mergedoc.ui.MergeDocFrame;
 
 import org.apache.commons.logging.Log;
@@ -32,6 +33,12 @@ public class Application {
      */
     public static void main(String[] args) {
 
+        // 起動引数がある場合は GUI を使用せずにコマンドラインで実行
+        if (args.length > 0) {
+            CommandLine.main(args);
+            return;
+        }
+
         // システム固有の Look & Feel を設定
         try {
             initSystemLookAndFeel();
@@ -0,0 +1,649 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.cli;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import mergedoc.MergeDocException;
+import mergedoc.core.MergeManager;
+import mergedoc.core.Preference;
+import mergedoc.core.WorkingState;
+import mergedoc.xml.ConfigManager;
+import mergedoc.xml.Persister;
+import mergedoc.xml.ReplaceEntry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * GUI を使用せずにマージを行うコマンドライン起動エントリです。
+ * <p>
+ * マージ設定は Persister が保存する設定ファイル（mergedoc.properties）と同じ
+ * 形式のファイル、またはオプションで指定します。両方を指定した場合はオプションが
+ * 優先されます。AWT や Look &amp; Feel の初期化は行いません。
+ * <p>
+ * -src と -out を同じ数だけ複数指定した場合は、指定順に対応する組を
+ * {@link MergeManager#executeBatch(Preference, Map, ChangeListener)} でまとめて
+ * マージします。
+ * <p>
+ * 最初の起動引数に {@value MergeDaemon#OPTION} を指定した場合は、{@link MergeDaemon}
+ * として常駐し、{@link DaemonClient} から送られたマージを同じ JVM で繰り返し実行します。
+ *
+ * @author Shinji Kashihara
+ */
+public class CommandLine {
+
+    /** ロガー */
+    private static final Log log = LogFactory.getLog(CommandLine.class);
+
+    /** 正常終了の終了コード */
+    static final int EXIT_SUCCESS = 0;
+
+    /** マージ処理で異常が発生した場合の終了コード */
+    static final int EXIT_FAILURE = 1;
+
+    /** 起動引数が不正な場合の終了コード */
+    static final int EXIT_USAGE = 2;
+
+    /** 強制終了時にキャンセル処理の完了を待つ時間（ミリ秒） */
+    private static final long CANCEL_WAIT_MILLIS = 5000;
+
+    /** オプションと設定ファイルのキーの対応 */
+    private static final Map<String, Persister.Key> OPTION_KEYS = new HashMap<String, Persister.Key>();
+    static {
+        OPTION_KEYS.put("-doc", Persister.DOC_DIR);
+        OPTION_KEYS.put("-src", Persister.IN_FILE);
+        OPTION_KEYS.put("-out", Persister.OUT_FILE);
+        OPTION_KEYS.put("-docenc", Persister.DOC_ENC);
+        OPTION_KEYS.put("-srcenc", Persister.IN_ENC);
+        OPTION_KEYS.put("-outenc", Persister.OUT_ENC);
+    }
+
+    /** 出力先 */
+    private final PrintStream out;
+
+    /** エラーの出力先 */
+    private final PrintStream err;
+
+    /** 相対パスの基準ディレクトリ。null の場合はカレントディレクトリ。 */
+    private final File baseDir;
+
+    /** エンコーディングを省略した場合のエンコーディング */
+    private final String defaultEncoding;
+
+    /** 強制終了時にキャンセルするシャットダウンフックを登録する場合は true */
+    private final boolean useShutdownHook;
+
+    /** 実行中のマージのキャンセル処理。実行中でない場合は null。 */
+    private Runnable canceler;
+
+    /** {@link #cancel()} が呼び出された場合は true */
+    private boolean canceled;
+
+    /** 設定値 */
+    private final Map<Persister.Key, String> values = new HashMap<Persister.Key, String>();
+
+    /** 適用するグローバル置換エントリの説明 */
+    private String[] descriptions = new String[0];
+
+    /** 対象パスの glob パターン */
+    private String[] includes = new String[0];
+
+    /** 除外パスの glob パターン */
+    private String[] excludes = new String[0];
+
+    /** 進捗を表示しない場合は true */
+    private boolean quiet;
+
+    /** バッチ処理する入力と出力のソースアーカイブファイル。組が 1 つ以下の場合は空。 */
+    private final Map<File, File> archives = new LinkedHashMap<File, File>();
+
+    /**
+     * コンストラクタです。標準出力と標準エラーに出力します。
+     */
+    private CommandLine() {
+        this(System.out, System.err, null, System.getProperty("file.encoding"), true);
+    }
+
+    /**
+     * コンストラクタです。
+     * シャットダウンフックは登録しないため、{@link #cancel()} でキャンセルします。
+     * @param out 出力先
+     * @param err エラーの出力先
+     * @param baseDir 相対パスの基準ディレクトリ
+     * @param defaultEncoding エンコーディングを省略した場合のエンコーディング
+     */
+    CommandLine(PrintStream out, PrintStream err, File baseDir, String defaultEncoding) {
+        this(out, err, baseDir, defaultEncoding, false);
+    }
+
+    /**
+     * コンストラクタです。
+     * @param out 出力先
+     * @param err エラーの出力先
+     * @param baseDir 相対パスの基準ディレクトリ。null の場合はカレントディレクトリ。
+     * @param defaultEncoding エンコーディングを省略した場合のエンコーディング
+     * @param useShutdownHook 強制終了時にキャンセルするシャットダウンフックを登録する場合は true
+     */
+    private CommandLine(PrintStream out, PrintStream err, File baseDir, String defaultEncoding, boolean useShutdownHook) {
+        this.out = out;
+        this.err = err;
+        this.baseDir = baseDir;
+        this.defaultEncoding = defaultEncoding;
+        this.useShutdownHook = useShutdownHook;
+    }
+
+    /**
+     * メインです。
+     * @param args 起動引数
+     */
+    public static void main(String[] args) {
+
+        // AWT を初期化しない
+        System.setProperty("java.awt.headless", "true");
+
+        int status;
+        if (args.length > 0 && args[0].equals(MergeDaemon.OPTION)) {
+            status = MergeDaemon.run(Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            status = new CommandLine().run(args);
+        }
+
+        // エントリー数取得スレッドが残るため明示的に終了する
+        System.exit(status);
+    }
+
+    /**
+     * 起動引数を解析してマージを実行します。
+     * @param args 起動引数
+     * @return 終了コード
+     */
+    int run(String[] args) {
+        try {
+            if (!parse(args)) {
+                printUsage(err);
+                return EXIT_USAGE;
+            }
+            return execute();
+        } catch (MergeDocException e) {
+            err.println(e.getMessage());
+            return EXIT_FAILURE;
+        }
+    }
+
+    /**
+     * 実行中のマージをキャンセルします。
+     * マージの開始前に呼び出された場合は、開始後すぐにキャンセルします。
+     */
+    synchronized void cancel() {
+        canceled = true;
+        if (canceler != null) {
+            canceler.run();
+        }
+    }
+
+    /**
+     * 起動引数を解析します。
+     * @param args 起動引数
+     * @return 起動引数が正しい場合は true
+     * @throws MergeDocException 設定ファイルが読み込めない場合
+     */
+    private boolean parse(String[] args) throws MergeDocException {
+
+        Map<Persister.Key, String> options = new HashMap<Persister.Key, String>();
+        List<String> descList = new LinkedList<String>();
+        List<String> includeList = new LinkedList<String>();
+        List<String> excludeList = new LinkedList<String>();
+        List<File> srcList = new LinkedList<File>();
+        List<File> outList = new LinkedList<File>();
+        File propFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-quiet")) {
+                quiet = true;
+                continue;
+            }
+            if (arg.equals("-help") || i + 1 >= args.length) {
+                return false;
+            }
+            String value = args[++i];
+            if (arg.equals("-prop")) {
+                propFile = toFile(value);
+            } else if (arg.equals("-replace")) {
+                descList.add(value);
+            } else if (arg.equals("-include")) {
+                includeList.add(value);
+            } else if (arg.equals("-exclude")) {
+                excludeList.add(value);
+            } else if (OPTION_KEYS.containsKey(arg)) {
+                options.put(OPTION_KEYS.get(arg), value);
+                if (arg.equals("-src")) {
+                    srcList.add(toFile(value));
+                } else if (arg.equals("-out")) {
+                    outList.add(toFile(value));
+                }
+            } else {
+                return false;
+            }
+        }
+
+        // 複数の -src と -out はバッチ処理の組
+        if (srcList.size() > 1 || outList.size() > 1) {
+            if (srcList.size() != outList.size()) {
+                return false;
+            }
+            for (int i = 0; i < srcList.size(); i++) {
+                if (archives.containsKey(srcList.get(i))) {
+                    return false;
+                }
+                archives.put(srcList.get(i), outList.get(i));
+            }
+        }
+
+        // 設定ファイルの値をオプションで上書き
+        if (propFile != null) {
+            Persister psst = Persister.load(propFile);
+            for (Persister.Key key : OPTION_KEYS.values()) {
+                values.put(key, psst.getString(key, ""));
+            }
+            descriptions = psst.getStrings(Persister.REPLACE_DESCRIPTION_ARRAY);
+            includes = psst.getStrings(Persister.INCLUDE_PATTERN_ARRAY);
+            excludes = psst.getStrings(Persister.EXCLUDE_PATTERN_ARRAY);
+        }
+        values.putAll(options);
+        if (descList.size() > 0) {
+            descriptions = descList.toArray(new String[descList.size()]);
+        }
+        if (includeList.size() > 0) {
+            includes = includeList.toArray(new String[includeList.size()]);
+        }
+        if (excludeList.size() > 0) {
+            excludes = excludeList.toArray(new String[excludeList.size()]);
+        }
+        return true;
+    }
+
+    /**
+     * 使用方法を出力します。
+     * @param ps 出力先
+     */
+    private static void printUsage(PrintStream ps) {
+        ps.println("使用方法: java -jar mergedoc.jar [オプション]");
+        ps.println();
+        ps.println("  -prop <ファイル>            設定ファイル（mergedoc.properties と同じ形式）");
+        ps.println("  -doc <ディレクトリ>         API ドキュメントディレクトリ");
+        ps.println("  -src <ファイル>             入力ソースアーカイブファイル（-out と組で複数指定可）");
+        ps.println("  -out <ファイル>             出力ソースアーカイブファイル（-src と組で複数指定可）");
+        ps.println("  -docenc <エンコーディング>  API ドキュメントエンコーディング");
+        ps.println("  -srcenc <エンコーディング>  入力ソースエンコーディング");
+        ps.println("  -outenc <エンコーディング>  出力ソースエンコーディング");
+        ps.println("  -replace <説明>             適用するグローバル置換エントリの説明（複数指定可）");
+        ps.println("  -include <パターン>         マージ対象のエントリのパス（glob、複数指定可）");
+        ps.println("  -exclude <パターン>         マージ対象外のエントリのパス（glob、複数指定可）");
+        ps.println("  -quiet                      進捗を表示しない");
+        ps.println();
+        ps.println("常駐: java -jar mergedoc.jar " + MergeDaemon.OPTION + " [-port <ポート番号>]");
+        ps.println("常駐しているプロセスでのマージ: java -cp mergedoc.jar " + DaemonClient.class.getName() + " [オプション]");
+        ps.println();
+        ps.println("エンコーディングを省略した場合は実行環境のデフォルトエンコーディングになります。");
+        ps.println("-src と -out を複数指定した場合は、指定順の組ごとに並行してマージします。");
+    }
+
+    /**
+     * マージを実行します。
+     * @return 終了コード
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     */
+    private int execute() throws MergeDocException {
+
+        if (archives.size() > 0) {
+            return executeBatch();
+        }
+        Preference pref = createPreference();
+        final MergeManager mergeManager = new MergeManager();
+        mergeManager.setPreference(pref);
+
+        // 設定値の検証
+        final int entrySize;
+        try {
+            mergeManager.validate();
+            entrySize = mergeManager.entrySize();
+        } catch (MergeDocException e) {
+            err.println(e.getMessage());
+            return EXIT_FAILURE;
+        } catch (Exception e) {
+            String msg = "設定値の検証でエラーが発生しました。";
+            log.error(msg, e);
+            err.println(msg + "\n" + e);
+            return EXIT_FAILURE;
+        }
+
+        // 進捗表示のリスナー
+        mergeManager.setChangeListener(new ChangeListener() {
+            private int lastPercent = -1;
+
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                if (quiet) {
+                    return;
+                }
+                WorkingState state = mergeManager.getWorkingState();
+                int count = state.getChangedCount();
+                int percent = (entrySize == 0) ? 100 : (int) (count * 100L / entrySize);
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    out.println("[" + percent + "%] " + count + "/" + entrySize + " " + state.getWorkingText());
+                }
+            }
+        });
+
+        // Ctrl+C などで終了する場合はキャンセルし、作成途中の出力ファイルの削除を待つ
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = addCancelHook(new Runnable() {
+            @Override
+            public void run() {
+                mergeManager.getWorkingState().cancel();
+            }
+        }, finished);
+        try {
+            return merge(pref, mergeManager);
+        } finally {
+            removeCancelHook(shutdownHook, finished);
+        }
+    }
+
+    /**
+     * 複数のソースアーカイブファイルをまとめてマージします。
+     * @return 終了コード
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     */
+    private int executeBatch() throws MergeDocException {
+
+        Preference pref = createPreference();
+        if (!quiet) {
+            out.println(archives.size() + " 個のソースアーカイブファイルをマージします。");
+        }
+
+        // Ctrl+C などで終了する場合は待機中のスレッドに割り込み、すべてキャンセルする
+        final Thread mainThread = Thread.currentThread();
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = addCancelHook(new Runnable() {
+            @Override
+            public void run() {
+                mainThread.interrupt();
+            }
+        }, finished);
+        try {
+            return mergeBatch(pref);
+        } finally {
+            removeCancelHook(shutdownHook, finished);
+        }
+    }
+
+    /**
+     * キャンセル処理を登録し、強制終了時にキャンセル処理を行うシャットダウンフックを
+     * 登録します。シャットダウンフックはキャンセル後、終了処理の完了を一定時間待ちます。
+     * 既に {@link #cancel()} が呼び出されている場合はすぐにキャンセルします。
+     * @param canceler キャンセル処理
+     * @param finished 終了処理の完了を通知するラッチ
+     * @return シャットダウンフック。登録しない場合は null。
+     */
+    private Thread addCancelHook(final Runnable canceler, final CountDownLatch finished) {
+        synchronized (this) {
+            this.canceler = canceler;
+            if (canceled) {
+                canceler.run();
+            }
+        }
+        if (!useShutdownHook) {
+            return null;
+        }
+        Thread shutdownHook = new Thread("mergedoc-cancel") {
+            @Override
+            public void run() {
+                canceler.run();
+                try {
+                    finished.await(CANCEL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // 終了処理を続行
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        return shutdownHook;
+    }
+
+    /**
+     * キャンセル処理とシャットダウンフックを削除し、終了処理の完了を通知します。
+     * @param shutdownHook シャットダウンフック。登録していない場合は null。
+     * @param finished 終了処理の完了を通知するラッチ
+     */
+    private void removeCancelHook(Thread shutdownHook, CountDownLatch finished) {
+        synchronized (this) {
+            canceler = null;
+        }
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // 既に終了処理中
+            }
+        }
+        finished.countDown();
+    }
+
+    /**
+     * バッチ処理でマージを実行し、アーカイブごとの処理結果を表示します。
+     * @param pref 共通のマージ設定
+     * @return 終了コード
+     */
+    private int mergeBatch(Preference pref) {
+
+        long start = System.nanoTime();
+        List<MergeManager> managers;
+        try {
+            managers = MergeManager.executeBatch(pref, archives, null);
+        } catch (InterruptedException e) {
+            err.println("キャンセルしました。完了していない出力ソースアーカイブファイルは更新されていません。");
+            return EXIT_FAILURE;
+        } catch (MergeDocException e) {
+            log.error("マージ処理でエラーが発生しました。", e);
+            err.println(e.getMessage());
+            return EXIT_FAILURE;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // 処理結果の表示
+        int total = 0;
+        int i = 0;
+        for (Map.Entry<File, File> archive : archives.entrySet()) {
+            WorkingState state = managers.get(i++).getWorkingState();
+            total += state.getChangedCount();
+            if (!quiet) {
+                out.println("  " + archive.getKey() + " -> " + archive.getValue() + " (" + state.getChangedCount() + " エントリ)");
+            }
+        }
+        out.println("完了しました。 " + format(seconds) + "秒");
+        out.println("  アーカイブ数: " + managers.size());
+        out.println("  エントリ数: " + total + " (" + format(total / seconds) + " 件/秒)");
+        return EXIT_SUCCESS;
+    }
+
+    /**
+     * マージを実行し、処理結果を表示します。
+     * @param pref マージ設定
+     * @param mergeManager マージマネージャ
+     * @return 終了コード
+     */
+    private int merge(Preference pref, MergeManager mergeManager) {
+
+        // マージ
+        long start = System.nanoTime();
+        try {
+            mergeManager.execute();
+        } catch (Exception e) {
+            String msg = "マージ処理でエラーが発生しました。";
+            log.error(msg, e);
+            err.println(msg + "\n" + e);
+            return EXIT_FAILURE;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // 処理結果の表示
+        WorkingState state = mergeManager.getWorkingState();
+        if (state.isCanceled()) {
+            err.println("キャンセルしました。出力ソースアーカイブファイルは更新されていません。");
+            return EXIT_FAILURE;
+        }
+        int count = state.getChangedCount();
+        double inMB = pref.getInputArchive().length() / (1024.0 * 1024.0);
+        double outMB = pref.getOutputArchive().length() / (1024.0 * 1024.0);
+        out.println("完了しました。 " + format(seconds) + "秒");
+        out.println("  エントリ数: " + count + " (" + format(count / seconds) + " 件/秒)");
+        out.println("  入力: " + format(inMB) + " MB (" + format(inMB / seconds) + " MB/秒)");
+        out.println("  出力: " + format(outMB) + " MB (" + format(outMB / seconds) + " MB/秒)");
+        out.println(state.getMetricsText());
+        out.println("エントリ別処理レポート: " + mergeManager.getReportFile());
+        return EXIT_SUCCESS;
+    }
+
+    /**
+     * 設定値からマージ設定を作成します。
+     * @return マージ設定
+     * @throws MergeDocException グローバル置換定義の取得に失敗した場合
+     */
+    private Preference createPreference() throws MergeDocException {
+
+        final File docDir = toFile(getValue(Persister.DOC_DIR, ""));
+        final File srcFile = toFile(getValue(Persister.IN_FILE, ""));
+        final File outFile = toFile(getValue(Persister.OUT_FILE, ""));
+        final String docEnc = getValue(Persister.DOC_ENC, defaultEncoding);
+        final String srcEnc = getValue(Persister.IN_ENC, defaultEncoding);
+        final String outEnc = getValue(Persister.OUT_ENC, defaultEncoding);
+        final ReplaceEntry[] entries = getSelectedEntries();
+        final String[] includePatterns = includes;
+        final String[] excludePatterns = excludes;
+
+        return new Preference() {
+
+            @Override
+            public File getDocDirectory() {
+                return docDir;
+            }
+
+            @Override
+            public File getInputArchive() {
+                return srcFile;
+            }
+
+            @Override
+            public File getOutputArchive() {
+                return outFile;
+            }
+
+            @Override
+            public String getDocEncoding() {
+                return docEnc;
+            }
+
+            @Override
+            public String getInputEncoding() {
+                return srcEnc;
+            }
+
+            @Override
+            public String getOutputEncoding() {
+                return outEnc;
+            }
+
+            @Override
+            public ReplaceEntry[] getGlobalEntries() {
+                return entries;
+            }
+
+            @Override
+            public String[] getIncludePatterns() {
+                return includePatterns;
+            }
+
+            @Override
+            public String[] getExcludePatterns() {
+                return excludePatterns;
+            }
+        };
+    }
+
+    /**
+     * 設定値を取得します。
+     * @param key キー
+     * @param def 値が空の場合のデフォルト値
+     * @return 設定値
+     */
+    private String getValue(Persister.Key key, String def) {
+        String value = values.get(key);
+        return (value == null || value.length() == 0) ? def : value;
+    }
+
+    /**
+     * パスをファイルに変換します。相対パスは基準ディレクトリからのパスとします。
+     * @param path パス
+     * @return ファイル。パスが空の場合は空のパスのファイル。
+     */
+    private File toFile(String path) {
+        File file = new File(path);
+        if (baseDir == null || path.length() == 0 || file.isAbsolute()) {
+            return file;
+        }
+        return new File(baseDir, path);
+    }
+
+    /**
+     * 説明が指定されたグローバル置換エントリの配列を取得します。
+     * 配列の順序はグローバル置換定義ファイルの順序です。
+     * @return グローバル置換エントリの配列
+     * @throws MergeDocException グローバル置換定義の取得に失敗した場合
+     */
+    private ReplaceEntry[] getSelectedEntries() throws MergeDocException {
+
+        List<ReplaceEntry> enables = new LinkedList<ReplaceEntry>();
+        List<String> unknowns = new LinkedList<String>(Arrays.asList(descriptions));
+        for (ReplaceEntry entry : ConfigManager.getInstance().getGlobalEntries()) {
+            for (String desc : descriptions) {
+                if (entry.getDescription().equals(desc)) {
+                    enables.add(entry);
+                    unknowns.remove(desc);
+                    break;
+                }
+            }
+        }
+        for (String desc : unknowns) {
+            log.warn("説明が " + desc + " のグローバル置換エントリは存在しません。");
+        }
+        return enables.toArray(new ReplaceEntry[enables.size()]);
+    }
+
+    /**
+     * 数値を小数点以下 1 桁の文字列に変換します。
+     * @param value 数値
+     * @return 文字列
+     */
+    private static String format(double value) {
+        return String.format("%.1f", value);
+    }
+}
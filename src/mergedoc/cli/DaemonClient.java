@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * 常駐している {@link MergeDaemon} にマージを依頼するクライアントです。
+ * <p>
+ * 起動引数を {@link CommandLine} と同じオプションとして MergeDaemon に送り、
+ * MergeDaemon の出力を標準出力と標準エラーに表示して、マージの終了コードで
+ * 終了します。相対パスはこのプロセスのカレントディレクトリからのパスになります。
+ * 設定ファイルや API ドキュメントの読み込みは MergeDaemon で行うため、起動時に
+ * 読み込むクラスは Java の標準ライブラリのみです。Ctrl+C などで終了した場合は
+ * 接続が切断され、MergeDaemon はマージをキャンセルします。
+ * <p>
+ * 起動引数に {@value #STOP_OPTION} のみを指定した場合は MergeDaemon を終了させます。
+ *
+ * @author Shinji Kashihara
+ */
+public class DaemonClient {
+
+    /** デーモン情報ファイルを指定するシステムプロパティのキー */
+    public static final String FILE_KEY = "mergedoc.daemon.file";
+
+    /** デーモンを終了させるオプション */
+    static final String STOP_OPTION = "-stop";
+
+    /** プロトコルの識別子 */
+    static final String PROTOCOL = "MERGEDOC/1";
+
+    /** 要求: カレントディレクトリ */
+    static final String DIR = "DIR ";
+
+    /** 要求: デフォルトエンコーディング */
+    static final String ENCODING = "ENCODING ";
+
+    /** 要求: 起動引数 */
+    static final String ARG = "ARG ";
+
+    /** 要求: マージの実行 */
+    static final String RUN = "RUN";
+
+    /** 要求: デーモンの終了 */
+    static final String STOP = "STOP";
+
+    /** 応答: 標準出力の行 */
+    static final String OUT = "OUT ";
+
+    /** 応答: 標準エラーの行 */
+    static final String ERR = "ERR ";
+
+    /** 応答: 終了コード */
+    static final String EXIT = "EXIT ";
+
+    /** デーモン情報ファイルのポート番号のキー */
+    static final String PORT_KEY = "port";
+
+    /** デーモン情報ファイルのトークンのキー */
+    static final String TOKEN_KEY = "token";
+
+    /** デーモンに接続できない場合の終了コード */
+    private static final int EXIT_FAILURE = 1;
+
+    /**
+     * コンストラクタです。
+     */
+    private DaemonClient() {
+    }
+
+    /**
+     * デーモン情報ファイルを取得します。
+     * デフォルトはホームディレクトリの .mergedoc-daemon です。
+     * @return デーモン情報ファイル
+     */
+    static File getDaemonFile() {
+        String path = System.getProperty(FILE_KEY);
+        if (path != null) {
+            return new File(path);
+        }
+        return new File(System.getProperty("user.home"), ".mergedoc-daemon");
+    }
+
+    /**
+     * メインです。
+     * @param args 起動引数
+     */
+    public static void main(String[] args) {
+
+        int status;
+        try {
+            status = submit(args);
+        } catch (IOException e) {
+            System.err.println("MergeDoc デーモンとの通信に失敗しました。\n" + e);
+            status = EXIT_FAILURE;
+        }
+        System.exit(status);
+    }
+
+    /**
+     * デーモンに起動引数を送り、終了コードを受け取るまで出力を表示します。
+     * @param args 起動引数
+     * @return 終了コード
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private static int submit(String[] args) throws IOException {
+
+        for (String arg : args) {
+            if (arg.indexOf('\n') != -1 || arg.indexOf('\r') != -1) {
+                System.err.println("改行を含む起動引数は指定できません。");
+                return EXIT_FAILURE;
+            }
+        }
+        File file = getDaemonFile();
+        if (!file.exists()) {
+            System.err.println("MergeDoc デーモンが起動していません。" + file + " がありません。");
+            return EXIT_FAILURE;
+        }
+        Properties props = new Properties();
+        InputStream is = new FileInputStream(file);
+        try {
+            props.load(is);
+        } finally {
+            is.close();
+        }
+
+        String portValue = props.getProperty(PORT_KEY, "").trim();
+        int port;
+        try {
+            port = Integer.parseInt(portValue);
+        } catch (NumberFormatException e) {
+            port = 0;
+        }
+        if (port < 1 || port > 65535) {
+            System.err.println("MergeDoc デーモンに接続できません。" + file + " のポート番号が不正です: " + portValue);
+            return EXIT_FAILURE;
+        }
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (IOException e) {
+            System.err.println("MergeDoc デーモンに接続できません。終了している可能性があります。\n" + e);
+            return EXIT_FAILURE;
+        }
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            writeLine(writer, PROTOCOL + " " + props.getProperty(TOKEN_KEY, ""));
+            if (args.length == 1 && args[0].equals(STOP_OPTION)) {
+                writeLine(writer, STOP);
+            } else {
+                writeLine(writer, DIR + new File("").getAbsolutePath());
+                writeLine(writer, ENCODING + System.getProperty("file.encoding"));
+                for (String arg : args) {
+                    writeLine(writer, ARG + arg);
+                }
+                writeLine(writer, RUN);
+            }
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            for (String line; (line = reader.readLine()) != null;) {
+                if (line.startsWith(OUT)) {
+                    System.out.println(line.substring(OUT.length()));
+                } else if (line.startsWith(ERR)) {
+                    System.err.println(line.substring(ERR.length()));
+                } else if (line.startsWith(EXIT)) {
+                    return Integer.parseInt(line.substring(EXIT.length()));
+                }
+            }
+            System.err.println("MergeDoc デーモンとの接続が終了コードを受け取る前に切断されました。");
+            return EXIT_FAILURE;
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * 1 行書き込みます。改行は実行環境に関係なく LF とします。
+     * @param writer 書き込み先
+     * @param line 行
+     * @throws IOException 入出力例外が発生した場合
+     */
+    static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+}
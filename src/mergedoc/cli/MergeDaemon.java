@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import mergedoc.MergeDocException;
+import mergedoc.xml.ConfigManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 常駐してマージを受け付けるデーモンです。
+ * <p>
+ * マージのたびに発生する JVM の起動、クラスのロード、global.xml の解析、
+ * API ドキュメントの解析などを省略するため、1 つの JVM に常駐し、{@link DaemonClient}
+ * から送られた起動引数で {@link CommandLine} を実行します。解析済みの API
+ * ドキュメント、置換エンジン、正規表現などのキャッシュはマージをまたいで保持され、
+ * 2 回目以降のマージは JIT コンパイル済みのコードで処理されます。
+ * 要求の受信とトークンの確認は接続ごとのスレッドで行い、トークンを確認した
+ * 要求のマージのみを要求の順に 1 つずつ実行します。何も送らない接続が
+ * あっても、他の接続のマージは待たされません。
+ * <p>
+ * 接続はループバックアドレスでのみ受け付けます。起動時にデーモン情報ファイル
+ * （{@link DaemonClient#getDaemonFile()}）にポート番号と接続用のトークンを書き込み、
+ * トークンが一致しない接続は拒否します。
+ * <p>
+ * プロトコルは UTF-8 の行単位です。クライアントは「MERGEDOC/1 トークン」の後に、
+ * マージの場合は「DIR カレントディレクトリ」「ENCODING デフォルトエンコーディング」、
+ * 起動引数ごとの「ARG 引数」と「RUN」を、デーモンを終了させる場合は「STOP」を送ります。
+ * デーモンは「OUT 行」「ERR 行」で出力を送り、最後に「EXIT 終了コード」を送ります。
+ * マージ中に接続が切断された場合はマージをキャンセルします。
+ *
+ * @author Shinji Kashihara
+ */
+class MergeDaemon {
+
+    /** ロガー */
+    private static final Log log = LogFactory.getLog(MergeDaemon.class);
+
+    /** デーモンとして起動するオプション */
+    static final String OPTION = "-daemon";
+
+    /** 要求の受信を待つ時間（ミリ秒） */
+    private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+
+    /** 強制終了時にキャンセル処理の完了を待つ時間（ミリ秒） */
+    private static final long CANCEL_WAIT_MILLIS = 5000;
+
+    /** 接続を受け付けるソケット */
+    private final ServerSocket serverSocket;
+
+    /** デーモン情報ファイル */
+    private final File daemonFile;
+
+    /** 接続用のトークン */
+    private final String token;
+
+    /** 終了する場合は true */
+    private volatile boolean stopped;
+
+    /** 実行中のマージ。実行中でない場合は null。 */
+    private volatile CommandLine running;
+
+    /** 実行中のマージの終了を通知するラッチ */
+    private volatile CountDownLatch finished = new CountDownLatch(0);
+
+    /** マージを 1 つずつ、要求の順に実行するためのロック */
+    private final ReentrantLock mergeLock = new ReentrantLock(true);
+
+    /**
+     * コンストラクタです。
+     * @param port ポート番号。0 の場合は空いているポート。
+     * @throws IOException ポートを使用できない場合、デーモン情報ファイルを作成できない場合
+     */
+    private MergeDaemon(int port) throws IOException {
+
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        token = hex.toString();
+        daemonFile = DaemonClient.getDaemonFile();
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        try {
+            writeDaemonFile();
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 起動引数を解析してデーモンを実行します。終了を要求されるまで戻りません。
+     * @param args 起動引数（{@value #OPTION} より後）
+     * @return 終了コード
+     */
+    static int run(String[] args) {
+
+        int port = 0;
+        if (args.length == 2 && args[0].equals("-port")) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+        }
+        if ((args.length != 0 && args.length != 2) || port < 0 || port > 65535) {
+            System.err.println("使用方法: java -jar mergedoc.jar " + OPTION + " [-port <ポート番号>]");
+            return CommandLine.EXIT_USAGE;
+        }
+        if (isRunning()) {
+            System.err.println("MergeDoc デーモンは既に起動しています。" + DaemonClient.getDaemonFile());
+            return CommandLine.EXIT_FAILURE;
+        }
+
+        // 最初のマージまでに設定ファイルを読み込んでおく
+        try {
+            ConfigManager.getInstance().getGlobalEntries();
+        } catch (MergeDocException e) {
+            System.err.println(e.getMessage());
+            return CommandLine.EXIT_FAILURE;
+        }
+        MergeDaemon daemon;
+        try {
+            daemon = new MergeDaemon(port);
+        } catch (IOException e) {
+            System.err.println("MergeDoc デーモンを起動できませんでした。\n" + e);
+            return CommandLine.EXIT_FAILURE;
+        }
+        return daemon.serve();
+    }
+
+    /**
+     * デーモン情報ファイルのデーモンが接続を受け付けているか判定します。
+     * @return 接続を受け付けている場合は true
+     */
+    private static boolean isRunning() {
+
+        File file = DaemonClient.getDaemonFile();
+        if (!file.exists()) {
+            return false;
+        }
+        Properties props = new Properties();
+        try {
+            InputStream is = Files.newInputStream(file.toPath());
+            try {
+                props.load(is);
+            } finally {
+                is.close();
+            }
+            new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(props.getProperty(DaemonClient.PORT_KEY))).close();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * デーモン情報ファイルにポート番号とトークンを書き込みます。
+     * 可能な場合は、内容を書き込む前に所有者以外が読み込めないようにします。
+     * @throws IOException 書き込めない場合
+     */
+    private void writeDaemonFile() throws IOException {
+
+        Properties props = new Properties();
+        props.setProperty(DaemonClient.PORT_KEY, String.valueOf(serverSocket.getLocalPort()));
+        props.setProperty(DaemonClient.TOKEN_KEY, token);
+        new FileOutputStream(daemonFile).close();
+        try {
+            Files.setPosixFilePermissions(daemonFile.toPath(), EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+        } catch (UnsupportedOperationException e) {
+            // POSIX 以外のファイルシステムではユーザのディレクトリの権限に従う
+        }
+        OutputStream os = new FileOutputStream(daemonFile);
+        try {
+            props.store(os, "MergeDoc daemon");
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * 終了を要求されるまで接続を受け付け、マージを実行します。
+     * @return 終了コード
+     */
+    private int serve() {
+
+        // Ctrl+C などで終了する場合は実行中のマージをキャンセルし、終了処理を待つ
+        Thread shutdownHook = new Thread("mergedoc-daemon-stop") {
+            @Override
+            public void run() {
+                shutdown();
+                CommandLine commandLine = running;
+                if (commandLine != null) {
+                    commandLine.cancel();
+                }
+                try {
+                    finished.await(CANCEL_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // 終了処理を続行
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        System.out.println("MergeDoc デーモンを起動しました。ポート: " + serverSocket.getLocalPort());
+
+        while (!stopped) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!stopped) {
+                    log.warn("接続を受け付けられませんでした。", e);
+                }
+                continue;
+            }
+            Thread connection = new Thread("mergedoc-daemon-connection") {
+                @Override
+                public void run() {
+                    try {
+                        handle(socket);
+                    } catch (IOException e) {
+                        log.warn("クライアントとの通信に失敗しました。", e);
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // 切断済み
+                        }
+                    }
+                }
+            };
+            connection.setDaemon(true);
+            connection.start();
+        }
+        shutdown();
+
+        // 実行中のマージの終了と終了コードの送信を待つ
+        mergeLock.lock();
+        mergeLock.unlock();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // 既に終了処理中
+        }
+        System.out.println("MergeDoc デーモンを終了しました。");
+        return CommandLine.EXIT_SUCCESS;
+    }
+
+    /**
+     * 接続の受け付けを終了し、デーモン情報ファイルを削除します。
+     */
+    private synchronized void shutdown() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.warn("ソケットを閉じられませんでした。", e);
+        }
+        if (daemonFile.exists() && !daemonFile.delete()) {
+            log.warn("デーモン情報ファイルを削除できませんでした。" + daemonFile);
+        }
+    }
+
+    /**
+     * 1 つの接続の要求を処理します。接続ごとのスレッドから呼び出され、
+     * マージの実行のみ {@link #mergeLock} で 1 つずつにします。
+     * @param socket ソケット
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private void handle(Socket socket) throws IOException {
+
+        socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+        String hello = reader.readLine();
+        if (hello == null) {
+            // 起動確認などで何も送らずに切断された
+            return;
+        }
+        if (!hello.equals(DaemonClient.PROTOCOL + " " + token)) {
+            log.warn("トークンが一致しない接続を拒否しました。");
+            return;
+        }
+
+        File dir = null;
+        String encoding = System.getProperty("file.encoding");
+        List<String> args = new ArrayList<String>();
+        for (String line; (line = reader.readLine()) != null;) {
+            if (line.startsWith(DaemonClient.DIR)) {
+                dir = new File(line.substring(DaemonClient.DIR.length()));
+            } else if (line.startsWith(DaemonClient.ENCODING)) {
+                encoding = line.substring(DaemonClient.ENCODING.length());
+            } else if (line.startsWith(DaemonClient.ARG)) {
+                args.add(line.substring(DaemonClient.ARG.length()));
+            } else if (line.equals(DaemonClient.RUN)) {
+                // デーモンの終了時は終了コードの送信まで待たれる
+                mergeLock.lock();
+                try {
+                    int status = execute(socket, writer, args.toArray(new String[args.size()]), dir, encoding);
+                    try {
+                        DaemonClient.writeLine(writer, DaemonClient.EXIT + status);
+                        writer.flush();
+                    } catch (IOException e) {
+                        log.info("クライアントが切断されたため、終了コードを送れませんでした。");
+                    }
+                } finally {
+                    mergeLock.unlock();
+                }
+                return;
+            } else if (line.equals(DaemonClient.STOP)) {
+                // 終了処理で JVM が終了する前に応答を送る
+                DaemonClient.writeLine(writer, DaemonClient.EXIT + CommandLine.EXIT_SUCCESS);
+                writer.flush();
+                shutdown();
+                return;
+            } else {
+                DaemonClient.writeLine(writer, DaemonClient.ERR + "不正な要求です: " + line);
+                DaemonClient.writeLine(writer, DaemonClient.EXIT + CommandLine.EXIT_USAGE);
+                writer.flush();
+                return;
+            }
+        }
+    }
+
+    /**
+     * マージを実行し、出力をクライアントに送ります。
+     * 実行中に接続が切断された場合はマージをキャンセルします。
+     * @param socket ソケット
+     * @param writer クライアントへの書き込み先
+     * @param args 起動引数
+     * @param dir 相対パスの基準ディレクトリ
+     * @param encoding エンコーディングを省略した場合のエンコーディング
+     * @return 終了コード
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private int execute(Socket socket, Writer writer, String[] args, File dir, String encoding) throws IOException {
+
+        PrintStream out = new PrintStream(new LineOutputStream(writer, DaemonClient.OUT), true, "UTF-8");
+        PrintStream err = new PrintStream(new LineOutputStream(writer, DaemonClient.ERR), true, "UTF-8");
+        final CommandLine commandLine = new CommandLine(out, err, dir, encoding);
+        final InputStream is = socket.getInputStream();
+        socket.setSoTimeout(0);
+
+        // 接続の切断を監視する。終了コードの送信後にソケットを閉じると終了する。
+        Thread watcher = new Thread("mergedoc-daemon-watcher") {
+            @Override
+            public void run() {
+                try {
+                    while (is.read() != -1) {
+                        ;
+                    }
+                } catch (IOException e) {
+                    // 切断された
+                }
+                commandLine.cancel();
+            }
+        };
+        watcher.setDaemon(true);
+
+        finished = new CountDownLatch(1);
+        running = commandLine;
+        long start = System.nanoTime();
+        int status;
+        try {
+            if (stopped) {
+                return CommandLine.EXIT_FAILURE;
+            }
+            watcher.start();
+            status = commandLine.run(args);
+        } finally {
+            running = null;
+            finished.countDown();
+
+            // バッチ処理のキャンセルによる割り込みを次の接続に残さない
+            Thread.interrupted();
+        }
+        out.close();
+        err.close();
+        System.out.println("マージを実行しました。終了コード: " + status + ", " + String.format("%.1f", (System.nanoTime() - start) / 1e9) + "秒");
+        return status;
+    }
+
+    /**
+     * 書き込まれた内容を行ごとに接頭辞を付けてクライアントに送る出力ストリームです。
+     */
+    private static class LineOutputStream extends OutputStream {
+
+        /** クライアントへの書き込み先 */
+        private final Writer writer;
+
+        /** 行の接頭辞 */
+        private final String prefix;
+
+        /** 改行までのバイト列 */
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        /**
+         * コンストラクタです。
+         * @param writer クライアントへの書き込み先。標準出力と標準エラーで共有します。
+         * @param prefix 行の接頭辞
+         */
+        LineOutputStream(Writer writer, String prefix) {
+            this.writer = writer;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                sendLine();
+            } else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (line.size() > 0) {
+                sendLine();
+            }
+        }
+
+        /**
+         * 溜まっている行を送ります。
+         * @throws IOException 入出力例外が発生した場合
+         */
+        private void sendLine() throws IOException {
+            String text = line.toString("UTF-8");
+            line.reset();
+            if (text.endsWith("\r")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            synchronized (writer) {
+                DaemonClient.writeLine(writer, prefix + text);
+                writer.flush();
+            }
+        }
+    }
+}
@@ -9,8 +9,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,8 +34,26 @@ public class APIDocument {
     /** ロガー */
     private static final Log log = LogFactory.getLog(APIDocument.class);
 
-    /** シグネチャをキーとしたコメントのテーブル */
-    private final Map<Signature, Comment> contextTable = new HashMap<Signature, Comment>();
+    /** イベント */
+    private static final MergeEvents events = MergeEvents.getInstance();
+
+    /** see タグや link タグの URL の整形結果のキャッシュ */
+    private static final MemoCache linkCache = new MemoCache("リンク解決");
+
+    /** シグネチャをキーとした整形前のコメントの断片のテーブル（整形後は削除） */
+    private final ConcurrentMap<Signature, RawComment> rawTable = new ConcurrentHashMap<Signature, RawComment>();
+
+    /** シグネチャをキーとした整形済みのコメントのテーブル */
+    private final ConcurrentMap<Signature, Comment> contextTable = new ConcurrentHashMap<Signature, Comment>();
+
+    /** API ドキュメントファイル */
+    private final File docFile;
+
+    /** 読み込んだ API ドキュメントファイルと読み込み時の更新日時 */
+    private final Map<File, Long> loadedFiles = new LinkedHashMap<File, Long>();
+
+    /** おおよそのメモリ使用量（バイト） */
+    private long weight;
 
     /**
      * see タグや link タグの埋め込みリンクパターン。
@@ -60,7 +82,7 @@ public class APIDocument {
         path.append(".html");
 
         // API ドキュメントファイルのロード
-        File docFile = new CachedFile(path.toString());
+        docFile = new CachedFile(path.toString());
         load(docDir, docFile, charsetName);
 
         // インナークラス API ドキュメントファイルのロード
@@ -73,18 +95,34 @@ public class APIDocument {
                 load(docDir, f, charsetName);
             }
         }
+
+        weight = 256;
+        for (RawComment comment : rawTable.values()) {
+            weight += comment.estimateSize();
+        }
     }
 
     /**
      * ファイルクラスのプロキシです。<br>
-     * リストキャッシュ機能を持ちます。
+     * リストキャッシュ機能を持ちます。キャッシュは複数のスレッドから使用できます。
      */
     private static class CachedFile extends File {
 
-        private static File cachedDir;
-        private static File[] cachedFiles;
+        /** 直前に一覧を取得したディレクトリとその一覧 */
+        private static volatile Listing cached;
         private static final File[] EMPTY_FILES = new File[0];
 
+        /** ディレクトリとその一覧の組です。 */
+        private static class Listing {
+            final File dir;
+            final File[] files;
+
+            Listing(File dir, File[] files) {
+                this.dir = dir;
+                this.files = files;
+            }
+        }
+
         public CachedFile(String path) {
             super(path);
         }
@@ -92,14 +130,13 @@ public class APIDocument {
         @Override
         public File[] listFiles() {
             File dir = getParentFile();
-            if (!dir.equals(cachedDir)) {
-                cachedDir = dir;
-                cachedFiles = dir.listFiles();
-                if (cachedFiles == null) {
-                    cachedFiles = EMPTY_FILES;
-                }
+            Listing listing = cached;
+            if (listing == null || !dir.equals(listing.dir)) {
+                File[] files = dir.listFiles();
+                listing = new Listing(dir, (files == null) ? EMPTY_FILES : files);
+                cached = listing;
             }
-            return cachedFiles;
+            return listing.files;
         }
     }
 
@@ -117,7 +154,12 @@ public class APIDocument {
             return;
         }
 
+        // 読み込み中に更新された場合も検出できるように更新日時は先に記録
+        loadedFiles.put(docFile, docFile.lastModified());
+
         // API ドキュメント読み込み
+        Object event = events.beginDocLoad();
+        int commentCount = rawTable.size();
         InputStream is = new FileInputStream(docFile);
         byte[] buf = new byte[is.available()];
         is.read(buf);
@@ -145,6 +187,7 @@ public class APIDocument {
         doc.outputSettings().prettyPrint(false);
         parseClassComment(className, doc);
         parseMethodComment(className, doc);
+        events.commitDocLoad(event, className, docHtml.length(), rawTable.size() - commentCount);
     }
 
     /**
@@ -152,17 +195,171 @@ public class APIDocument {
      * @return コンテキストが空の場合は true
      */
     public boolean isEmpty() {
-        return contextTable.isEmpty();
+        return rawTable.isEmpty() && contextTable.isEmpty();
+    }
+
+    /**
+     * 読み込み後に API ドキュメントファイルが更新されたか判定します。
+     * 読み込んだファイルの更新日時が変わった場合と、読み込み時に存在しなかった
+     * API ドキュメントファイルが作成された場合に更新されたとみなします。
+     * インナークラスの API ドキュメントファイルの追加は検出しません。
+     * @return 更新された場合は true
+     */
+    public boolean isModified() {
+        if (loadedFiles.isEmpty()) {
+            return docFile.exists();
+        }
+        for (Map.Entry<File, Long> loaded : loadedFiles.entrySet()) {
+            if (loaded.getKey().lastModified() != loaded.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析したコメントが使用するおおよそのメモリ量を取得します。
+     * @return バイト数
+     */
+    public long getWeight() {
+        return weight;
     }
 
     /**
      * 指定したシグネチャを持つ Javadoc コメントを取得します。
+     * 整形前の断片から初めて取得する場合に整形し、整形結果を保持します。
+     * 返されるコメントは呼び出しごとに作成される複製のため、変更しても
+     * この API ドキュメントの内容には影響しません。
      * @param signature シグネチャ
      * @return Javadoc コメント
      */
     public Comment getComment(Signature signature) {
         Comment comment = contextTable.get(signature);
-        return comment;
+        if (comment == null) {
+            RawComment raw = rawTable.get(signature);
+            if (raw == null) {
+                // 他のスレッドが整形を終えた直後の場合を考慮
+                comment = contextTable.get(signature);
+                return (comment == null) ? null : comment.copy();
+            }
+            comment = raw.format(signature);
+            Comment formatted = contextTable.putIfAbsent(signature, comment);
+            if (formatted != null) {
+                comment = formatted;
+            }
+            rawTable.remove(signature);
+        }
+        return comment.copy();
+    }
+
+    /**
+     * 整形前の Javadoc コメントの断片です。
+     * 各断片は API ドキュメントから抽出した HTML のままで、link タグや
+     * HTML の整形は {@link #format(Signature)} で行います。
+     */
+    private static class RawComment {
+
+        /** クラス名 */
+        final String className;
+
+        /** コメント本文 */
+        String body;
+
+        /** deprecated タグの説明 */
+        String deprecated;
+
+        /** param タグの名前と説明 */
+        final List<String[]> params = new ArrayList<String[]>();
+
+        /** return タグの説明 */
+        final List<String> returns = new ArrayList<String>();
+
+        /** throws タグの例外名と説明 */
+        final List<String[]> throwses = new ArrayList<String[]>();
+
+        /** see タグの URL（整形する場合）と参照文字列（そのまま使用する場合） */
+        final List<String[]> sees = new ArrayList<String[]>();
+
+        /** since タグのテキスト */
+        final List<String> sinces = new ArrayList<String>();
+
+        /**
+         * コンストラクタです。
+         * @param className クラス名
+         */
+        RawComment(String className) {
+            this.className = className;
+        }
+
+        /**
+         * 断片を整形してコメントを作成します。
+         * @param sig シグネチャ
+         * @return コメント
+         */
+        Comment format(Signature sig) {
+            Comment comment = new Comment(sig);
+            if (body != null) {
+                comment.setDocumentBody(formatLinkTag(className, body));
+            }
+            for (String[] param : params) {
+                comment.addParam(param[0], formatLinkTag(className, param[1]));
+            }
+            for (String ret : returns) {
+                comment.addReturn(formatLinkTag(className, ret));
+            }
+            for (String[] thr : throwses) {
+                comment.addThrows(thr[0] + " " + formatLinkTag(className, thr[1]));
+            }
+            if (deprecated != null) {
+                comment.addDeprecated(formatLinkTag(className, deprecated));
+            }
+            for (String[] see : sees) {
+                if (see[0] != null) {
+                    comment.addSee(formatSeeRef(className, see[0]));
+                } else {
+                    comment.addSee(see[1]);
+                }
+            }
+            for (String since : sinces) {
+                comment.addSince(since);
+            }
+            return comment;
+        }
+
+        /**
+         * 断片が使用するおおよそのメモリ量を取得します。
+         * 文字列は 1 文字 2 バイトとし、オブジェクトのヘッダなどは概算で加算します。
+         * 整形後のコメントも同程度の大きさとみなします。
+         * @return バイト数
+         */
+        long estimateSize() {
+            long size = 128 + sizeOf(body) + sizeOf(deprecated);
+            for (String[] param : params) {
+                size += 32 + sizeOf(param[0]) + sizeOf(param[1]);
+            }
+            for (String ret : returns) {
+                size += 16 + sizeOf(ret);
+            }
+            for (String[] thr : throwses) {
+                size += 32 + sizeOf(thr[0]) + sizeOf(thr[1]);
+            }
+            for (String[] see : sees) {
+                size += 32 + sizeOf(see[0]) + sizeOf(see[1]);
+            }
+            for (String since : sinces) {
+                size += 16 + sizeOf(since);
+            }
+            return size;
+        }
+
+        /**
+         * 文字列が使用するおおよそのメモリ量を取得します。
+         * @param value 文字列
+         * @return バイト数。null の場合は 0。
+         */
+        private static long sizeOf(String value) {
+            return (value == null) ? 0 : 40 + value.length() * 2L;
+        }
     }
 
     /**
@@ -176,7 +373,7 @@ public class APIDocument {
         for (Element element : elements) {
             String sigStr = element.select("pre").first().html();
             Signature sig = createSignature(className, sigStr);
-            Comment comment = new Comment(sig);
+            RawComment comment = new RawComment(className);
 
             // deprecated タグ
             String depre = "";
@@ -184,20 +381,18 @@ public class APIDocument {
             if (divs.size() == 2) {
                 depre = divs.get(0).html();
             }
-            parseDeprecatedTag(className, depre, comment);
+            parseDeprecatedTag(depre, comment);
 
             // コメント本文
             if (divs.size() > 0) {
-                String body = divs.last().html();
-                body = formatLinkTag(className, body);
-                comment.setDocumentBody(body);
+                comment.body = divs.last().html();
             }
 
             // 共通タグ
-            parseCommonTag(className, element, comment);
+            parseCommonTag(element, comment);
 
             log.debug(sig);
-            contextTable.put(sig, comment);
+            rawTable.put(sig, comment);
         }
     }
 
@@ -215,7 +410,7 @@ public class APIDocument {
             }
             String sigStr = sigElm.html();
             Signature sig = createSignature(className, sigStr);
-            Comment comment = new Comment(sig);
+            RawComment comment = new RawComment(className);
 
             // deprecated タグ
             String depre = "";
@@ -224,9 +419,7 @@ public class APIDocument {
                 depre = divs.get(0).html();
             }
             if (divs.size() > 0) {
-                String body = divs.last().html();
-                body = formatLinkTag(className, body);
-                comment.setDocumentBody(body);
+                comment.body = divs.last().html();
             }
 
             Elements dtTags = element.select("dl dt");
@@ -247,8 +440,7 @@ public class APIDocument {
                         Pattern p = PatternCache.getPattern("(?si)<CODE>(.+?)</CODE>\\s*-\\s*(.*?)(<DD>|</DD>|</DL>|<DT>|$)");
                         Matcher m = p.matcher(items);
                         if (m.find()) {
-                            String desc = formatLinkTag(className, m.group(2));
-                            comment.addParam(name, desc);
+                            comment.params.add(new String[] {name, m.group(2)});
                         }
                     }
                     continue;
@@ -256,9 +448,7 @@ public class APIDocument {
 
                 if (dtText.contains("戻り値:")) {
                     Element dd = dtTag.nextElementSibling();
-                    String str = dd.html();
-                    str = formatLinkTag(className, str);
-                    comment.addReturn(str);
+                    comment.returns.add(dd.html());
                     continue;
                 }
 
@@ -274,9 +464,7 @@ public class APIDocument {
                         Pattern p = PatternCache.getPattern("(?si)<CODE>(.+?)</CODE>\\s*-\\s*(.*?)(<DD>|</DD>|</DL>|<DT>|$)");
                         Matcher m = p.matcher(items);
                         if (m.find()) {
-                            String desc = formatLinkTag(className, m.group(2));
-                            String param = name + " " + desc;
-                            comment.addThrows(param);
+                            comment.throwses.add(new String[] {name, m.group(2)});
                         }
                     }
                     continue;
@@ -284,12 +472,12 @@ public class APIDocument {
 
             }
             // deprecated タグ
-            parseDeprecatedTag(className, depre, comment);
+            parseDeprecatedTag(depre, comment);
 
             // 共通タグ
-            parseCommonTag(className, element, comment);
+            parseCommonTag(element, comment);
 
-            contextTable.put(sig, comment);
+            rawTable.put(sig, comment);
         }
     }
 
@@ -310,55 +498,60 @@ public class APIDocument {
 
     /**
      * Javadoc の 共通タグを解析しコメントに追加します。
-     * @param className クラス名
      * @param context 評価コンテキスト
      * @param comment コメント
      */
-    private void parseCommonTag(String className, Element element, Comment comment) {
+    private void parseCommonTag(Element element, RawComment comment) {
         Elements dts = element.select("dl dt");
         for (Element dt : dts) {
             String dtText = dt.text();
             if (dtText.contains("関連項目")) {
                 Elements aTags = dt.nextElementSibling().select("a:has(code)");
                 for (Element a : aTags) {
-                    String url = a.attr("href");
-                    String ref;
                     if (a.childNodeSize() != 1) {
-                        ref = aTags.outerHtml();
+                        comment.sees.add(new String[] {null, aTags.outerHtml()});
                     } else {
-                        ref = formatClassName(className, url);
-                        ref = FastStringUtils.replace(ref, "%28", "(");
-                        ref = FastStringUtils.replace(ref, "%29", ")");
-
-                        Pattern methodRefPat = PatternCache.getPattern("-(.*)-$");
-                        Matcher methodRefMat = methodRefPat.matcher(ref);
-                        if (methodRefMat.find()) {
-                            ref = FastStringUtils.replaceAll(ref, "-(.*)-$", "($1)"); // for Java8
-                            ref = FastStringUtils.replace(ref, "-", ","); // for Java8
-                            ref = FastStringUtils.replace(ref, ":A", "[]"); // for Java8
-                        }
+                        comment.sees.add(new String[] {a.attr("href"), null});
                     }
-                    comment.addSee(ref);
                 }
             } else if (dtText.contains("導入されたバージョン:")) {
-                comment.addSince(dt.nextElementSibling().text());
+                comment.sinces.add(dt.nextElementSibling().text());
             }
         }
     }
 
+    /**
+     * see タグの URL を参照文字列にフォーマットします。
+     * @param className クラス名
+     * @param url URL
+     * @return 参照文字列
+     */
+    private static String formatSeeRef(String className, String url) {
+        String ref = formatClassName(className, url);
+        ref = FastStringUtils.replace(ref, "%28", "(");
+        ref = FastStringUtils.replace(ref, "%29", ")");
+
+        Pattern methodRefPat = PatternCache.getPattern("-(.*)-$");
+        Matcher methodRefMat = methodRefPat.matcher(ref);
+        if (methodRefMat.find()) {
+            ref = FastStringUtils.replaceAll(ref, "-(.*)-$", "($1)"); // for Java8
+            ref = FastStringUtils.replace(ref, "-", ","); // for Java8
+            ref = FastStringUtils.replace(ref, ":A", "[]"); // for Java8
+        }
+        return ref;
+    }
+
     /**
      * Javadoc の deprecated タグを解析しコメントに追加します。
      * @param context 評価コンテキスト
      * @param comment コメント
      */
-    private void parseDeprecatedTag(String className, String context, Comment comment) {
+    private void parseDeprecatedTag(String context, RawComment comment) {
         if (context.contains("非推奨")) {
             Pattern pat = PatternCache.getPattern("(?si)<span class=\"strong\">非推奨。.+?<I>(.+?)</I>");
             Matcher mat = pat.matcher(context);
             if (mat.find()) {
-                String str = mat.group(1);
-                str = formatLinkTag(className, str);
-                comment.addDeprecated(str);
+                comment.deprecated = mat.group(1);
             }
         }
     }
@@ -374,7 +567,7 @@ public class APIDocument {
      * @param html HTML の A タグを含む文字列
      * @return Javadoc link タグ文字列
      */
-    private String formatLinkTag(String className, String html) {
+    private static String formatLinkTag(String className, String html) {
 
         StringBuffer sb = new StringBuffer();
         Matcher linkMatcher = linkClassPattern.matcher(html);
@@ -416,11 +609,28 @@ public class APIDocument {
     /**
      * see タグや link タグの URL を package.class#member 形式にフォーマットします。
      * 同一パッケージの場合は package が省略され、同一クラスの場合は class も省略されます。
+     * 同じクラスと URL の整形結果はキャッシュから取得します。
+     * @param className クラス名
+     * @param path パス
+     * @return package.class#member 形式の文字列
+     */
+    private static String formatClassName(String className, String path) {
+        String key = className + '\n' + path;
+        String formatted = linkCache.get(key);
+        if (formatted == null) {
+            formatted = formatClassNameWithoutCache(className, path);
+            linkCache.put(key, formatted);
+        }
+        return formatted;
+    }
+
+    /**
+     * see タグや link タグの URL をキャッシュを使用せずに package.class#member 形式にフォーマットします。
      * @param className クラス名
      * @param path パス
      * @return package.class#member 形式の文字列
      */
-    private String formatClassName(String className, String path) {
+    private static String formatClassNameWithoutCache(String className, String path) {
 
         String lastClassName = FastStringUtils.replaceFirst(className, ".+\\.", "");
         String packageName = className.replace("." + lastClassName, ""); // Patternキャッシュしない
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import mergedoc.core.WorkingState.Counter;
+
+/**
+ * 解析済みの API ドキュメントのキャッシュです。
+ * <p>
+ * API ドキュメントディレクトリ、クラス名、エンコーディングをキーとして、
+ * クラスごとの API ドキュメントの解析結果を保持します。同じクラスを複数の
+ * Java ソースやソースアーカイブファイルでマージする場合や、マージを繰り返し
+ * 実行する場合に HTML の再解析を省略します。取得時に API ドキュメントファイルの
+ * 更新日時を確認し、更新されている場合は解析し直します。
+ * <p>
+ * キャッシュの大きさは解析結果のおおよそのメモリ使用量の合計で制限し、上限を
+ * 超えた場合は最も長く使用されていないものから破棄します。上限（MB）は
+ * システムプロパティ {@value #SIZE_KEY} で指定でき、デフォルトは最大ヒープ
+ * サイズの 1/16 です。0 を指定するとキャッシュしません。
+ * <p>
+ * 複数のスレッドから使用できます。同じクラスを複数のスレッドが同時に要求した
+ * 場合は重複して解析することがあります。{@link APIDocument#getComment(Signature)}
+ * はコメントの複製を返すため、キャッシュした解析結果はマージによって変更されません。
+ *
+ * @author Shinji Kashihara
+ */
+class APIDocumentCache {
+
+    /** キャッシュの上限（MB）を指定するシステムプロパティのキー */
+    public static final String SIZE_KEY = "mergedoc.doccache.mb";
+
+    /** シングルトンインスタンス */
+    private static final APIDocumentCache instance = new APIDocumentCache(maxWeight());
+
+    /** メモリ使用量の合計の上限（バイト） */
+    private final long maxWeight;
+
+    /** キーと API ドキュメントのテーブル（アクセス順） */
+    private final LinkedHashMap<String, APIDocument> documents = new LinkedHashMap<String, APIDocument>(256, 0.75f, true);
+
+    /** メモリ使用量の合計（バイト） */
+    private long weight;
+
+    /**
+     * コンストラクタです。
+     * @param maxWeight メモリ使用量の合計の上限（バイト）
+     */
+    private APIDocumentCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * メモリ使用量の合計の上限を取得します。
+     * @return 上限（バイト）
+     */
+    private static long maxWeight() {
+        Long mb = Long.getLong(SIZE_KEY);
+        if (mb != null) {
+            return Math.max(0, mb) * 1024 * 1024;
+        }
+        return Runtime.getRuntime().maxMemory() / 16;
+    }
+
+    /**
+     * このクラスのシングルトンインスタンスを取得します。
+     * @return このクラスのインスタンス
+     */
+    static APIDocumentCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * 指定したクラスの API ドキュメントを取得します。
+     * キャッシュに無い場合や API ドキュメントファイルが更新されている場合は
+     * 読み込んで解析し、キャッシュに登録します。
+     * @param docDir API ドキュメントディレクトリ
+     * @param className クラス名（パッケージを含む）
+     * @param charsetName 文字セット名
+     * @param workingState ヒット数などのカウンタの記録先
+     * @return API ドキュメント
+     * @throws IOException 入出力例外が発生した場合
+     */
+    APIDocument get(File docDir, String className, String charsetName, WorkingState workingState) throws IOException {
+
+        if (maxWeight == 0) {
+            return new APIDocument(docDir, className, charsetName);
+        }
+        String key = docDir.getAbsolutePath() + File.pathSeparator + className + File.pathSeparator + charsetName;
+        APIDocument apiDoc;
+        synchronized (documents) {
+            apiDoc = documents.get(key);
+        }
+        if (apiDoc != null && !apiDoc.isModified()) {
+            workingState.add(Counter.DOC_CACHE_HIT, 1);
+            return apiDoc;
+        }
+        workingState.add(Counter.DOC_CACHE_MISS, 1);
+        apiDoc = new APIDocument(docDir, className, charsetName);
+        workingState.add(Counter.DOC_CACHE_EVICTED, put(key, apiDoc));
+        return apiDoc;
+    }
+
+    /**
+     * API ドキュメントをキャッシュに登録し、上限を超えた分を古いものから破棄します。
+     * @param key キー
+     * @param apiDoc API ドキュメント
+     * @return 破棄した数
+     */
+    private int put(String key, APIDocument apiDoc) {
+
+        if (apiDoc.getWeight() > maxWeight) {
+            return 0;
+        }
+        int evicted = 0;
+        synchronized (documents) {
+            APIDocument old = documents.put(key, apiDoc);
+            if (old != null) {
+                weight -= old.getWeight();
+            }
+            weight += apiDoc.getWeight();
+            for (Iterator<APIDocument> it = documents.values().iterator(); weight > maxWeight && it.hasNext();) {
+                weight -= it.next().getWeight();
+                it.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+}
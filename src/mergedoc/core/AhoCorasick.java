@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Aho-Corasick 法による複数リテラル文字列の照合器です。
+ * <p>
+ * 複数のリテラル文字列の出現位置を、文字列長に比例する 1 回の走査で
+ * すべて探します。生成後のインスタンスは不変でスレッドに対して安全です。
+ *
+ * @author Shinji Kashihara
+ */
+public class AhoCorasick {
+
+    /**
+     * 照合結果を受け取るリスナです。
+     */
+    public static interface MatchListener {
+
+        /**
+         * パターンが見つかった場合に呼び出されます。
+         * 呼び出しは出現位置の終了位置の昇順です。
+         * @param index パターンのインデックス
+         * @param start 出現位置の開始位置
+         */
+        void found(int index, int start);
+    }
+
+    /** パターンの配列 */
+    private final String[] patterns;
+
+    /** ノードごとの遷移文字（昇順） */
+    private char[][] keys;
+
+    /** ノードごとの遷移先ノード */
+    private int[][] nexts;
+
+    /** ノードごとの失敗時の遷移先ノード */
+    private int[] fails;
+
+    /** ノードごとの一致するパターンのインデックス。無い場合は -1。 */
+    private int[] outputs;
+
+    /** ノードごとの、失敗リンクを辿って最初に一致するパターンを持つノード。無い場合は -1。 */
+    private int[] dictLinks;
+
+    /**
+     * コンストラクタです。
+     * @param patterns パターンの配列。空文字列を含むことは出来ません。
+     * @throws IllegalArgumentException 空文字列のパターンが含まれる場合
+     */
+    public AhoCorasick(String... patterns) {
+        this.patterns = patterns.clone();
+        buildTrie();
+        buildLinks();
+    }
+
+    /**
+     * パターンのトライ木を作成します。
+     */
+    private void buildTrie() {
+
+        List<char[]> keyList = new ArrayList<char[]>();
+        List<int[]> nextList = new ArrayList<int[]>();
+        List<Integer> outputList = new ArrayList<Integer>();
+        keyList.add(new char[0]);
+        nextList.add(new int[0]);
+        outputList.add(-1);
+
+        for (int p = 0; p < patterns.length; p++) {
+            String pattern = patterns[p];
+            if (pattern.length() == 0) {
+                throw new IllegalArgumentException("空文字列のパターンは指定できません。");
+            }
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                char[] k = keyList.get(node);
+                int pos = Arrays.binarySearch(k, c);
+                if (pos >= 0) {
+                    node = nextList.get(node)[pos];
+                    continue;
+                }
+
+                // 遷移を昇順を保って挿入
+                int ins = -pos - 1;
+                int child = keyList.size();
+                keyList.add(new char[0]);
+                nextList.add(new int[0]);
+                outputList.add(-1);
+
+                int[] n = nextList.get(node);
+                char[] newKeys = new char[k.length + 1];
+                int[] newNexts = new int[n.length + 1];
+                System.arraycopy(k, 0, newKeys, 0, ins);
+                System.arraycopy(n, 0, newNexts, 0, ins);
+                newKeys[ins] = c;
+                newNexts[ins] = child;
+                System.arraycopy(k, ins, newKeys, ins + 1, k.length - ins);
+                System.arraycopy(n, ins, newNexts, ins + 1, n.length - ins);
+                keyList.set(node, newKeys);
+                nextList.set(node, newNexts);
+                node = child;
+            }
+            // 同じパターンが複数ある場合は最初のものを使用
+            if (outputList.get(node) == -1) {
+                outputList.set(node, p);
+            }
+        }
+
+        int size = keyList.size();
+        keys = keyList.toArray(new char[size][]);
+        nexts = nextList.toArray(new int[size][]);
+        outputs = new int[size];
+        for (int i = 0; i < size; i++) {
+            outputs[i] = outputList.get(i);
+        }
+    }
+
+    /**
+     * 幅優先でトライ木を辿り、失敗リンクと辞書リンクを作成します。
+     */
+    private void buildLinks() {
+
+        int size = keys.length;
+        fails = new int[size];
+        dictLinks = new int[size];
+        Arrays.fill(dictLinks, -1);
+
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int child : nexts[0]) {
+            fails[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.removeFirst();
+            for (int i = 0; i < keys[node].length; i++) {
+                char c = keys[node][i];
+                int child = nexts[node][i];
+                int fail = fails[node];
+                int target;
+                while ((target = transition(fail, c)) == -1 && fail != 0) {
+                    fail = fails[fail];
+                }
+                fails[child] = (target == -1) ? 0 : target;
+                int link = fails[child];
+                dictLinks[child] = (outputs[link] != -1) ? link : dictLinks[link];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * 指定したノードから文字で遷移する先のノードを取得します。
+     * @param node ノード
+     * @param c 文字
+     * @return 遷移先のノード。遷移が無い場合は -1。
+     */
+    private int transition(int node, char c) {
+        int pos = Arrays.binarySearch(keys[node], c);
+        return (pos >= 0) ? nexts[node][pos] : -1;
+    }
+
+    /**
+     * 文字列からすべてのパターンの出現位置を探します。
+     * 重なり合う出現位置もすべて通知されます。
+     * @param text 文字列
+     * @param listener 照合結果を受け取るリスナ
+     */
+    public void search(CharSequence text, MatchListener listener) {
+
+        int node = 0;
+        int size = text.length();
+        for (int i = 0; i < size; i++) {
+            char c = text.charAt(i);
+            int target;
+            while ((target = transition(node, c)) == -1 && node != 0) {
+                node = fails[node];
+            }
+            node = (target == -1) ? 0 : target;
+
+            for (int out = (outputs[node] != -1) ? node : dictLinks[node]; out != -1; out = dictLinks[out]) {
+                int index = outputs[out];
+                listener.found(index, i + 1 - patterns[index].length());
+            }
+        }
+    }
+
+    /**
+     * パターンの長さを取得します。
+     * @param index パターンのインデックス
+     * @return パターンの長さ
+     */
+    public int length(int index) {
+        return patterns[index].length();
+    }
+}
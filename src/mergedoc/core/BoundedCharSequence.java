@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 制限時間付きの文字シーケンスです。
+ * <p>
+ * java.util.regex.Matcher には処理を中断する手段が無いため、Matcher が
+ * 入力文字を参照する charAt の中で経過時間を確認し、制限時間を超えた場合に
+ * {@link MatchTimeoutException} をスローして処理を打ち切ります。同時にスレッドの
+ * 割り込みも確認し、割り込まれた場合は CancellationException をスローします。
+ * 時刻と割り込みの確認は一定回数の charAt ごとに行います。
+ *
+ * @author Shinji Kashihara
+ */
+public class BoundedCharSequence implements CharSequence {
+
+    /** 時刻を確認する charAt の呼び出し間隔 */
+    private static final int CHECK_INTERVAL = 4096;
+
+    /** 元の文字シーケンス */
+    private final CharSequence seq;
+
+    /** 制限時間（ミリ秒） */
+    private final long timeout;
+
+    /** 期限（System#nanoTime の値） */
+    private final long deadline;
+
+    /** 次に時刻を確認するまでの charAt の呼び出し回数 */
+    private int countdown = CHECK_INTERVAL;
+
+    /**
+     * コンストラクタです。
+     * @param seq 元の文字シーケンス
+     * @param timeout 制限時間（ミリ秒）。0 以下の場合は割り込みのみ確認します。
+     */
+    public BoundedCharSequence(CharSequence seq, long timeout) {
+        this(seq, timeout, System.nanoTime() + timeout * 1000000L);
+    }
+
+    /**
+     * 期限を指定するコンストラクタです。
+     * 複数の文字シーケンスの処理で 1 つの期限を共有する場合に使用します。
+     * @param seq 元の文字シーケンス
+     * @param timeout 制限時間（ミリ秒）。0 以下の場合は割り込みのみ確認します。
+     * @param deadline 期限（System#nanoTime の値）
+     */
+    public BoundedCharSequence(CharSequence seq, long timeout, long deadline) {
+        this.seq = seq;
+        this.timeout = timeout;
+        this.deadline = deadline;
+    }
+
+    /**
+     * 指定したインデックスの文字を取得します。
+     * @param index インデックス
+     * @return 文字
+     * @throws MatchTimeoutException 制限時間を超えた場合
+     * @throws CancellationException 処理中のスレッドが割り込まれた場合
+     */
+    @Override
+    public char charAt(int index) {
+        if (--countdown <= 0) {
+            countdown = CHECK_INTERVAL;
+            WorkingState.checkInterrupted();
+            if (timeout > 0 && System.nanoTime() - deadline > 0) {
+                throw new MatchTimeoutException("処理が " + timeout + " ミリ秒を超えました。", timeout);
+            }
+        }
+        return seq.charAt(index);
+    }
+
+    /**
+     * 長さを取得します。
+     * @return 長さ
+     */
+    @Override
+    public int length() {
+        return seq.length();
+    }
+
+    /**
+     * 部分シーケンスを取得します。
+     * マッチ結果の取得に使用されるため、制限時間は適用されません。
+     * @param start 開始インデックス
+     * @param end 終了インデックス
+     * @return 部分シーケンス
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return seq.subSequence(start, end);
+    }
+
+    /**
+     * 元の文字シーケンスの文字列表現を取得します。
+     * @return 文字列
+     */
+    @Override
+    public String toString() {
+        return seq.toString();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * 実行中のプログラムのビルドの識別子です。
+ * <p>
+ * このクラスを読み込んだ JAR ファイルの内容（開発時はクラスディレクトリの
+ * すべてのファイルの内容）の SHA-1 ハッシュで、プログラムを更新すると別の値に
+ * なります。実行をまたいで保存する処理結果が、同じビルドで作成されたものか
+ * 判定するために使用します。識別子は最初の呼び出し時に作成し、保持します。
+ *
+ * @author Shinji Kashihara
+ */
+class BuildIdentity {
+
+    /** 文字コード */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** ビルドの識別子 */
+    private static byte[] identity;
+
+    /**
+     * コンストラクタです。
+     */
+    private BuildIdentity() {
+    }
+
+    /**
+     * ビルドの識別子を取得します。
+     * @return ビルドの識別子
+     * @throws IOException クラスの読み込み元を読み込めない場合
+     */
+    static synchronized byte[] get() throws IOException {
+        if (identity == null) {
+            CodeSource source = BuildIdentity.class.getProtectionDomain().getCodeSource();
+            if (source == null || source.getLocation() == null) {
+                throw new IOException("クラスの読み込み元を取得できません。");
+            }
+            File location;
+            try {
+                location = new File(source.getLocation().toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("クラスの読み込み元がファイルではありません: " + source.getLocation(), e);
+            }
+            MessageDigest md = newDigest();
+            update(md, location, "");
+            identity = md.digest();
+        }
+        return identity.clone();
+    }
+
+    /**
+     * ビルドの識別子を 16 進文字列で取得します。
+     * @return ビルドの識別子の 16 進文字列
+     * @throws IOException クラスの読み込み元を読み込めない場合
+     */
+    static String toHexString() throws IOException {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : get()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * ファイルの相対パスと内容をダイジェストに追加します。ディレクトリの場合は
+     * 含まれるファイルを名前の順に再帰的に追加します。
+     * @param md ダイジェスト
+     * @param file ファイルまたはディレクトリ
+     * @param path ルートからの相対パス
+     * @throws IOException 読み込めない場合
+     */
+    private static void update(MessageDigest md, File file, String path) throws IOException {
+        if (file.isDirectory()) {
+            String[] names = file.list();
+            if (names == null) {
+                throw new IOException(file + " の一覧を取得できません。");
+            }
+            Arrays.sort(names);
+            for (String name : names) {
+                update(md, new File(file, name), path + "/" + name);
+            }
+        } else {
+            byte[] name = path.getBytes(UTF_8);
+            byte[] content = Files.readAllBytes(file.toPath());
+            md.update(intBytes(name.length));
+            md.update(name);
+            md.update(intBytes(content.length));
+            md.update(content);
+        }
+    }
+
+    /**
+     * int 値をバイト配列に変換します。
+     * @param value 値
+     * @return ビッグエンディアンの 4 バイト
+     */
+    private static byte[] intBytes(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    /**
+     * SHA-1 のダイジェストを作成します。
+     * @return ダイジェスト
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.io.File;
+
+/**
+ * マージの処理レポートや処理時間の履歴などの補助ファイルを置くキャッシュディレクトリです。
+ * <p>
+ * 出力ソースアーカイブファイルのディレクトリやインストールディレクトリは
+ * 書き込みできない場合や共有されている場合があるため、補助ファイルはユーザーごとの
+ * キャッシュディレクトリに作成します。キャッシュディレクトリはデフォルトで
+ * ホームディレクトリの .mergedoc/cache で、システムプロパティ {@value #DIR_KEY} で
+ * 変更できます。
+ *
+ * @author Shinji Kashihara
+ */
+class CacheFiles {
+
+    /** キャッシュディレクトリを指定するシステムプロパティのキー */
+    public static final String DIR_KEY = "mergedoc.cache.dir";
+
+    /**
+     * コンストラクタです。
+     */
+    private CacheFiles() {
+    }
+
+    /**
+     * キャッシュディレクトリを取得します。ディレクトリは作成しません。
+     * @return キャッシュディレクトリ
+     */
+    static File getDirectory() {
+        String path = System.getProperty(DIR_KEY);
+        if (path != null && path.length() > 0) {
+            return new File(path);
+        }
+        return new File(System.getProperty("user.home"), ".mergedoc" + File.separator + "cache");
+    }
+
+    /**
+     * 出力ソースアーカイブファイルに対応する補助ファイルを取得します。
+     * 例えば srcja.zip に対して接尾辞 -report.txt を指定した場合は、キャッシュディレクトリの
+     * srcja-(パスのハッシュ)-report.txt になります。ハッシュは同じ名前の異なる出力ソース
+     * アーカイブファイルを区別するためのものです。ディレクトリは作成しません。
+     * @param outputArchive 出力ソースアーカイブファイル
+     * @param suffix 接尾辞
+     * @return 補助ファイル
+     */
+    static File fileFor(File outputArchive, String suffix) {
+        File abs = outputArchive.getAbsoluteFile();
+        String name = FastStringUtils.replaceFirst(abs.getName(), "\\.[^\\.]*$", "");
+        String hash = String.format("%08x", abs.getPath().hashCode());
+        return new File(getDirectory(), name + "-" + hash + suffix);
+    }
+
+    /**
+     * 補助ファイルの親ディレクトリを作成します。
+     * @param file 補助ファイル
+     * @return ディレクトリが存在する場合は true
+     */
+    static boolean prepare(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        return dir.isDirectory() || dir.mkdirs();
+    }
+}
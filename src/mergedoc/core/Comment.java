@@ -5,6 +5,7 @@
  */
 package mergedoc.core;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -25,6 +26,9 @@ public class Comment {
     /** ロガー */
     private static final Log log = LogFactory.getLog(Comment.class);
 
+    /** HTML 整形結果のキャッシュ */
+    private static final MemoCache htmlCache = new MemoCache("HTML 整形");
+
     /** 出力するコメントのデフォルトの横幅 */
     private static final int DEFAULT_WIDTH = Integer.MAX_VALUE;;
 
@@ -81,6 +85,12 @@ public class Comment {
     /** spec タグコメントのリスト（JSR No.記述．非標準タグ） */
     private List<String> srcSpecs;
 
+    /** 直前の buildComment で行数調整に要した時間（ナノ秒） */
+    private long resizeTime;
+
+    /** 直前の buildComment で行数調整が出来なかった場合は true */
+    private boolean resizeFailed;
+
     /**
      * コンストラクタです。
      * <p>
@@ -90,6 +100,35 @@ public class Comment {
         this.sig = sig;
     }
 
+    /**
+     * API ドキュメントから取得した内容を持つ複製を作成します。
+     * {@link #buildComment()} はコメントの内容を変更するため、
+     * 同じ API ドキュメントを複数の Java ソースで使用する場合は複製を使用します。
+     * <p>
+     * @return 複製
+     */
+    public Comment copy() {
+        Comment c = new Comment(sig);
+        c.docBody = docBody;
+        c.deprecate = deprecate;
+        c.sees = copyList(sees);
+        c.sinces = copyList(sinces);
+        c.params = copyList(params);
+        c.returns = copyList(returns);
+        c.throwses = copyList(throwses);
+        return c;
+    }
+
+    /**
+     * タグリストを複製します。
+     * <p>
+     * @param list タグリスト
+     * @return 複製。引数が null の場合は null。
+     */
+    private static List<String> copyList(List<String> list) {
+        return (list == null) ? null : new LinkedList<String>(list);
+    }
+
     /**
      * コメント本文をセットします。
      * <p>
@@ -101,11 +140,27 @@ public class Comment {
 
     /**
      * コメントに含まれる HTML を整形します。
+     * 同じコメントの整形結果はキャッシュから取得します。
+     * <p>
+     * @param comment コメント
+     * @return HTML 整形後のコメント
+     */
+    private static String formatHTML(String comment) {
+        String formatted = htmlCache.get(comment);
+        if (formatted == null) {
+            formatted = formatHTMLWithoutCache(comment);
+            htmlCache.put(comment, formatted);
+        }
+        return formatted;
+    }
+
+    /**
+     * コメントに含まれる HTML をキャッシュを使用せずに整形します。
      * <p>
      * @param comment コメント
      * @return HTML 整形後のコメント
      */
-    private String formatHTML(String comment) {
+    private static String formatHTMLWithoutCache(String comment) {
 
         // HTML タグが含まれている可能性があるか
         boolean hasHtmlTag = comment.contains("<");
@@ -345,6 +400,10 @@ public class Comment {
     /**
      * 設定された情報を元にコメントをビルドします。
      * <p>
+     * ビルド結果は元の Java ソースのコメントと API ドキュメントから取得した
+     * 情報だけで決まるため、{@link CommentStore} に前回以前の実行のビルド結果が
+     * ある場合はそれを返します。
+     * <p>
      * @return ビルドしたコメント
      */
     public String buildComment() {
@@ -352,6 +411,36 @@ public class Comment {
         if (srcBody == null) {
             throw new IllegalStateException("Source comment is null. require #setSourceComment.");
         }
+        resizeTime = 0;
+        resizeFailed = false;
+
+        CommentStore store = CommentStore.getInstance();
+        if (!store.isEnabled()) {
+            return buildCommentWithoutCache();
+        }
+        ByteBuffer key = store.key(srcBody, FastStringUtils.heightOf(srcBody), docBody, deprecate, sees, sinces, params,
+                returns, throwses);
+        CommentStore.Entry entry = store.get(key);
+        if (entry != null) {
+            if (entry.resizeFailed) {
+                log.warn(sig + " 行数調整不可のためマージ出来ませんでした。（前回の結果）");
+            }
+            resizeFailed = entry.resizeFailed;
+            return entry.text;
+        }
+        String result = buildCommentWithoutCache();
+        if (result != null) {
+            store.put(key, new CommentStore.Entry(result, resizeFailed));
+        }
+        return result;
+    }
+
+    /**
+     * {@link CommentStore} を使用せずにコメントをビルドします。
+     * <p>
+     * @return ビルドしたコメント
+     */
+    private String buildCommentWithoutCache() {
 
         // Java ソースに @deprecated が含まれない場合は削除。
         // API ドキュメントはクラスが @deprecated であれば自動的に
@@ -419,7 +508,9 @@ public class Comment {
         String decoComment = o.toString();
         if (decoComment.length() > 0) {
             if (o.resultHeight() != o.originHeight) {
+                long start = System.nanoTime();
                 decoComment = resizeComment(o, decoComment);
+                resizeTime = System.nanoTime() - start;
             }
             decoComment = FastStringUtils.replaceAll(decoComment, "(?m)^", indent);
             decoComment = FastStringUtils.replaceAll(decoComment, "(?m)^ +$", "");
@@ -428,6 +519,23 @@ public class Comment {
         return decoComment;
     }
 
+    /**
+     * 直前の {@link #buildComment()} で行数調整に要した時間を取得します。
+     * @return 時間（ナノ秒）
+     */
+    long getResizeTime() {
+        return resizeTime;
+    }
+
+    /**
+     * 直前の {@link #buildComment()} で行数調整が出来ず、元の Java ソースの
+     * コメントを返したか判定します。
+     * @return 行数調整が出来なかった場合は true
+     */
+    boolean isResizeFailed() {
+        return resizeFailed;
+    }
+
     /**
      * Java ソース上ではスーパークラスやインタフェースに Javadoc
      * コメントがあれば省略することが可能ですが、API ドキュメントには
@@ -666,6 +774,7 @@ public class Comment {
                 // JDK5.0 API ドキュメントではここは通らない
                 log.warn(sig + " 行数調整不可のためマージ出来ませんでした。\n" + "-------------------------------------------------\n" + "英語コメント:\n" + srcBody
                         + "\n日本語コメント:\n" + o.toString() + "-------------------------------------------------\n");
+                resizeFailed = true;
                 return srcBody;
             }
             decoComment = o.toString();
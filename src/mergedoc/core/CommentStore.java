@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 構築済みのコメントを実行をまたいで保持するストアです。
+ * <p>
+ * JDK のアップデートリリース間では、ファイル全体が変更されていても個々の
+ * Javadoc コメントと対応する API ドキュメントの断片はほとんど同じです。
+ * {@link Comment#buildComment()} の結果は元の Java ソースのコメント（行数を含む）と
+ * API ドキュメントの断片だけで決まるため、これらの SHA-1 ハッシュをキーとして
+ * 構築結果を保存し、次回以降は整形と行数調整を省略します。キーには実行中の
+ * プログラムのビルドの識別子（{@link BuildIdentity}）も含めるため、
+ * プログラムを更新すると以前の構築結果は使用されません。
+ * <p>
+ * ストアはシステムプロパティ {@value #SIZE_KEY} で大きさの上限を MB 単位で
+ * 指定した場合のみ使用します（デフォルト 0 で使用しない）。上限を超えた場合は
+ * 最も長く使用されていないものから破棄します。ストアはキャッシュディレクトリ
+ * （{@link CacheFiles}）の {@value #FILE_NAME}（システムプロパティ {@value #FILE_KEY}
+ * で変更可）に保存され、最初の使用時に読み込み、{@link #save()} で書き込みます。
+ * 書き込みは同じディレクトリの一時ファイルに行ってから置き換えるため、複数の
+ * プロセスが同じファイルを使用しても壊れません（最後に書き込んだ内容が残ります）。
+ * 複数のスレッドから使用できます。
+ *
+ * @author Shinji Kashihara
+ */
+class CommentStore {
+
+    /** ロガー */
+    private static final Log log = LogFactory.getLog(CommentStore.class);
+
+    /** ストアの大きさの上限（MB）を指定するシステムプロパティのキー */
+    public static final String SIZE_KEY = "mergedoc.commentcache.mb";
+
+    /** ストアのファイルを指定するシステムプロパティのキー */
+    public static final String FILE_KEY = "mergedoc.commentcache.file";
+
+    /** デフォルトのストアのファイル名（キャッシュディレクトリからの相対パス） */
+    static final String FILE_NAME = "comment-cache.bin";
+
+    /** ファイル形式の識別子 */
+    private static final int MAGIC = 0x4d444343;
+
+    /**
+     * ファイル形式のバージョン。
+     * コメントの構築処理の変更はビルドの識別子で検出するため、変更する必要はありません。
+     */
+    private static final int VERSION = 2;
+
+    /** 文字コード */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** エントリごとの付加的なメモリ量の概算（バイト） */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /** シングルトンインスタンス */
+    private static CommentStore instance;
+
+    /** ストアのファイル。使用しない場合は null。 */
+    private final File file;
+
+    /** ビルドの識別子 */
+    private final byte[] buildId;
+
+    /** 構築結果のバイト数の合計の上限 */
+    private final long maxWeight;
+
+    /** キーと構築結果のテーブル（アクセス順） */
+    private final LinkedHashMap<ByteBuffer, Entry> entries = new LinkedHashMap<ByteBuffer, Entry>(1024, 0.75f, true);
+
+    /** 構築結果のバイト数の合計 */
+    private long weight;
+
+    /** 前回の保存後に変更された場合は true */
+    private boolean modified;
+
+    /** ヒット数 */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** ミス数 */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * コメントの構築結果です。
+     */
+    static class Entry {
+
+        /** 構築したコメント */
+        final String text;
+
+        /** 行数調整が出来なかった場合は true */
+        final boolean resizeFailed;
+
+        /**
+         * コンストラクタです。
+         * @param text 構築したコメント
+         * @param resizeFailed 行数調整が出来なかった場合は true
+         */
+        Entry(String text, boolean resizeFailed) {
+            this.text = text;
+            this.resizeFailed = resizeFailed;
+        }
+
+        /**
+         * おおよそのメモリ量を取得します。
+         * @return バイト数
+         */
+        long weight() {
+            return ENTRY_OVERHEAD + text.length() * 2L;
+        }
+    }
+
+    /**
+     * コンストラクタです。
+     * @param file ストアのファイル。使用しない場合は null。
+     * @param buildId ビルドの識別子
+     * @param maxWeight 構築結果のバイト数の合計の上限
+     */
+    private CommentStore(File file, byte[] buildId, long maxWeight) {
+        this.file = file;
+        this.buildId = buildId;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * このクラスのシングルトンインスタンスを取得します。
+     * 初回の呼び出し時にストアのファイルを読み込みます。
+     * @return このクラスのインスタンス
+     */
+    static synchronized CommentStore getInstance() {
+        if (instance == null) {
+            long mb = Math.max(0, Long.getLong(SIZE_KEY, 0));
+            File file = null;
+            byte[] buildId = new byte[0];
+            if (mb > 0) {
+                try {
+                    buildId = BuildIdentity.get();
+                    String path = System.getProperty(FILE_KEY);
+                    file = (path != null) ? new File(path) : new File(CacheFiles.getDirectory(), FILE_NAME);
+                } catch (IOException e) {
+                    log.warn("プログラムのビルドを識別できないため、構築済みのコメントを保存しません。", e);
+                }
+            }
+            instance = new CommentStore(file, buildId, mb * 1024 * 1024);
+            instance.load();
+        }
+        return instance;
+    }
+
+    /**
+     * SHA-1 のダイジェストを作成します。
+     * @return ダイジェスト
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * ストアを使用するか判定します。
+     * @return 使用する場合は true
+     */
+    boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * キーを作成します。キーにはビルドの識別子を含みます。
+     * @param parts キーの構成要素。null と空のリストも区別します。
+     * @return キー
+     */
+    ByteBuffer key(Object... parts) {
+        MessageDigest md = newDigest();
+        md.update(buildId);
+        for (Object part : parts) {
+            update(md, part);
+        }
+        return ByteBuffer.wrap(md.digest());
+    }
+
+    /**
+     * キーの構成要素をダイジェストに追加します。
+     * 区切りが曖昧にならないように、文字列は長さを前に付けて追加します。
+     * @param md ダイジェスト
+     * @param part キーの構成要素
+     */
+    private static void update(MessageDigest md, Object part) {
+        if (part == null) {
+            md.update((byte) 0);
+        } else if (part instanceof List) {
+            List<?> list = (List<?>) part;
+            md.update((byte) 1);
+            update(md, String.valueOf(list.size()));
+            for (Object item : list) {
+                update(md, item);
+            }
+        } else {
+            byte[] bytes = String.valueOf(part).getBytes(UTF_8);
+            md.update((byte) 2);
+            md.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            md.update(bytes);
+        }
+    }
+
+    /**
+     * 構築結果を取得します。
+     * @param key キー
+     * @return 構築結果。無い場合は null。
+     */
+    Entry get(ByteBuffer key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * 構築結果を登録し、上限を超えた分を古いものから破棄します。
+     * @param key キー
+     * @param entry 構築結果
+     */
+    void put(ByteBuffer key, Entry entry) {
+        if (entry.weight() > maxWeight) {
+            return;
+        }
+        synchronized (entries) {
+            Entry old = entries.put(key, entry);
+            if (old != null) {
+                weight -= old.weight();
+            }
+            weight += entry.weight();
+            for (Iterator<Entry> it = entries.values().iterator(); weight > maxWeight && it.hasNext();) {
+                weight -= it.next().weight();
+                it.remove();
+            }
+            modified = true;
+        }
+    }
+
+    /**
+     * ストアのファイルを読み込みます。
+     * ファイルが無い場合や形式が異なる場合は空のストアになります。
+     */
+    private void load() {
+
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    log.info(file + " の形式が異なるため、構築済みのコメントを使用しません。");
+                    return;
+                }
+                byte[] savedId = new byte[in.readUnsignedByte()];
+                in.readFully(savedId);
+                if (!Arrays.equals(savedId, buildId)) {
+                    log.info(file + " は異なるビルドで作成されたため、構築済みのコメントを使用しません。");
+                    return;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] key = new byte[in.readUnsignedByte()];
+                    in.readFully(key);
+                    boolean resizeFailed = in.readBoolean();
+                    byte[] text = new byte[in.readInt()];
+                    in.readFully(text);
+                    put(ByteBuffer.wrap(key), new Entry(new String(text, UTF_8), resizeFailed));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (EOFException e) {
+            log.warn(file + " が途中で終わっているため、読み込めた分のみ使用します。");
+        } catch (IOException e) {
+            log.warn(file + " を読み込めないため、構築済みのコメントを使用しません。", e);
+            synchronized (entries) {
+                entries.clear();
+                weight = 0;
+            }
+        }
+        modified = false;
+    }
+
+    /**
+     * 変更されている場合はストアのファイルに書き込みます。
+     * 最も長く使用されていないものから順に書き込むため、次回の読み込み後も
+     * 使用順が保たれます。書き込み中も他のスレッドから使用できるように、
+     * ロック中は内容の複製のみ行います。書き込めない場合は警告のみ出力します。
+     */
+    void save() {
+
+        if (file == null) {
+            return;
+        }
+        ByteBuffer[] keys;
+        Entry[] values;
+        synchronized (entries) {
+            if (!modified) {
+                return;
+            }
+            keys = entries.keySet().toArray(new ByteBuffer[entries.size()]);
+            values = entries.values().toArray(new Entry[entries.size()]);
+            modified = false;
+        }
+
+        File tmpFile = null;
+        try {
+            if (!CacheFiles.prepare(file)) {
+                throw new IOException("ディレクトリを作成できません。");
+            }
+            tmpFile = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeByte(buildId.length);
+                out.write(buildId);
+                out.writeInt(keys.length);
+                for (int i = 0; i < keys.length; i++) {
+                    byte[] key = keys[i].array();
+                    out.writeByte(key.length);
+                    out.write(key);
+                    out.writeBoolean(values[i].resizeFailed);
+                    byte[] text = values[i].text.getBytes(UTF_8);
+                    out.writeInt(text.length);
+                    out.write(text);
+                }
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn(file + " に構築済みのコメントを書き込めませんでした。", e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            synchronized (entries) {
+                modified = true;
+            }
+        }
+    }
+
+    /**
+     * ヒット率を表示用の文字列で取得します。
+     * @return 表示用の文字列（改行で始まる）。使用されていない場合は空文字列。
+     */
+    static synchronized String getStatsText() {
+        if (instance == null) {
+            return "";
+        }
+        long hit = instance.hits.get();
+        long lookup = hit + instance.misses.get();
+        if (lookup == 0) {
+            return "";
+        }
+        return "\n構築済みコメントストア（累積）: ヒット " + hit + " 件, ミス " + (lookup - hit) + " 件"
+            + " (ヒット率 " + String.format("%.1f", hit * 100.0 / lookup) + "%)";
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * API ドキュメントが存在するクラスの索引です。
+ * <p>
+ * API ドキュメントディレクトリの allclasses-frame.html のリンクから、API
+ * ドキュメントが存在するトップレベルクラスのパス（例えば java/lang/String）を
+ * 作成します。インナークラスの API ドキュメント（例えば java/util/Map.Entry）は
+ * トップレベルクラスのパスとして登録します。アーカイブのエントリ名から、
+ * 対応する API ドキュメントが存在し得るかをファイルを参照せずに判定するために
+ * 使用します。
+ *
+ * @author Shinji Kashihara
+ */
+class DocumentIndex {
+
+    /** ロガー */
+    private static final Log log = LogFactory.getLog(DocumentIndex.class);
+
+    /** 索引の作成に使用する API ドキュメントファイル名 */
+    static final String INDEX_FILE_NAME = "allclasses-frame.html";
+
+    /** 前回 {@link #get(File, String)} で作成した索引のキー */
+    private static String lastKey;
+
+    /** 前回 {@link #get(File, String)} で作成した索引 */
+    private static DocumentIndex lastIndex;
+
+    /** API ドキュメントが存在するトップレベルクラスのパス */
+    private final Set<String> classPaths;
+
+    /**
+     * コンストラクタです。
+     * @param classPaths API ドキュメントが存在するトップレベルクラスのパス
+     */
+    private DocumentIndex(Set<String> classPaths) {
+        this.classPaths = classPaths;
+    }
+
+    /**
+     * API ドキュメントディレクトリの索引を取得します。
+     * 前回と同じ API ドキュメントディレクトリで索引ファイルが更新されていない
+     * 場合は、前回作成した索引を返します。
+     * @param docDir API ドキュメントディレクトリ
+     * @param charsetName API ドキュメントの文字セット名
+     * @return 索引。API ドキュメントディレクトリが指定されていない場合や
+     *         索引ファイルが読み込めない場合は null。
+     */
+    static synchronized DocumentIndex get(File docDir, String charsetName) {
+
+        if (docDir == null || docDir.getPath().length() == 0) {
+            return null;
+        }
+        File indexFile = new File(docDir, INDEX_FILE_NAME).getAbsoluteFile();
+        String key = indexFile + File.pathSeparator + charsetName + File.pathSeparator + indexFile.lastModified()
+                + File.pathSeparator + indexFile.length();
+        if (!key.equals(lastKey) || lastIndex == null) {
+            lastIndex = load(docDir, charsetName);
+            lastKey = key;
+        }
+        return lastIndex;
+    }
+
+    /**
+     * API ドキュメントディレクトリの索引を作成します。
+     * @param docDir API ドキュメントディレクトリ
+     * @param charsetName API ドキュメントの文字セット名
+     * @return 索引。API ドキュメントディレクトリが指定されていない場合や
+     *         索引ファイルが読み込めない場合は null。
+     */
+    static DocumentIndex load(File docDir, String charsetName) {
+
+        if (docDir == null || docDir.getPath().length() == 0) {
+            return null;
+        }
+        File indexFile = new File(docDir, INDEX_FILE_NAME);
+        String html;
+        try {
+            html = new String(Files.readAllBytes(indexFile.toPath()), charsetName);
+        } catch (IOException e) {
+            log.warn(indexFile + " を読み込めないため、API ドキュメントの有無を事前に判定しません。", e);
+            return null;
+        }
+
+        Set<String> classPaths = new HashSet<String>();
+        Matcher mat = PatternCache.getPattern("(?i)href\\s*=\\s*\"(?:\\./)?([^\"#?:]+)\\.html\"").matcher(html);
+        while (mat.find()) {
+            String path = mat.group(1);
+            int nameStart = path.lastIndexOf('/') + 1;
+            int innerStart = path.indexOf('.', nameStart);
+            if (innerStart != -1) {
+                path = path.substring(0, innerStart);
+            }
+            classPaths.add(path);
+        }
+        if (classPaths.isEmpty()) {
+            log.warn(indexFile + " にクラスへのリンクが無いため、API ドキュメントの有無を事前に判定しません。");
+            return null;
+        }
+        return new DocumentIndex(classPaths);
+    }
+
+    /**
+     * 索引に含まれるクラスの数を取得します。
+     * @return クラスの数
+     */
+    int size() {
+        return classPaths.size();
+    }
+
+    /**
+     * Java ソースのエントリに対応する API ドキュメントが存在し得るか判定します。
+     * エントリ名から {@link #classPaths(String)} で得られるパスのいずれかが
+     * 索引に含まれていれば存在し得るとみなします。
+     * @param entryName エントリ名（例えば java/lang/String.java）
+     * @return API ドキュメントが存在し得る場合は true
+     */
+    boolean mayHaveDocument(String entryName) {
+        for (String path : classPaths(entryName)) {
+            if (classPaths.contains(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Java ソースのエントリ名から、クラスのパスの候補を取得します。
+     * エントリ名の先頭にパッケージ以外のディレクトリ（モジュール名など）が
+     * 含まれる場合を考慮し、先頭のディレクトリを順に除いたパスを候補とします。
+     * 例えば java.base/java/lang/String.java の場合は java.base/java/lang/String、
+     * java/lang/String、lang/String、String の順になります。
+     * @param entryName エントリ名
+     * @return クラスのパスの候補
+     */
+    static List<String> classPaths(String entryName) {
+        String path = FastStringUtils.replaceFirst(entryName, "\\.java$", "");
+        List<String> paths = new ArrayList<String>();
+        for (int start = 0;;) {
+            paths.add(path.substring(start));
+            int slash = path.indexOf('/', start);
+            if (slash == -1) {
+                return paths;
+            }
+            start = slash + 1;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * エントリごとの処理時間とアロケーション量を集計し、レポートを作成するクラスです。
+ * <p>
+ * 処理時間の上位 N 件のエントリと、処理時間の分布を出力します。分布は 2 の
+ * べき乗ごとの区間をさらに 8 分割したバケット（HdrHistogram と同様の対数線形
+ * バケット）で集計するため、エントリ数によらず一定のメモリで 12.5% 以内の
+ * 精度を保ちます。上位の件数はシステムプロパティ {@value #TOP_KEY} で
+ * 指定できます。アロケーション量は実行中の JVM がスレッドごとのアロケーション
+ * 量の計測に対応している場合のみ記録されます。
+ *
+ * @author Shinji Kashihara
+ */
+public class EntryCostReport {
+
+    /** 上位の件数を指定するシステムプロパティのキー */
+    public static final String TOP_KEY = "mergedoc.report.top";
+
+    /** 上位の件数 */
+    private static final int TOP = Integer.getInteger(TOP_KEY, 20);
+
+    /** 2 のべき乗の区間ごとのバケット数（2 のべき乗） */
+    private static final int SUB_BUCKETS = 8;
+
+    /** SUB_BUCKETS の 2 を底とする対数 */
+    private static final int SUB_BITS = 3;
+
+    /** パーセンタイルの出力対象 */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /**
+     * エントリの処理コストです。
+     */
+    private static class Cost {
+
+        /** エントリ名 */
+        final String name;
+
+        /** 処理時間（ナノ秒） */
+        final long nanos;
+
+        /** アロケーション量（バイト）。計測できない場合は -1。 */
+        final long bytes;
+
+        /**
+         * コンストラクタです。
+         * @param name エントリ名
+         * @param nanos 処理時間（ナノ秒）
+         * @param bytes アロケーション量（バイト）
+         */
+        Cost(String name, long nanos, long bytes) {
+            this.name = name;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+
+    /** 処理時間の昇順の比較 */
+    private static final Comparator<Cost> FASTER_FIRST = new Comparator<Cost>() {
+        @Override
+        public int compare(Cost c1, Cost c2) {
+            return (c1.nanos < c2.nanos) ? -1 : (c1.nanos == c2.nanos) ? 0 : 1;
+        }
+    };
+
+    /** スレッドごとのアロケーション量を取得する MXBean。対応していない場合は null。 */
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    /** 処理時間の上位のエントリ（先頭が最も速い） */
+    private final PriorityQueue<Cost> slowest = new PriorityQueue<Cost>(TOP + 1, FASTER_FIRST);
+
+    /** マイクロ秒単位の処理時間のバケットごとの件数 */
+    private final long[] buckets = new long[SUB_BUCKETS + (64 - SUB_BITS) * SUB_BUCKETS];
+
+    /** エントリ数 */
+    private long count;
+
+    /** 処理時間の合計（ナノ秒） */
+    private long totalNanos;
+
+    /** アロケーション量の合計（バイト） */
+    private long totalBytes;
+
+    /** 処理時間の最大値（ナノ秒） */
+    private long maxNanos;
+
+    /**
+     * コンストラクタです。
+     */
+    public EntryCostReport() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean sunBean = null;
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) {
+                sunBean = null;
+            }
+        }
+        allocationBean = sunBean;
+    }
+
+    /**
+     * 現在のスレッドがこれまでにアロケーションしたバイト数を取得します。
+     * @return バイト数。計測できない場合は -1。
+     */
+    public long allocatedBytes() {
+        if (allocationBean == null) {
+            return -1;
+        }
+        return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * エントリの処理コストを記録します。
+     * @param name エントリ名
+     * @param nanos 処理時間（ナノ秒）
+     * @param bytes アロケーション量（バイト）。計測できない場合は負の値。
+     */
+    public synchronized void record(String name, long nanos, long bytes) {
+
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        if (bytes >= 0) {
+            totalBytes += bytes;
+        }
+        buckets[bucketIndex(nanos / 1000)]++;
+
+        if (slowest.size() < TOP || nanos > slowest.peek().nanos) {
+            slowest.add(new Cost(name, nanos, bytes < 0 ? -1 : bytes));
+            if (slowest.size() > TOP) {
+                slowest.poll();
+            }
+        }
+    }
+
+    /**
+     * 値が属するバケットのインデックスを取得します。
+     * @param value 値（0 以上）
+     * @return バケットのインデックス
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (magnitude - SUB_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (magnitude - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * バケットに含まれる最小の値を取得します。
+     * @param index バケットのインデックス
+     * @return 最小の値
+     */
+    private static long bucketLow(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (magnitude - SUB_BITS);
+    }
+
+    /**
+     * バケットに含まれる最大の値を取得します。
+     * @param index バケットのインデックス
+     * @return 最大の値
+     */
+    private static long bucketHigh(int index) {
+        return bucketLow(index + 1) - 1;
+    }
+
+    /**
+     * 出力アーカイブファイルに対応するレポートファイルを取得します。
+     * 例えば srcja.zip に対してはキャッシュディレクトリの srcja-(パスのハッシュ)-report.txt
+     * になります（{@link CacheFiles#fileFor(File, String)}）。
+     * @param outputArchive 出力アーカイブファイル
+     * @return レポートファイル
+     */
+    public static File fileFor(File outputArchive) {
+        return CacheFiles.fileFor(outputArchive, "-report.txt");
+    }
+
+    /**
+     * レポートをファイルに出力します。
+     * @param file 出力先ファイル
+     * @throws IOException 入出力例外が発生した場合
+     */
+    public synchronized void write(File file) throws IOException {
+
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            pw.println("MergeDoc エントリ別処理レポート");
+            pw.println();
+            pw.println("エントリ数: " + count);
+            pw.println("処理時間の合計: " + String.format("%.2f", totalNanos / 1e9) + " 秒");
+            if (allocationBean != null) {
+                pw.println("アロケーション量の合計: " + String.format("%.1f", totalBytes / (1024.0 * 1024.0)) + " MB");
+            }
+
+            // 上位のエントリ
+            List<Cost> costs = new ArrayList<Cost>(slowest);
+            Collections.sort(costs, Collections.reverseOrder(FASTER_FIRST));
+            pw.println();
+            pw.println("処理時間の上位 " + costs.size() + " エントリ:");
+            pw.println(String.format("%6s %12s %14s  %s", "順位", "時間(ms)", "割当(KB)", "エントリ"));
+            for (int i = 0; i < costs.size(); i++) {
+                Cost c = costs.get(i);
+                String kb = (c.bytes < 0) ? "-" : String.format("%.1f", c.bytes / 1024.0);
+                pw.println(String.format("%6d %12.2f %14s  %s", i + 1, c.nanos / 1e6, kb, c.name));
+            }
+
+            // 分布
+            pw.println();
+            pw.println("処理時間の分布:");
+            pw.println(String.format("%14s %10s %8s", "上限(ms)", "件数", "累積%"));
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] == 0) {
+                    continue;
+                }
+                cumulative += buckets[i];
+                pw.println(String.format("%14.3f %10d %8.2f", (bucketHigh(i) + 1) / 1e3, buckets[i], cumulative * 100.0 / count));
+            }
+
+            // パーセンタイル
+            pw.println();
+            for (double p : PERCENTILES) {
+                pw.println(String.format("%5s%% 点: %.3f ms 以下", formatPercent(p), percentileMicros(p) / 1e3));
+            }
+            pw.println(String.format("最大値: %.3f ms", maxNanos / 1e6));
+        } finally {
+            pw.close();
+        }
+        if (pw.checkError()) {
+            throw new IOException(file + " の書き込みに失敗しました。");
+        }
+    }
+
+    /**
+     * パーセンタイルの値をバケットの上限で取得します。
+     * @param percent パーセント
+     * @return マイクロ秒単位の値
+     */
+    private long percentileMicros(double percent) {
+        long threshold = (long) Math.ceil(count * percent / 100);
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i];
+            if (cumulative >= threshold && cumulative > 0) {
+                return bucketHigh(i) + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * パーセントを表示用の文字列に変換します。
+     * @param percent パーセント
+     * @return 文字列
+     */
+    private static String formatPercent(double percent) {
+        return (percent == Math.floor(percent)) ? String.valueOf((long) percent) : String.valueOf(percent);
+    }
+}
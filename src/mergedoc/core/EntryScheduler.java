@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * エントリの処理を複数のスレッドで並行して実行し、結果をエントリの順に
+ * 取り出すスケジューラです。
+ * <p>
+ * 一部の大きなクラスの処理が最後に残って全体の処理時間を延ばさないように、
+ * 推定コストの大きいエントリから処理を開始します。推定コストは処理時間の履歴が
+ * あればその値とし、無い場合はエントリのサイズに、履歴があるエントリのサイズ
+ * あたりの平均処理時間を掛けた値とします。
+ * <p>
+ * 結果は {@link #take(int)} でエントリの順に取り出します。取り出されていない
+ * 結果が保持するメモリを制限するため、処理中と取り出し待ちのエントリのサイズの
+ * 合計が上限（システムプロパティ {@value #BUFFER_KEY} で MB 単位で指定、
+ * デフォルトは最大ヒープサイズの 1/8）に達すると、取り出されるまで新しい
+ * エントリの処理を開始しません。取り出すエントリの処理が開始されていない
+ * 場合は、取り出すスレッドで処理します。
+ *
+ * @author Shinji Kashihara
+ */
+class EntryScheduler {
+
+    /** 取り出し待ちのエントリのサイズの上限（MB）を指定するシステムプロパティのキー */
+    public static final String BUFFER_KEY = "mergedoc.parallel.buffer.mb";
+
+    /**
+     * エントリの処理です。
+     */
+    static interface Processor {
+
+        /**
+         * エントリを処理します。複数のスレッドから呼び出されます。
+         * @param index エントリのインデックス
+         * @return 処理結果
+         * @throws Exception 処理に失敗した場合
+         */
+        byte[] process(int index) throws Exception;
+    }
+
+    /**
+     * エントリの処理状態です。
+     */
+    private static class Task {
+
+        /** 処理を開始したスレッドが決まっている場合は true */
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        /** 処理の終了 */
+        final CountDownLatch done = new CountDownLatch(1);
+
+        /** 処理の開始時に確保したバッファのパーミット数 */
+        int permits;
+
+        /** 処理結果 */
+        byte[] result;
+
+        /** 処理中に発生した例外 */
+        Throwable failure;
+    }
+
+    /** エントリの処理 */
+    private final Processor processor;
+
+    /** エントリの処理状態 */
+    private final Task[] tasks;
+
+    /** エントリのサイズ（KB 単位のパーミット数） */
+    private final int[] weights;
+
+    /** 処理を開始する順のエントリのインデックス */
+    private final int[] order;
+
+    /** 次に処理を開始する order の位置 */
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    /** 取り出し待ちのエントリのバッファ（KB 単位） */
+    private final Semaphore budget;
+
+    /** スレッド数 */
+    private final int threads;
+
+    /** 処理を行う Executor */
+    private final ExecutorService executor;
+
+    /**
+     * コンストラクタです。
+     * @param sizes エントリのサイズ（バイト）
+     * @param historyNanos エントリの処理時間の履歴（ナノ秒）。履歴が無い場合は負の値。
+     * @param threads スレッド数
+     * @param processor エントリの処理
+     */
+    EntryScheduler(long[] sizes, long[] historyNanos, int threads, Processor processor) {
+
+        this.processor = processor;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.tasks = new Task[sizes.length];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new Task();
+        }
+
+        long maxBytes = Runtime.getRuntime().maxMemory() / 8;
+        Long mb = Long.getLong(BUFFER_KEY);
+        if (mb != null) {
+            maxBytes = Math.max(1, mb) * 1024 * 1024;
+        }
+        int maxPermits = (int) Math.min(Integer.MAX_VALUE, maxBytes / 1024);
+        this.budget = new Semaphore(maxPermits);
+        this.weights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            weights[i] = (int) Math.min(maxPermits, sizes[i] / 1024 + 1);
+        }
+
+        // 履歴が無いエントリはサイズあたりの平均処理時間から見積もる
+        long knownNanos = 0;
+        long knownSize = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            if (historyNanos[i] >= 0 && sizes[i] > 0) {
+                knownNanos += historyNanos[i];
+                knownSize += sizes[i];
+            }
+        }
+        double nanosPerByte = (knownSize == 0) ? 1 : (double) knownNanos / knownSize;
+        final long[] costs = new long[sizes.length];
+        Integer[] indexes = new Integer[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            if (historyNanos[i] >= 0) {
+                costs[i] = historyNanos[i];
+            } else {
+                costs[i] = (long) (sizes[i] * nanosPerByte);
+            }
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                long c1 = costs[i1];
+                long c2 = costs[i2];
+                return (c1 > c2) ? -1 : (c1 == c2) ? 0 : 1;
+            }
+        });
+        this.order = new int[sizes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = indexes[i];
+        }
+    }
+
+    /**
+     * 処理を開始します。
+     */
+    void start() {
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * 推定コストの大きい順にエントリを処理します。
+     * 他のスレッドが処理を開始したエントリは読み飛ばします。
+     */
+    private void work() {
+        try {
+            for (int pos; (pos = cursor.getAndIncrement()) < order.length;) {
+                int index = order[pos];
+                Task task = tasks[index];
+                if (task.claimed.get()) {
+                    continue;
+                }
+                // バッファを確保してから処理を開始するスレッドを決める
+                budget.acquire(weights[index]);
+                if (!task.claimed.compareAndSet(false, true)) {
+                    budget.release(weights[index]);
+                    continue;
+                }
+                task.permits = weights[index];
+                run(task, index);
+            }
+        } catch (InterruptedException e) {
+            // 中止された場合は終了
+        }
+    }
+
+    /**
+     * エントリを処理し、処理結果または例外を設定します。
+     * @param task エントリの処理状態
+     * @param index エントリのインデックス
+     */
+    private void run(Task task, int index) {
+        try {
+            task.result = processor.process(index);
+        } catch (Throwable e) {
+            task.failure = e;
+        } finally {
+            task.done.countDown();
+        }
+    }
+
+    /**
+     * エントリの処理結果を取り出します。エントリの順に呼び出します。
+     * 処理が終了していない場合は終了を待ち、開始されていない場合は
+     * 現在のスレッドで処理します。
+     * @param index エントリのインデックス
+     * @return 処理結果
+     * @throws ExecutionException エントリの処理中に例外が発生した場合
+     * @throws CancellationException 現在のスレッドで割り込みが発生した場合
+     */
+    byte[] take(int index) throws ExecutionException {
+
+        Task task = tasks[index];
+        if (task.claimed.compareAndSet(false, true)) {
+            run(task, index);
+        } else {
+            try {
+                task.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("処理がキャンセルされました。");
+            }
+        }
+        budget.release(task.permits);
+        byte[] result = task.result;
+        task.result = null;
+        if (task.failure != null) {
+            throw new ExecutionException(task.failure);
+        }
+        return result;
+    }
+
+    /**
+     * 処理を中止し、処理中のスレッドの終了を待ちます。
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // 中止済みのため終了まで待つ
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
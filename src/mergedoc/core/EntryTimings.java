@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * エントリごとのマージの処理時間の履歴です。
+ * <p>
+ * キャッシュディレクトリ（{@link CacheFiles}）の「(ファイル名)-(パスのハッシュ)-timings.properties」に
+ * エントリ名とマイクロ秒単位の処理時間を記録します。次回のマージで処理に時間の
+ * かかるエントリから開始するための見積もりに使用します。今回処理しなかった
+ * エントリの履歴は前回の値を残します。
+ * <p>
+ * 記録は複数のスレッドから行うことができます。
+ *
+ * @author Shinji Kashihara
+ */
+class EntryTimings {
+
+    /** ロガー */
+    private static final Log log = LogFactory.getLog(EntryTimings.class);
+
+    /** 履歴ファイル */
+    private final File file;
+
+    /** エントリ名と処理時間（マイクロ秒）のテーブル */
+    private final Map<String, Long> micros = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * コンストラクタです。
+     * @param file 履歴ファイル
+     */
+    private EntryTimings(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 出力ソースアーカイブファイルに対応する履歴を読み込みます。
+     * 履歴ファイルが無い場合や読み込めない場合は空の履歴になります。
+     * @param outputArchive 出力ソースアーカイブファイル
+     * @return 履歴
+     */
+    static EntryTimings load(File outputArchive) {
+
+        EntryTimings timings = new EntryTimings(CacheFiles.fileFor(outputArchive, "-timings.properties"));
+        if (!timings.file.exists()) {
+            return timings;
+        }
+        Properties props = new Properties();
+        try {
+            InputStream is = new FileInputStream(timings.file);
+            try {
+                props.load(is);
+            } finally {
+                is.close();
+            }
+            for (String entryName : props.stringPropertyNames()) {
+                timings.micros.put(entryName, Long.valueOf(props.getProperty(entryName)));
+            }
+        } catch (Exception e) {
+            log.warn(timings.file + " を読み込めないため、処理時間の履歴を使用しません。", e);
+            timings.micros.clear();
+        }
+        return timings;
+    }
+
+    /**
+     * エントリの前回の処理時間を取得します。
+     * @param entryName エントリ名
+     * @return 処理時間（ナノ秒）。履歴が無い場合は -1。
+     */
+    long getNanos(String entryName) {
+        Long value = micros.get(entryName);
+        return (value == null) ? -1 : value * 1000;
+    }
+
+    /**
+     * エントリの処理時間を記録します。
+     * @param entryName エントリ名
+     * @param nanos 処理時間（ナノ秒）
+     */
+    void record(String entryName, long nanos) {
+        micros.put(entryName, nanos / 1000);
+    }
+
+    /**
+     * 履歴ファイルに書き込みます。書き込めない場合は警告のみ出力します。
+     */
+    void save() {
+
+        Properties props = new Properties();
+        for (Map.Entry<String, Long> entry : micros.entrySet()) {
+            props.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        try {
+            if (!CacheFiles.prepare(file)) {
+                throw new IOException("ディレクトリを作成できません。");
+            }
+            OutputStream os = new FileOutputStream(file);
+            try {
+                props.store(os, "MergeDoc entry timings (microseconds)");
+            } finally {
+                os.close();
+            }
+        } catch (IOException e) {
+            log.warn(file + " に処理時間の履歴を書き込めませんでした。", e);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * アーカイブのエントリ名を対象パスと除外パスの glob パターンで判定するフィルタです。
+ * <p>
+ * 対象パスが指定されていない場合はすべてのエントリを対象とし、対象パスが指定
+ * されている場合はいずれかに一致するエントリを対象とします。除外パスのいずれかに
+ * 一致するエントリは対象外です。パターンには次の記述が使用できます。その他の
+ * 文字はそのまま比較します。
+ * <pre>
+ *   **&#47;  0 個以上のディレクトリ（例えば com/**&#47;*.java は com/A.java にも一致）
+ *   **   / を含む任意の文字列（例えば java/** は java 以下のすべてに一致）
+ *   *    / を含まない任意の文字列
+ *   ?    / 以外の任意の 1 文字
+ * </pre>
+ * すべてのパターンを 1 つの決定性有限オートマトンにまとめて構築するため、
+ * パターン数によらずエントリ名を 1 回走査するだけで判定できます。構築後は
+ * 変更されないため、複数のスレッドから使用できます。
+ *
+ * @author Shinji Kashihara
+ */
+class GlobFilter {
+
+    /** 対象パスに一致した状態を示すフラグ */
+    private static final int INCLUDE = 1;
+
+    /** 除外パスに一致した状態を示すフラグ */
+    private static final int EXCLUDE = 2;
+
+    /** 文字クラス：パターンに含まれない / 以外の文字 */
+    private static final int OTHER_CLASS = 0;
+
+    /** 文字クラス：/ */
+    private static final int SLASH_CLASS = 1;
+
+    /** すべてのエントリを対象とするフィルタ */
+    private static final GlobFilter ACCEPT_ALL = new GlobFilter(false, null, null, new int[] {0}, new int[] {0}, 1);
+
+    /** 対象パスが指定されている場合は true */
+    private final boolean hasIncludes;
+
+    /** ASCII 文字の文字クラス */
+    private final int[] asciiClasses;
+
+    /** ASCII 以外の文字の文字クラス */
+    private final Map<Character, Integer> otherClasses;
+
+    /** 状態と文字クラスごとの遷移先の状態（状態 × 文字クラス数 + 文字クラス） */
+    private final int[] transitions;
+
+    /** 状態ごとの一致フラグ */
+    private final int[] accepts;
+
+    /** 文字クラス数 */
+    private final int classCount;
+
+    /**
+     * コンストラクタです。
+     * @param hasIncludes 対象パスが指定されている場合は true
+     * @param asciiClasses ASCII 文字の文字クラス
+     * @param otherClasses ASCII 以外の文字の文字クラス
+     * @param transitions 遷移表
+     * @param accepts 状態ごとの一致フラグ
+     * @param classCount 文字クラス数
+     */
+    private GlobFilter(boolean hasIncludes, int[] asciiClasses, Map<Character, Integer> otherClasses, int[] transitions, int[] accepts,
+            int classCount) {
+        this.hasIncludes = hasIncludes;
+        this.asciiClasses = asciiClasses;
+        this.otherClasses = otherClasses;
+        this.transitions = transitions;
+        this.accepts = accepts;
+        this.classCount = classCount;
+    }
+
+    /**
+     * 対象パスと除外パスのパターンからフィルタを作成します。
+     * 空文字列のパターンは無視します。
+     * @param includes 対象パスのパターン
+     * @param excludes 除外パスのパターン
+     * @return フィルタ
+     */
+    static GlobFilter compile(String[] includes, String[] excludes) {
+
+        Nfa nfa = new Nfa();
+        boolean hasIncludes = false;
+        for (String pattern : includes) {
+            if (pattern.length() > 0) {
+                nfa.addPattern(pattern, INCLUDE);
+                hasIncludes = true;
+            }
+        }
+        for (String pattern : excludes) {
+            if (pattern.length() > 0) {
+                nfa.addPattern(pattern, EXCLUDE);
+            }
+        }
+        if (nfa.size() == 0) {
+            return ACCEPT_ALL;
+        }
+
+        // パターン中の文字ごとに文字クラスを割り当て
+        int[] asciiClasses = new int[128];
+        Map<Character, Integer> otherClasses = new HashMap<Character, Integer>();
+        List<Character> classChars = new ArrayList<Character>();
+        classChars.add('\0');
+        classChars.add('/');
+        asciiClasses['/'] = SLASH_CLASS;
+        for (int s = 0; s < nfa.size(); s++) {
+            int c = nfa.literals.get(s);
+            if (c == -1 || c == '/' || (c < 128 && asciiClasses[c] != 0) || otherClasses.containsKey((char) c)) {
+                continue;
+            }
+            if (c < 128) {
+                asciiClasses[c] = classChars.size();
+            } else {
+                otherClasses.put((char) c, classChars.size());
+            }
+            classChars.add((char) c);
+        }
+        int classCount = classChars.size();
+
+        // 部分集合構成法で決定性有限オートマトンを構築
+        List<BitSet> states = new ArrayList<BitSet>();
+        Map<BitSet, Integer> stateIds = new HashMap<BitSet, Integer>();
+        List<int[]> rows = new ArrayList<int[]>();
+        BitSet start = new BitSet();
+        for (int s : nfa.starts) {
+            start.set(s);
+        }
+        nfa.closure(start);
+        states.add(start);
+        stateIds.put(start, 0);
+        for (int id = 0; id < states.size(); id++) {
+            BitSet from = states.get(id);
+            int[] row = new int[classCount];
+            for (int cls = 0; cls < classCount; cls++) {
+                BitSet to = nfa.step(from, cls, classChars.get(cls));
+                Integer toId = stateIds.get(to);
+                if (toId == null) {
+                    toId = states.size();
+                    states.add(to);
+                    stateIds.put(to, toId);
+                }
+                row[cls] = toId;
+            }
+            rows.add(row);
+        }
+        int[] transitions = new int[states.size() * classCount];
+        int[] accepts = new int[states.size()];
+        for (int id = 0; id < states.size(); id++) {
+            System.arraycopy(rows.get(id), 0, transitions, id * classCount, classCount);
+            BitSet set = states.get(id);
+            for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1)) {
+                accepts[id] |= nfa.accepts.get(s);
+            }
+        }
+        return new GlobFilter(hasIncludes, asciiClasses, otherClasses, transitions, accepts, classCount);
+    }
+
+    /**
+     * エントリが対象か判定します。
+     * @param entryName エントリ名
+     * @return 対象の場合は true
+     */
+    boolean accept(String entryName) {
+
+        if (this == ACCEPT_ALL) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < entryName.length(); i++) {
+            char c = entryName.charAt(i);
+            int cls;
+            if (c < 128) {
+                cls = asciiClasses[c];
+            } else {
+                Integer other = otherClasses.get(c);
+                cls = (other == null) ? OTHER_CLASS : other;
+            }
+            state = transitions[state * classCount + cls];
+        }
+        int flags = accepts[state];
+        if ((flags & EXCLUDE) != 0) {
+            return false;
+        }
+        return !hasIncludes || (flags & INCLUDE) != 0;
+    }
+
+    /**
+     * パターンを表す非決定性有限オートマトンです。
+     * 各状態は最大 1 つの ε 遷移と、文字の種類ごとの遷移を持ちます。
+     */
+    private static class Nfa {
+
+        /** 各パターンの開始状態 */
+        final List<Integer> starts = new LinkedList<Integer>();
+
+        /** 状態ごとの ε 遷移先（無い場合は -1） */
+        final List<Integer> epsilons = new ArrayList<Integer>();
+
+        /** 状態ごとの遷移に一致する文字（無い場合は -1） */
+        final List<Integer> literals = new ArrayList<Integer>();
+
+        /** 状態ごとの文字の遷移先（無い場合は -1） */
+        final List<Integer> literalTargets = new ArrayList<Integer>();
+
+        /** 状態ごとの / 以外の文字の遷移先（無い場合は -1） */
+        final List<Integer> nonSlashTargets = new ArrayList<Integer>();
+
+        /** 状態ごとの / の遷移先（無い場合は -1） */
+        final List<Integer> slashTargets = new ArrayList<Integer>();
+
+        /** 状態ごとの任意の文字の遷移先（無い場合は -1） */
+        final List<Integer> anyTargets = new ArrayList<Integer>();
+
+        /** 状態ごとの一致フラグ */
+        final List<Integer> accepts = new ArrayList<Integer>();
+
+        /**
+         * 状態数を取得します。
+         * @return 状態数
+         */
+        int size() {
+            return accepts.size();
+        }
+
+        /**
+         * 状態を追加します。
+         * @return 追加した状態
+         */
+        int newState() {
+            epsilons.add(-1);
+            literals.add(-1);
+            literalTargets.add(-1);
+            nonSlashTargets.add(-1);
+            slashTargets.add(-1);
+            anyTargets.add(-1);
+            accepts.add(0);
+            return accepts.size() - 1;
+        }
+
+        /**
+         * パターンを追加します。
+         * @param pattern パターン
+         * @param flag 一致した場合のフラグ
+         */
+        void addPattern(String pattern, int flag) {
+
+            int state = newState();
+            starts.add(state);
+            for (int i = 0; i < pattern.length();) {
+                int next = newState();
+                if (pattern.startsWith("**/", i)) {
+                    // 0 個以上の「ディレクトリ名/」
+                    int inName = newState();
+                    epsilons.set(state, next);
+                    nonSlashTargets.set(state, inName);
+                    nonSlashTargets.set(inName, inName);
+                    slashTargets.set(inName, state);
+                    i += 3;
+                } else if (pattern.startsWith("**", i)) {
+                    epsilons.set(state, next);
+                    anyTargets.set(state, state);
+                    i += 2;
+                } else if (pattern.charAt(i) == '*') {
+                    epsilons.set(state, next);
+                    nonSlashTargets.set(state, state);
+                    i++;
+                } else if (pattern.charAt(i) == '?') {
+                    nonSlashTargets.set(state, next);
+                    i++;
+                } else {
+                    literals.set(state, (int) pattern.charAt(i));
+                    literalTargets.set(state, next);
+                    i++;
+                }
+                state = next;
+            }
+            accepts.set(state, flag);
+        }
+
+        /**
+         * 状態の集合に ε 遷移で到達できる状態を追加します。
+         * @param set 状態の集合
+         */
+        void closure(BitSet set) {
+            int[] stack = new int[size()];
+            int top = 0;
+            for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1)) {
+                stack[top++] = s;
+            }
+            while (top > 0) {
+                int e = epsilons.get(stack[--top]);
+                if (e != -1 && !set.get(e)) {
+                    set.set(e);
+                    stack[top++] = e;
+                }
+            }
+        }
+
+        /**
+         * 状態の集合から文字クラスの文字で遷移した状態の集合を取得します。
+         * @param from 遷移元の状態の集合
+         * @param cls 文字クラス
+         * @param c 文字クラスを代表する文字
+         * @return 遷移先の状態の集合（ε 閉包）
+         */
+        BitSet step(BitSet from, int cls, char c) {
+            BitSet to = new BitSet();
+            for (int s = from.nextSetBit(0); s >= 0; s = from.nextSetBit(s + 1)) {
+                if (cls != OTHER_CLASS && literals.get(s) == c) {
+                    to.set(literalTargets.get(s));
+                }
+                if (cls != SLASH_CLASS && nonSlashTargets.get(s) != -1) {
+                    to.set(nonSlashTargets.get(s));
+                }
+                if (cls == SLASH_CLASS && slashTargets.get(s) != -1) {
+                    to.set(slashTargets.get(s));
+                }
+                if (anyTargets.get(s) != -1) {
+                    to.set(anyTargets.get(s));
+                }
+            }
+            closure(to);
+            return to;
+        }
+    }
+}
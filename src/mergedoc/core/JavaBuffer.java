@@ -8,6 +8,10 @@ package mergedoc.core;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,6 +20,13 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * Java ソース出力バッファです。
+ * <p>
+ * ブロックコメントの走査とシグネチャの取得は先頭から順に行い、ローカライズ
+ * されたブロックコメントの構築はコメントごとに独立しているため、
+ * {@link #addLocalizedComment(Signature, Comment)} で登録しておき
+ * {@link #buildLocalizedComments(ForkJoinPool)} でまとめて並行して構築する
+ * こともできます。出力は {@link #finishToString()} で元のコメントの位置に
+ * 順に組み立てます。
  * @author Shinji Kashihara
  */
 public class JavaBuffer {
@@ -23,6 +34,9 @@ public class JavaBuffer {
     /** ロガー */
     private static final Log log = LogFactory.getLog(JavaBuffer.class);
 
+    /** イベント */
+    private static final MergeEvents events = MergeEvents.getInstance();
+
     /** クラス種類（class|interface|@interface|enum） */
     private String classKind;
 
@@ -38,8 +52,45 @@ public class JavaBuffer {
     /** ブロックコメントのマッチャー */
     private final Matcher commentMatcher;
 
-    /** 出力バッファ */
-    private final StringBuffer outputBuffer = new StringBuffer();
+    /** 並行して構築する場合に 1 つのタスクで構築するコメント数 */
+    private static final int BUILD_BATCH_SIZE = 4;
+
+    /** 置換するブロックコメント */
+    private static class Replacement {
+
+        /** 元のブロックコメントの開始位置 */
+        final int start;
+
+        /** 元のブロックコメントの終了位置 */
+        final int end;
+
+        /** 元のブロックコメント */
+        final String sourceComment;
+
+        /** シグネチャ */
+        final Signature sig;
+
+        /** ローカライズされたブロックコメント */
+        final Comment comment;
+
+        /** 置換後の文字列。構築前は null。 */
+        String text;
+
+        Replacement(int start, int end, String sourceComment, Signature sig, Comment comment, String text) {
+            this.start = start;
+            this.end = end;
+            this.sourceComment = sourceComment;
+            this.sig = sig;
+            this.comment = comment;
+            this.text = text;
+        }
+    }
+
+    /** 置換するブロックコメントのリスト（出現順） */
+    private final List<Replacement> replacements = new ArrayList<Replacement>();
+
+    /** コメントの構築に要した時間の合計（ナノ秒） */
+    private final AtomicLong buildTime = new AtomicLong();
 
     /** クラス名と終了位置を保持するクラス */
     private static class ClassBlock {
@@ -245,11 +296,14 @@ public class JavaBuffer {
      * ある場合は現在位置をブロックコメントに移動します。
      * ブロックコメントが連続している場合は最後のブロックコメントが有効になります。
      * @return 次のブロックコメントがある場合は true
+     * @throws CancellationException 処理中のスレッドが割り込まれた場合
      */
     public boolean nextComment() {
 
         while (commentMatcher.find()) {
 
+            WorkingState.checkInterrupted();
+
             // 下記のようなコメントは無視して次へ
             // /*******************/
             // JDK1.4 java.io.ObjectStreamConstants とか
@@ -261,7 +315,7 @@ public class JavaBuffer {
             // ダミーコメントの場合は削除して次へ
             if (sourceComment.contains(DUMMY_COMMENT)) {
                 getSignature(); //クラススタック操作のため呼び出す
-                commentMatcher.appendReplacement(outputBuffer, "");
+                replacements.add(new Replacement(commentMatcher.start(), commentMatcher.end(), sourceComment, null, null, ""));
                 continue;
             }
 
@@ -441,29 +495,142 @@ public class JavaBuffer {
         if (comment == null) {
             return;
         }
-        String srcComment = getSourceComment();
-        comment.setSourceBody(srcComment);
-        String docComment = comment.buildComment();
+        addLocalizedComment(sig, comment);
+        build(replacements.get(replacements.size() - 1));
+    }
+
+    /**
+     * 現在位置にローカライズされたブロックコメントを構築せずに登録します。
+     * 登録したコメントは {@link #buildLocalizedComments(ForkJoinPool)} または
+     * {@link #finishToString()} で構築します。
+     * 指定されたブロックコメントが null の場合は無視します。
+     * @param sig シグネチャ
+     * @param comment ローカライズされたブロックコメント
+     */
+    public void addLocalizedComment(Signature sig, Comment comment) {
+
+        if (comment == null) {
+            return;
+        }
+        replacements.add(new Replacement(commentMatcher.start(), commentMatcher.end(), getSourceComment(), sig, comment, null));
+    }
+
+    /**
+     * 登録済みで未構築のローカライズされたブロックコメントを構築します。
+     * @param pool 並行して構築する場合の Fork/Join プール。null の場合は現在のスレッドで構築します。
+     * @throws CancellationException 処理中のスレッドが割り込まれた場合
+     */
+    public void buildLocalizedComments(ForkJoinPool pool) {
+
+        List<Replacement> targets = new ArrayList<Replacement>();
+        for (Replacement r : replacements) {
+            if (r.text == null) {
+                targets.add(r);
+            }
+        }
+        if (pool == null || targets.size() <= BUILD_BATCH_SIZE) {
+            for (Replacement r : targets) {
+                WorkingState.checkInterrupted();
+                build(r);
+            }
+        } else {
+            pool.invoke(new BuildTask(targets, 0, targets.size(), Thread.currentThread()));
+        }
+    }
+
+    /**
+     * ローカライズされたブロックコメントを並行して構築するタスクです。
+     * 呼び出し元のスレッドが割り込まれた場合は構築を打ち切ります。
+     */
+    private class BuildTask extends RecursiveAction {
+
+        /** 構築するコメントのリスト */
+        private final List<Replacement> targets;
+
+        /** 開始インデックス */
+        private final int from;
+
+        /** 終了インデックス（この位置を含まない） */
+        private final int to;
+
+        /** 呼び出し元のスレッド */
+        private final Thread caller;
+
+        BuildTask(List<Replacement> targets, int from, int to, Thread caller) {
+            this.targets = targets;
+            this.from = from;
+            this.to = to;
+            this.caller = caller;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BUILD_BATCH_SIZE) {
+                for (int i = from; i < to; i++) {
+                    if (caller.isInterrupted()) {
+                        throw new CancellationException("処理がキャンセルされました。");
+                    }
+                    build(targets.get(i));
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BuildTask(targets, from, mid, caller), new BuildTask(targets, mid, to, caller));
+            }
+        }
+    }
+
+    /**
+     * ローカライズされたブロックコメントを構築します。複数のスレッドから呼び出されます。
+     * 構築したコメントが空の場合は元のブロックコメントのままにします。
+     * @param r 置換するブロックコメント
+     */
+    private void build(Replacement r) {
+
+        long start = System.nanoTime();
+        Object event = events.beginCommentBuild();
+        r.comment.setSourceBody(r.sourceComment);
+        String docComment = r.comment.buildComment();
+        if (event != null) {
+            events.commitCommentResize(event, String.valueOf(r.sig), r.comment.getResizeTime(), r.comment.isResizeFailed());
+        }
 
         // debug setLocalizedComment シグネチャ、コメントの確認
-        //log.debug("シグネチャ: " + sig);
-        //log.debug("英語 Java ソースコメント:\n" + srcComment);
+        //log.debug("シグネチャ: " + r.sig);
+        //log.debug("英語 Java ソースコメント:\n" + r.sourceComment);
         //log.debug("日本語 API ドキュメントコメント:\n" + docComment + "\n--------------");
 
         if (docComment == null || docComment.length() == 0) {
-            return;
+            r.text = r.sourceComment;
+        } else {
+            r.text = docComment;
         }
-        docComment = FastStringUtils.quoteReplacement(docComment);
-        commentMatcher.appendReplacement(outputBuffer, docComment);
+        buildTime.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * ローカライズされたブロックコメントの構築に要した時間の合計を取得します。
+     * @return 時間（ナノ秒）
+     */
+    long getBuildTime() {
+        return buildTime.get();
     }
 
     /**
      * 処理を終了し置換後の Java ソース文字列を取得します。
+     * 未構築のローカライズされたブロックコメントはここで構築します。
      * @return ブロックコメント置換後の Java ソース文字列
      */
     public String finishToString() {
-        commentMatcher.appendTail(outputBuffer);
-        String str = outputBuffer.toString();
-        return str;
+        StringBuilder sb = new StringBuilder(source.length() + source.length() / 2);
+        int pos = 0;
+        for (Replacement r : replacements) {
+            if (r.text == null) {
+                build(r);
+            }
+            sb.append(source, pos, r.start).append(r.text);
+            pos = r.end;
+        }
+        sb.append(source, pos, source.length());
+        return sb.toString();
     }
 }
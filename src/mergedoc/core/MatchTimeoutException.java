@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+/**
+ * 正規表現のマッチ処理が制限時間を超えた場合にスローされる例外です。
+ * @author Shinji Kashihara
+ */
+public class MatchTimeoutException extends IllegalStateException {
+
+    /** 制限時間（ミリ秒） */
+    private final long timeout;
+
+    /**
+     * コンストラクタです。
+     * @param message メッセージ
+     * @param timeout 制限時間（ミリ秒）
+     */
+    public MatchTimeoutException(String message, long timeout) {
+        super(message);
+        this.timeout = timeout;
+    }
+
+    /**
+     * 制限時間を取得します。
+     * @return 制限時間（ミリ秒）
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+}
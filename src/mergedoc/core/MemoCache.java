@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文字列の変換結果のメモキャッシュです。
+ * <p>
+ * オーバーロードされたメソッドやサブクラスの API ドキュメントには同じ HTML
+ * 断片（例えば同じ throws の説明や同じリンク先）が繰り返し現れるため、変換前の
+ * 文字列をキーとして変換結果を保持し、2 回目以降の変換を 1 回の検索で済ませます。
+ * キーの文字列そのもので一致を判定するため、ハッシュ値が衝突しても誤った結果は
+ * 返しません。
+ * <p>
+ * 保持するエントリ数はシステムプロパティ {@value #SIZE_KEY} で指定でき（デフォルト
+ * 10000、0 でキャッシュしない）、上限を超えた場合は最も長く使用されていないもの
+ * から破棄します。繰り返し現れることが少ない長い文字列（{@value #MAX_KEY_LENGTH}
+ * 文字超）はキャッシュしません。ヒット数とミス数は JVM 全体の累積で記録します。
+ * 複数のスレッドから使用できます。
+ *
+ * @author Shinji Kashihara
+ */
+class MemoCache {
+
+    /** キャッシュのエントリ数の上限を指定するシステムプロパティのキー */
+    public static final String SIZE_KEY = "mergedoc.memocache.entries";
+
+    /** キャッシュするキーの最大文字数 */
+    static final int MAX_KEY_LENGTH = 2048;
+
+    /** エントリ数の上限 */
+    private static final int MAX_ENTRIES = Math.max(0, Integer.getInteger(SIZE_KEY, 10000));
+
+    /** 作成されたすべてのキャッシュ */
+    private static final List<MemoCache> instances = new CopyOnWriteArrayList<MemoCache>();
+
+    /** 表示名 */
+    private final String label;
+
+    /** キーと変換結果のテーブル（アクセス順） */
+    private final Map<String, String> table = new LinkedHashMap<String, String>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /** ヒット数 */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** ミス数 */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * コンストラクタです。
+     * @param label 表示名
+     */
+    MemoCache(String label) {
+        this.label = label;
+        instances.add(this);
+    }
+
+    /**
+     * キーに対応する変換結果を取得します。
+     * @param key キー
+     * @return 変換結果。キャッシュに無い場合は null。
+     */
+    String get(String key) {
+        if (MAX_ENTRIES == 0 || key.length() > MAX_KEY_LENGTH) {
+            return null;
+        }
+        String value;
+        synchronized (table) {
+            value = table.get(key);
+        }
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * キーに対応する変換結果を登録します。
+     * @param key キー
+     * @param value 変換結果
+     */
+    void put(String key, String value) {
+        if (MAX_ENTRIES == 0 || key.length() > MAX_KEY_LENGTH) {
+            return;
+        }
+        synchronized (table) {
+            table.put(key, value);
+        }
+    }
+
+    /**
+     * すべてのキャッシュのヒット率を表示用の文字列で取得します。
+     * 使用されていないキャッシュは含みません。
+     * @return 表示用の文字列（キャッシュごとに改行で始まる）
+     */
+    static String getStatsText() {
+        StringBuilder sb = new StringBuilder();
+        for (MemoCache cache : instances) {
+            long hit = cache.hits.get();
+            long lookup = hit + cache.misses.get();
+            if (lookup > 0) {
+                sb.append('\n').append(cache.label).append("キャッシュ（累積）: ヒット ").append(hit);
+                sb.append(" 件, ミス ").append(lookup - hit).append(" 件");
+                sb.append(" (ヒット率 ").append(String.format("%.1f", hit * 100.0 / lookup)).append("%)");
+            }
+        }
+        return sb.toString();
+    }
+}
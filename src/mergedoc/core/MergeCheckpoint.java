@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import mergedoc.MergeDocException;
+import mergedoc.xml.ConfigManager;
+import mergedoc.xml.ReplaceEntry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * マージ処理のチェックポイントです。
+ * <p>
+ * 作成途中の出力ファイル（.part）に書き込み済みの完了エントリ数と、その時点の
+ * 出力ファイルのオフセットを一定間隔でチェックポイントファイルに記録します。
+ * 完了エントリの一覧とセントラルディレクトリに相当する情報は作成途中の出力
+ * ファイルのローカルヘッダにあるため、チェックポイントファイルには件数のみを
+ * 記録します。マージ設定（入力ファイルの更新日時やサイズ、置換エントリなど）、
+ * クラス別置換定義ファイルと API ドキュメントの索引ファイルの更新日時とサイズ、
+ * プログラムのビルドの識別子のダイジェストも記録し、いずれかが異なる場合は
+ * 再開しません。
+ * <p>
+ * 記録間隔（秒）はシステムプロパティ {@value #INTERVAL_KEY} で指定できます。
+ * 0 以下の場合はチェックポイントを記録しません。
+ *
+ * @author Shinji Kashihara
+ */
+class MergeCheckpoint {
+
+    /** ロガー */
+    private static final Log log = LogFactory.getLog(MergeCheckpoint.class);
+
+    /** 記録間隔（秒）を指定するシステムプロパティのキー */
+    public static final String INTERVAL_KEY = "mergedoc.checkpoint.interval";
+
+    /** 記録間隔（ナノ秒）。0 以下の場合は記録しない。 */
+    private static final long INTERVAL = Long.getLong(INTERVAL_KEY, 30) * 1000000000L;
+
+    /** 更新日時とサイズをダイジェストに含める API ドキュメントの索引ファイル名 */
+    private static final String[] DOC_INDEX_FILE_NAMES = {
+        DocumentIndex.INDEX_FILE_NAME, "allclasses-index.html", "package-list", "element-list" };
+
+    /** チェックポイントファイルの拡張子 */
+    private static final String SUFFIX = ".checkpoint";
+
+    /** 入力ソースアーカイブファイル */
+    private final File inputArchive;
+
+    /** 作成途中の出力ファイル */
+    private final File partFile;
+
+    /** チェックポイントファイル */
+    private final File file;
+
+    /** マージ設定のダイジェスト */
+    private final String digest;
+
+    /** 前回記録した時刻（System#nanoTime の値） */
+    private long lastSaved = System.nanoTime();
+
+    /** 記録済みの場合は true */
+    private boolean saved;
+
+    /**
+     * コンストラクタです。
+     * @param partFile 作成途中の出力ファイル
+     * @param pref マージ設定
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     */
+    MergeCheckpoint(File partFile, Preference pref) throws MergeDocException {
+        this.inputArchive = pref.getInputArchive();
+        this.partFile = partFile;
+        this.file = new File(partFile.getPath() + SUFFIX);
+        this.digest = digest(pref);
+    }
+
+    /**
+     * マージ設定のダイジェストを作成します。
+     * @param pref マージ設定
+     * @return ダイジェストの 16 進文字列
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     */
+    private static String digest(Preference pref) throws MergeDocException {
+
+        File inFile = pref.getInputArchive().getAbsoluteFile();
+        StringBuilder sb = new StringBuilder();
+        sb.append(inFile).append('\n');
+        sb.append(inFile.length()).append('\n');
+        sb.append(inFile.lastModified()).append('\n');
+        sb.append(pref.getDocDirectory().getAbsolutePath()).append('\n');
+        sb.append(pref.getDocEncoding()).append('\n');
+        sb.append(pref.getInputEncoding()).append('\n');
+        sb.append(pref.getOutputEncoding()).append('\n');
+        for (ReplaceEntry entry : pref.getGlobalEntries()) {
+            sb.append(entry.getTarget()).append(entry);
+        }
+        sb.append('\n').append(Arrays.toString(pref.getIncludePatterns()));
+        sb.append('\n').append(Arrays.toString(pref.getExcludePatterns()));
+
+        // クラス別置換定義ファイル
+        appendFileStamps(sb, ConfigManager.getInstance().getFile(""), "", ".xml");
+
+        // API ドキュメントの索引ファイルと索引のクラス数
+        for (String name : DOC_INDEX_FILE_NAMES) {
+            File docFile = new File(pref.getDocDirectory(), name);
+            sb.append('\n').append(name).append(' ').append(docFile.lastModified()).append(' ').append(docFile.length());
+        }
+        DocumentIndex index = DocumentIndex.get(pref.getDocDirectory(), pref.getDocEncoding());
+        sb.append('\n').append(index == null ? -1 : index.size());
+
+        // プログラムのビルド
+        sb.append('\n');
+        try {
+            sb.append(BuildIdentity.toHexString());
+        } catch (IOException e) {
+            // 識別できない場合は他の実行と一致しない値にする
+            log.warn("プログラムのビルドを識別できないため、中断したマージは再開できません。", e);
+            sb.append(System.nanoTime());
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(sb.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * ディレクトリ内の指定した拡張子のファイルの相対パス、更新日時、サイズを
+     * 名前の順に再帰的に追加します。
+     * @param sb 追加先
+     * @param dir ディレクトリ
+     * @param path ルートからの相対パス
+     * @param suffix 拡張子
+     */
+    private static void appendFileStamps(StringBuilder sb, File dir, String path, String suffix) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            File file = new File(dir, name);
+            if (file.isDirectory()) {
+                appendFileStamps(sb, file, path + name + "/", suffix);
+            } else if (name.endsWith(suffix)) {
+                sb.append('\n').append(path).append(name);
+                sb.append(' ').append(file.lastModified()).append(' ').append(file.length());
+            }
+        }
+    }
+
+    /**
+     * 記録間隔が経過しているか判定します。
+     * @return 記録する場合は true
+     */
+    boolean isDue() {
+        return INTERVAL > 0 && System.nanoTime() - lastSaved >= INTERVAL;
+    }
+
+    /**
+     * チェックポイントを記録します。
+     * 完了したエントリがすべて作成途中の出力ファイルに書き込まれた状態で呼び出します。
+     * @param entryCount 完了したエントリ数
+     * @param offset 完了したエントリの終了位置となる出力ファイルのオフセット
+     * @throws IOException 入出力例外が発生した場合
+     */
+    void save(int entryCount, long offset) throws IOException {
+
+        Properties props = new Properties();
+        props.setProperty("digest", digest);
+        props.setProperty("entries", String.valueOf(entryCount));
+        props.setProperty("offset", String.valueOf(offset));
+
+        // 書き込み途中で異常終了しても前回のチェックポイントが残るように置き換える
+        File tmpFile = new File(file.getPath() + ".tmp");
+        OutputStream os = new FileOutputStream(tmpFile);
+        try {
+            props.store(os, "MergeDoc checkpoint");
+        } finally {
+            os.close();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        lastSaved = System.nanoTime();
+        saved = true;
+    }
+
+    /**
+     * チェックポイントを記録済みか判定します。
+     * @return 記録済みの場合は true
+     */
+    boolean isSaved() {
+        return saved;
+    }
+
+    /**
+     * 前回のチェックポイントを読み込み、再開可能なエントリ数を取得します。
+     * マージ設定が異なる場合や、作成途中の出力ファイルのエントリが入力ファイルの
+     * エントリと一致しない場合、CRC が一致しない場合は再開できません。
+     * @return 再開可能なエントリ数。再開できない場合は 0。
+     */
+    int load() {
+
+        if (!file.exists() || !partFile.exists()) {
+            return 0;
+        }
+        Properties props = new Properties();
+        try {
+            InputStream is = new FileInputStream(file);
+            try {
+                props.load(is);
+            } finally {
+                is.close();
+            }
+            if (!digest.equals(props.getProperty("digest"))) {
+                log.info("マージ設定が変更されているため、前回の続きからは再開しません。");
+                return 0;
+            }
+            int entryCount = Integer.parseInt(props.getProperty("entries"));
+            long offset = Long.parseLong(props.getProperty("offset"));
+            if (partFile.length() < offset) {
+                log.warn("作成途中の出力ファイルがチェックポイントより短いため、前回の続きからは再開しません。");
+                return 0;
+            }
+            return verify(entryCount) ? entryCount : 0;
+        } catch (Exception e) {
+            log.warn("チェックポイントを読み込めないため、前回の続きからは再開しません。", e);
+            return 0;
+        }
+    }
+
+    /**
+     * 作成途中の出力ファイルの先頭から指定数のエントリを展開し、エントリ名が
+     * 入力ファイルのエントリと順に一致し、CRC が正しいことを確認します。
+     * @param entryCount エントリ数
+     * @return 確認できた場合は true
+     * @throws IOException 入出力例外が発生した場合、CRC が一致しない場合
+     */
+    private boolean verify(int entryCount) throws IOException {
+
+        ArchiveInputStream in = ArchiveInputStream.create(inputArchive);
+        ZipInputStream part = new ZipInputStream(new BufferedInputStream(new FileInputStream(partFile)));
+        byte[] buf = new byte[4096];
+        try {
+            for (int i = 0; i < entryCount; i++) {
+                ArchiveInputStream.Entry inEntry = in.getNextEntry();
+                ZipEntry partEntry = part.getNextEntry();
+                if (inEntry == null || partEntry == null || !inEntry.getName().equals(partEntry.getName())) {
+                    log.warn("作成途中の出力ファイルのエントリが入力ファイルと一致しないため、前回の続きからは再開しません。");
+                    return false;
+                }
+                // 最後まで読み込んだ時点で CRC が検査される
+                while (part.read(buf) > 0) {
+                    ;
+                }
+            }
+            return true;
+        } finally {
+            in.close();
+            part.close();
+        }
+    }
+
+    /**
+     * チェックポイントファイルを削除します。
+     */
+    void delete() {
+        if (file.exists() && !file.delete()) {
+            log.warn("チェックポイントファイルを削除できませんでした。" + file);
+        }
+        saved = false;
+    }
+}
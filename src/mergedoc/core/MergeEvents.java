@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * マージ処理のイベントを記録するファサードです。
+ * <p>
+ * このクラス自体は何も記録しません。Java 11 以降の JVM で実行し、JFR
+ * イベントの実装クラス（mergedoc.jfr.JfrMergeEvents、src-jfr からビルド）が
+ * クラスパスにある場合は、そのインスタンスが {@link #getInstance()} で返され、
+ * 各イベントが Java Flight Recorder のカスタムイベントとして記録されます。
+ * 記録されていない場合のイベントのコストはほぼありません。
+ * システムプロパティ {@value #ENABLED_KEY} に false を指定すると常に
+ * 何も記録しません。
+ * <p>
+ * begin メソッドが返すイベントを同じ種類の commit メソッドに渡して使用します。
+ * begin メソッドは記録が不要な場合に null を返すことがあり、commit
+ * メソッドは null を無視します。
+ *
+ * @author Shinji Kashihara
+ */
+public class MergeEvents {
+
+    /** ロガー */
+    private static final Log log = LogFactory.getLog(MergeEvents.class);
+
+    /** イベントの記録を有効にするか指定するシステムプロパティのキー */
+    public static final String ENABLED_KEY = "mergedoc.jfr";
+
+    /** JFR イベントの実装クラス名 */
+    private static final String JFR_CLASS_NAME = "mergedoc.jfr.JfrMergeEvents";
+
+    /** シングルトンインスタンス */
+    private static final MergeEvents instance = create();
+
+    /**
+     * コンストラクタです。
+     */
+    protected MergeEvents() {
+    }
+
+    /**
+     * インスタンスを作成します。
+     * @return インスタンス
+     */
+    private static MergeEvents create() {
+
+        if (!Boolean.parseBoolean(System.getProperty(ENABLED_KEY, "true"))) {
+            return new MergeEvents();
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException e) {
+            // JFR API の無い JVM
+            return new MergeEvents();
+        }
+        try {
+            return (MergeEvents) Class.forName(JFR_CLASS_NAME).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            // JFR イベントの実装がビルドされていない
+            return new MergeEvents();
+        } catch (InvocationTargetException e) {
+            log.warn("JFR イベントを初期化できませんでした。イベントは記録されません。", e.getCause());
+            return new MergeEvents();
+        } catch (ReflectiveOperationException e) {
+            log.warn("JFR イベントを初期化できませんでした。イベントは記録されません。", e);
+            return new MergeEvents();
+        } catch (LinkageError e) {
+            log.warn("JFR イベントを初期化できませんでした。イベントは記録されません。", e);
+            return new MergeEvents();
+        } catch (RuntimeException e) {
+            log.warn("JFR イベントを初期化できませんでした。イベントは記録されません。", e);
+            return new MergeEvents();
+        }
+    }
+
+    /**
+     * インスタンスを取得します。
+     * @return インスタンス
+     */
+    public static MergeEvents getInstance() {
+        return instance;
+    }
+
+    /**
+     * アーカイブのエントリの処理を開始します。
+     * @return イベント。記録しない場合は null。
+     */
+    public Object beginEntry() {
+        return null;
+    }
+
+    /**
+     * アーカイブのエントリの処理を終了します。
+     * @param event {@link #beginEntry()} が返したイベント
+     * @param entryName エントリ名
+     * @param inputBytes 入力の展開後のバイト数
+     * @param outputBytes 出力の圧縮前のバイト数
+     */
+    public void commitEntry(Object event, String entryName, long inputBytes, long outputBytes) {
+    }
+
+    /**
+     * クラスのマージを開始します。
+     * @return イベント。記録しない場合は null。
+     */
+    public Object beginMerge() {
+        return null;
+    }
+
+    /**
+     * クラスのマージを終了します。
+     * @param event {@link #beginMerge()} が返したイベント
+     * @param className クラス名
+     * @param sourceLength Java ソースの文字数
+     * @param matched API ドキュメントに対応するコメントがあったコメント数
+     * @param unmatched API ドキュメントに対応するコメントが無かったコメント数
+     */
+    public void commitMerge(Object event, String className, int sourceLength, int matched, int unmatched) {
+    }
+
+    /**
+     * API ドキュメントファイルのロードを開始します。
+     * @return イベント。記録しない場合は null。
+     */
+    public Object beginDocLoad() {
+        return null;
+    }
+
+    /**
+     * API ドキュメントファイルのロードを終了します。
+     * @param event {@link #beginDocLoad()} が返したイベント
+     * @param className クラス名
+     * @param htmlLength HTML の文字数
+     * @param comments 解析したコメント数
+     */
+    public void commitDocLoad(Object event, String className, int htmlLength, int comments) {
+    }
+
+    /**
+     * コメントのビルドを開始します。
+     * @return イベント。記録しない場合は null。
+     */
+    public Object beginCommentBuild() {
+        return null;
+    }
+
+    /**
+     * コメントのビルドを終了します。行数調整を行った場合のみ記録されます。
+     * @param event {@link #beginCommentBuild()} が返したイベント
+     * @param signature シグネチャ
+     * @param resizeNanos 行数調整に要した時間（ナノ秒）
+     * @param failed 行数調整が出来ず英語のコメントを残した場合は true
+     */
+    public void commitCommentResize(Object event, String signature, long resizeNanos, boolean failed) {
+    }
+
+    /**
+     * 置換エントリの適用を開始します。
+     * @return イベント。記録しない場合は null。
+     */
+    public Object beginReplace() {
+        return null;
+    }
+
+    /**
+     * 置換エントリの適用を終了します。
+     * @param event {@link #beginReplace()} が返したイベント
+     * @param className クラス名
+     * @param rule 置換エントリの説明
+     * @param ruleCount まとめて適用した置換エントリの数
+     * @param inputLength 置換前の文字数
+     * @param outputLength 置換後の文字数
+     */
+    public void commitReplace(Object event, String className, String rule, int ruleCount, int inputLength, int outputLength) {
+    }
+}
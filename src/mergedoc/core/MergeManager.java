@@ -5,28 +5,52 @@
  */
 package mergedoc.core;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.xml.parsers.SAXParser;
 
 import mergedoc.MergeDocException;
+import mergedoc.core.WorkingState.Counter;
+import mergedoc.core.WorkingState.Stage;
 import mergedoc.xml.ConfigManager;
+import mergedoc.xml.ReplaceEngine;
 import mergedoc.xml.ReplaceEntry;
 import mergedoc.xml.ReplaceHandler;
 
@@ -43,6 +67,39 @@ public class MergeManager {
     /** ロガー */
     private static final Log log = LogFactory.getLog(MergeManager.class);
 
+    /** イベント */
+    private static final MergeEvents events = MergeEvents.getInstance();
+
+    /** 作成途中の出力ソースアーカイブファイルの拡張子 */
+    public static final String PART_SUFFIX = ".part";
+
+    /** 再開用に退避した前回の一時ファイルの拡張子 */
+    private static final String RESUME_SUFFIX = ".resume";
+
+    /** バッチ処理の同時実行数を指定するシステムプロパティのキー */
+    public static final String BATCH_THREADS_KEY = "mergedoc.batch.threads";
+
+    /** アーカイブ内のエントリを並行してマージするスレッド数を指定するシステムプロパティのキー */
+    public static final String ENTRY_THREADS_KEY = "mergedoc.entry.threads";
+
+    /**
+     * エントリの処理方法です。
+     */
+    private static enum EntryKind {
+
+        /** Java ソース以外のためそのまま出力 */
+        COPY,
+
+        /** 対象パスに一致しないか除外パスに一致したためそのまま出力 */
+        EXCLUDE,
+
+        /** API ドキュメントが無いためそのまま出力 */
+        PASS_THROUGH,
+
+        /** API ドキュメントとマージ */
+        MERGE
+    }
+
     /** マージ設定 */
     private Preference pref;
 
@@ -52,12 +109,124 @@ public class MergeManager {
     /** コピー用のバイトバッファ */
     private byte[] byteBuffer = new byte[4096];
 
-    /** エントリー数取得 Executor */
-    private ExecutorService entrySizeGetExecutor = Executors.newSingleThreadExecutor();
+    /** 前回 {@link #getGlobalEngine(ReplaceEntry[])} で作成した置換エンジンの置換エントリ */
+    private static List<ReplaceEntry> lastGlobalEntries;
+
+    /** 前回 {@link #getGlobalEngine(ReplaceEntry[])} で作成した置換エンジン */
+    private static ReplaceEngine lastGlobalEngine;
+
+    /**
+     * エントリー数取得 Executor。
+     * 同じ JVM で繰り返しマージする場合にスレッドが残らないように、待機中のスレッドは終了させる。
+     */
+    private ExecutorService entrySizeGetExecutor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 
     /** エントリー数 Future */
     private Future<Integer> entrySizeFuture;
 
+    /** エントリ別処理レポート */
+    private EntryCostReport costReport;
+
+    /** チェックポイント */
+    private MergeCheckpoint checkpoint;
+
+    /** 作成途中の出力ファイルのチャネル（チェックポイントのオフセット取得用） */
+    private FileChannel partChannel;
+
+    /** バッチ処理で共有するグローバル置換定義の置換エンジン。単独の処理では null。 */
+    private ReplaceEngine sharedGlobalEngine;
+
+    /** バッチ処理で共有する API ドキュメントの索引。単独の処理では null。 */
+    private DocumentIndex sharedDocumentIndex;
+
+    /** アーカイブ内のエントリを並行してマージするスレッド数 */
+    private int entryThreads = Math.max(1, Integer.getInteger(ENTRY_THREADS_KEY, Runtime.getRuntime().availableProcessors()));
+
+    /** グローバル置換定義の置換エンジン */
+    private ReplaceEngine globalEngine;
+
+    /** 対象パスと除外パスのフィルタ */
+    private GlobFilter pathFilter;
+
+    /** API ドキュメントの索引。API ドキュメントが無い Java ソースをそのまま出力しない場合は null。 */
+    private DocumentIndex documentIndex;
+
+    /** エントリごとの処理時間の履歴 */
+    private EntryTimings timings;
+
+    /**
+     * 入力と出力のソースアーカイブファイルのみを置き換えたマージ設定です。
+     * バッチ処理でアーカイブごとに使用します。
+     */
+    private static class ArchivePreference implements Preference {
+
+        /** 共通のマージ設定 */
+        private final Preference pref;
+
+        /** 入力ソースアーカイブファイル */
+        private final File inputArchive;
+
+        /** 出力ソースアーカイブファイル */
+        private final File outputArchive;
+
+        /**
+         * コンストラクタです。
+         * @param pref 共通のマージ設定
+         * @param inputArchive 入力ソースアーカイブファイル
+         * @param outputArchive 出力ソースアーカイブファイル
+         */
+        ArchivePreference(Preference pref, File inputArchive, File outputArchive) {
+            this.pref = pref;
+            this.inputArchive = inputArchive;
+            this.outputArchive = outputArchive;
+        }
+
+        @Override
+        public File getDocDirectory() {
+            return pref.getDocDirectory();
+        }
+
+        @Override
+        public File getInputArchive() {
+            return inputArchive;
+        }
+
+        @Override
+        public File getOutputArchive() {
+            return outputArchive;
+        }
+
+        @Override
+        public String getDocEncoding() {
+            return pref.getDocEncoding();
+        }
+
+        @Override
+        public String getInputEncoding() {
+            return pref.getInputEncoding();
+        }
+
+        @Override
+        public String getOutputEncoding() {
+            return pref.getOutputEncoding();
+        }
+
+        @Override
+        public ReplaceEntry[] getGlobalEntries() {
+            return pref.getGlobalEntries();
+        }
+
+        @Override
+        public String[] getIncludePatterns() {
+            return pref.getIncludePatterns();
+        }
+
+        @Override
+        public String[] getExcludePatterns() {
+            return pref.getExcludePatterns();
+        }
+    }
+
     /**
      * コンストラクタです。
      */
@@ -149,6 +318,23 @@ public class MergeManager {
 
     /**
      * 処理を実行します。<br>
+     * 出力ソースアーカイブファイルは同じディレクトリの一時ファイル（拡張子
+     * {@value #PART_SUFFIX}）に作成し、正常に終了した場合のみ置き換えます。
+     * キャンセルされた場合や例外が発生した場合、既存の出力ソースアーカイブ
+     * ファイルは変更しません。
+     * <p>
+     * 処理中は一定間隔でチェックポイント（{@link MergeCheckpoint}）を記録し、
+     * 記録後に中断した場合は一時ファイルを残します。次回の実行時にマージ設定が
+     * 同じであれば、一時ファイルの完了済みのエントリを検証して複製し、続きの
+     * エントリからマージを再開します。チェックポイントを記録する前に中断した
+     * 場合は一時ファイルを削除します。
+     * <p>
+     * 入力ソースアーカイブファイルが ZIP 形式の場合は、アーカイブ内の Java ソースを
+     * 複数のスレッド（システムプロパティ {@value #ENTRY_THREADS_KEY}、デフォルトは
+     * プロセッサ数）で並行してマージします（{@link EntryScheduler}）。処理時間の
+     * 見積もりには前回までのエントリごとの処理時間（{@link EntryTimings}）と
+     * セントラルディレクトリのエントリのサイズを使用します。出力のエントリの順序は
+     * 入力と同じです。
      * @throws MergeDocException コンフィグ情報の取得に失敗した場合
      * @throws SAXException SAX パース例外が発生した場合
      * @throws IOException 入出力例外が発生した場合
@@ -158,46 +344,440 @@ public class MergeManager {
         if (workingState.isCanceled()) {
             return;
         }
+        File outFile = pref.getOutputArchive();
+        File partFile = new File(outFile.getPath() + PART_SUFFIX);
+        File resumeFile = new File(partFile.getPath() + RESUME_SUFFIX);
         ArchiveInputStream in = null;
+        ZipFile zipFile = null;
         ZipOutputStream out = null;
+        boolean completed = false;
 
+        // 前回中断した一時ファイルがあれば再開用に退避
+        checkpoint = new MergeCheckpoint(partFile, pref);
+        int resumeCount = checkpoint.load();
+        if (resumeCount > 0) {
+            log.info("前回中断したマージを " + resumeCount + " エントリ目から再開します。");
+            Files.move(partFile.toPath(), resumeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            checkpoint.delete();
+        }
+
+        workingState.setWorkerThread(Thread.currentThread());
         try {
             in = ArchiveInputStream.create(pref.getInputArchive());
+            String inName = pref.getInputArchive().getName();
+            if (entryThreads > 1 && (inName.endsWith(".zip") || inName.endsWith(".jar"))) {
+                zipFile = new ZipFile(pref.getInputArchive());
+            }
+            prepare();
+            timings = EntryTimings.load(pref.getOutputArchive());
 
-            out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(pref.getOutputArchive())));
+            FileOutputStream partStream = new FileOutputStream(partFile);
+            partChannel = partStream.getChannel();
+            out = new ZipOutputStream(new BufferedOutputStream(partStream));
             out.setLevel(Deflater.BEST_SPEED);
 
+            costReport = new EntryCostReport();
             long start = System.currentTimeMillis();
-            merge(in, out);
+            try {
+                int entryCount = 0;
+                if (resumeCount > 0) {
+                    entryCount = copyResumedEntries(in, out, resumeFile, resumeCount);
+                }
+                if (zipFile != null) {
+                    mergeParallel(zipFile, out, entryCount);
+                } else {
+                    merge(in, out, entryCount);
+                }
+            } catch (CancellationException e) {
+                workingState.cancel();
+            }
             long end = System.currentTimeMillis();
             workingState.setWorkTime((end - start) / 1000);
+            if (workingState.isCanceled()) {
+                return;
+            }
+
+            // 一時ファイルを出力ソースアーカイブファイルに置き換え
+            out.close();
+            out = null;
+            Files.move(partFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            completed = true;
+            checkpoint.delete();
+            resumeFile.delete();
+
+            // エントリ別処理レポートをキャッシュディレクトリに出力
+            File reportFile = getReportFile();
+            try {
+                if (!CacheFiles.prepare(reportFile)) {
+                    throw new IOException("ディレクトリを作成できません。");
+                }
+                costReport.write(reportFile);
+            } catch (IOException e) {
+                log.warn(reportFile + " にエントリ別処理レポートを書き込めませんでした。", e);
+            }
+            timings.save();
+            CommentStore.getInstance().save();
 
         } finally {
 
+            workingState.setWorkerThread(null);
+            if (workingState.isCanceled()) {
+                // キャンセル時の割り込み状態を解除
+                Thread.interrupted();
+            }
             if (in != null) {
                 in.close();
             }
+            if (zipFile != null) {
+                zipFile.close();
+            }
             if (out != null) {
-                out.close();
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // 途中で中断した場合はエントリが無いなどの理由で失敗することがある
+                    if (completed) {
+                        throw e;
+                    }
+                }
+            }
+            if (!completed) {
+                // 元の例外を隠さないように、失敗した場合は警告のみ出力する
+                try {
+                    rollback(partFile, resumeFile);
+                } catch (IOException e) {
+                    log.warn("作成途中の出力ファイルを元に戻せませんでした。" + partFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 複数のソースアーカイブファイルをまとめてマージします。<br>
+     * 入力と出力のソースアーカイブファイル以外のマージ設定はすべてのアーカイブで
+     * 共通とし、グローバル置換定義の置換エンジンを共有します。解析済みの API
+     * ドキュメントは {@link APIDocumentCache} で共有されます。アーカイブは同時実行数（システムプロパティ
+     * {@value #BATCH_THREADS_KEY}、デフォルトはプロセッサ数）のスレッドで並行して
+     * 処理されます。各アーカイブの処理内容は {@link #execute()} と同じです。
+     * <p>
+     * あるアーカイブの処理に失敗しても他のアーカイブの処理は続行し、すべての処理の
+     * 終了後に例外をスローします。呼び出したスレッドが割り込まれた場合は、すべての
+     * アーカイブの処理をキャンセルし、処理の終了を待ってから例外をスローします。
+     * @param pref 共通のマージ設定。入力と出力のソースアーカイブファイルは使用しません。
+     * @param archives 入力ソースアーカイブファイルをキー、出力ソースアーカイブファイルを
+     *        値としたマップ。マップの順に処理を開始します。
+     * @param changeListener 進捗監視用のリスナ。すべてのアーカイブで共有され、
+     *        複数のスレッドから呼び出されます。null の場合は通知しません。
+     * @return アーカイブごとのマージマネージャ（マップの順）
+     * @throws MergeDocException マージ不可能なアーカイブがある場合、処理に失敗したアーカイブがある場合
+     * @throws InterruptedException 現在のスレッドで割り込みが発生した場合
+     */
+    public static List<MergeManager> executeBatch(Preference pref, Map<File, File> archives, ChangeListener changeListener)
+            throws MergeDocException, InterruptedException {
+
+        if (changeListener == null) {
+            changeListener = new ChangeListener() {
+                @Override
+                public void stateChanged(ChangeEvent e) {
+                }
+            };
+        }
+        Set<File> outFiles = new HashSet<File>();
+        for (File outFile : archives.values()) {
+            if (!outFiles.add(outFile.getAbsoluteFile())) {
+                throw new MergeDocException("出力ソースアーカイブファイルが重複しています。\n" + outFile);
+            }
+        }
+        List<MergeManager> managers = new ArrayList<MergeManager>();
+        if (archives.isEmpty()) {
+            return managers;
+        }
+        ReplaceEngine globalEngine = getGlobalEngine(pref.getGlobalEntries());
+        DocumentIndex documentIndex = DocumentIndex.get(pref.getDocDirectory(), pref.getDocEncoding());
+        ExecutorService executor = null;
+        try {
+            for (Map.Entry<File, File> archive : archives.entrySet()) {
+                MergeManager manager = new MergeManager();
+                manager.setPreference(new ArchivePreference(pref, archive.getKey(), archive.getValue()));
+                manager.setChangeListener(changeListener);
+                manager.sharedGlobalEngine = globalEngine;
+                manager.sharedDocumentIndex = documentIndex;
+                managers.add(manager);
+            }
+            for (MergeManager manager : managers) {
+                try {
+                    manager.validate();
+                } catch (MergeDocException e) {
+                    throw new MergeDocException(manager.pref.getInputArchive() + "\n" + e.getMessage(), e);
+                } catch (IOException e) {
+                    throw new MergeDocException(manager.pref.getInputArchive() + "\n" + e, e);
+                } catch (ExecutionException e) {
+                    throw new MergeDocException(manager.pref.getInputArchive() + "\n" + e.getCause(), e);
+                }
+            }
+
+            // アーカイブ内のエントリの並行処理はアーカイブの同時実行数で分け合う
+            int threads = Math.max(1, Integer.getInteger(BATCH_THREADS_KEY, Runtime.getRuntime().availableProcessors()));
+            threads = Math.min(threads, managers.size());
+            for (MergeManager manager : managers) {
+                manager.entryThreads = Math.max(1, manager.entryThreads / threads);
+            }
+            executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final MergeManager manager : managers) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        manager.execute();
+                        return null;
+                    }
+                }));
+            }
+            executor.shutdown();
+
+            // すべての終了を待ち、失敗したアーカイブをまとめて報告
+            Throwable failure = null;
+            StringBuilder message = new StringBuilder();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (InterruptedException e) {
+                    for (MergeManager manager : managers) {
+                        manager.getWorkingState().cancel();
+                    }
+                    while (!executor.isTerminated()) {
+                        try {
+                            executor.awaitTermination(1, TimeUnit.SECONDS);
+                        } catch (InterruptedException e2) {
+                            // キャンセル済みのため終了まで待つ
+                        }
+                    }
+                    throw e;
+                } catch (ExecutionException e) {
+                    File inFile = managers.get(i).pref.getInputArchive();
+                    log.error(inFile + " のマージに失敗しました。", e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    message.append('\n').append(inFile).append(": ").append(e.getCause());
+                }
+            }
+            if (failure != null) {
+                throw new MergeDocException("マージに失敗したソースアーカイブファイルがあります。" + message, failure);
+            }
+            return managers;
+
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            for (MergeManager manager : managers) {
+                manager.entrySizeGetExecutor.shutdown();
             }
         }
     }
 
+    /**
+     * 中断時に一時ファイルを次回の再開に使用できる状態にします。
+     * チェックポイントを記録済みの場合は一時ファイルを残します。記録前で、前回の
+     * 一時ファイルから再開していた場合は前回の一時ファイルに戻し、それ以外の
+     * 場合は一時ファイルを削除します。{@link WorkingState#abort()} で中止された
+     * 場合は、チェックポイントと一時ファイルをすべて削除します。
+     * @param partFile 一時ファイル
+     * @param resumeFile 再開用に退避した前回の一時ファイル
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private void rollback(File partFile, File resumeFile) throws IOException {
+
+        if (workingState.isAborted()) {
+            checkpoint.delete();
+            resumeFile.delete();
+            if (partFile.exists() && !partFile.delete()) {
+                log.warn("作成途中の出力ファイルを削除できませんでした。" + partFile);
+            }
+        } else if (checkpoint.isSaved()) {
+            resumeFile.delete();
+        } else if (resumeFile.exists()) {
+            Files.move(resumeFile.toPath(), partFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else if (partFile.exists() && !partFile.delete()) {
+            log.warn("作成途中の出力ファイルを削除できませんでした。" + partFile);
+        }
+    }
+
+    /**
+     * 前回中断した一時ファイルから完了済みのエントリを複製し、入力側の同じ
+     * エントリを読み飛ばします。エントリは {@link MergeCheckpoint#load()} で
+     * 検証済みです。
+     * @param in アーカイブ入力ストリーム
+     * @param out ZIP 出力ストリーム
+     * @param resumeFile 前回の一時ファイル
+     * @param resumeCount 複製するエントリ数
+     * @return 複製したエントリ数
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private int copyResumedEntries(ArchiveInputStream in, ZipOutputStream out, File resumeFile, int resumeCount) throws IOException {
+
+        ZipInputStream part = new ZipInputStream(new BufferedInputStream(new FileInputStream(resumeFile)));
+        try {
+            for (int i = 0; i < resumeCount; i++) {
+                ArchiveInputStream.Entry inEntry = in.getNextEntry();
+                ZipEntry partEntry = part.getNextEntry();
+                if (inEntry == null || partEntry == null || !inEntry.getName().equals(partEntry.getName())) {
+                    throw new IOException("前回の一時ファイルが変更されたため再開できません。" + resumeFile);
+                }
+                workingState.changeWorkingText(partEntry.getName());
+                out.putNextEntry(new ZipEntry(partEntry.getName()));
+                for (int size = 0; (size = part.read(byteBuffer)) > 0;) {
+                    WorkingState.checkInterrupted();
+                    out.write(byteBuffer, 0, size);
+                }
+            }
+        } finally {
+            part.close();
+        }
+        workingState.add(Counter.ENTRY_RESUMED, resumeCount);
+        return resumeCount;
+    }
+
+    /**
+     * マージ設定から全エントリで共通に使用するものを準備します。
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     */
+    private void prepare() throws MergeDocException {
+        globalEngine = sharedGlobalEngine;
+        if (globalEngine == null) {
+            globalEngine = getGlobalEngine(pref.getGlobalEntries());
+        }
+        pathFilter = GlobFilter.compile(pref.getIncludePatterns(), pref.getExcludePatterns());
+        documentIndex = null;
+        if (canPassThrough()) {
+            documentIndex = sharedDocumentIndex;
+            if (documentIndex == null) {
+                documentIndex = DocumentIndex.get(pref.getDocDirectory(), pref.getDocEncoding());
+            }
+        }
+    }
+
+    /**
+     * エントリ単位で変換するための準備をします。
+     * {@link #setPreference(Preference)} と異なり、入力ソースアーカイブファイルの
+     * エントリ数の取得は行いません。出力ソースアーカイブファイルは使用しません。
+     * @param pref マージ設定
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     */
+    void prepareEntryConversion(Preference pref) throws MergeDocException {
+        this.pref = pref;
+        workingState.initialize();
+        prepare();
+    }
+
+    /**
+     * 入力ソースアーカイブファイルの 1 つのエントリを、{@link #execute()} で
+     * 出力ソースアーカイブファイルに書き込む内容に変換します。
+     * 事前に {@link #prepareEntryConversion(Preference)} を呼び出します。
+     * 複数のスレッドから呼び出すことができます。
+     * @param zipFile 入力ソースアーカイブファイル
+     * @param entry エントリ
+     * @return 変換後の内容
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     * @throws SAXException SAX パース例外が発生した場合
+     * @throws IOException 入出力例外が発生した場合
+     */
+    byte[] convertEntry(ZipFile zipFile, ZipEntry entry) throws MergeDocException, SAXException, IOException {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((int) Math.max(32, entry.getSize()));
+        InputStream is = zipFile.getInputStream(entry);
+        try {
+            copyStream(is, baos, Stage.READ, new byte[4096]);
+        } finally {
+            is.close();
+        }
+        if (entry.isDirectory() || classify(entry.getName()) != EntryKind.MERGE) {
+            return baos.toByteArray();
+        }
+        return mergeSource(baos.toByteArray(), entry.getName(), createMerger());
+    }
+
+    /**
+     * グローバル置換エントリの置換エンジンを取得します。
+     * 前回と同じ置換エントリのインスタンスの場合は、前回作成した置換エンジンを返します。
+     * {@link ConfigManager#getGlobalEntries()} は global.xml が更新されていなければ
+     * 同じインスタンスを返すため、同じ JVM で繰り返しマージする場合は置換エントリの
+     * 解析を省略できます。
+     * @param entries グローバル置換エントリ
+     * @return 置換エンジン
+     */
+    private static synchronized ReplaceEngine getGlobalEngine(ReplaceEntry[] entries) {
+        List<ReplaceEntry> key = Arrays.asList(entries.clone());
+        if (lastGlobalEngine == null || !key.equals(lastGlobalEntries)) {
+            lastGlobalEngine = new ReplaceEngine(entries);
+            lastGlobalEntries = key;
+        }
+        return lastGlobalEngine;
+    }
+
+    /**
+     * エントリの処理方法を判定します。
+     *
+     * API ドキュメントの索引（{@link DocumentIndex}）から API ドキュメントが
+     * 存在しないと判定できる Java ソースは、そのままにしても処理結果が変わらない
+     * 場合（{@link #canPassThrough()}）、デコードせずにそのまま書き込みます。
+     * マージ設定の除外パスに一致するか対象パスに一致しない Java ソースも、
+     * そのまま書き込みます。
+     *
+     * @param entryName エントリ名
+     * @return 処理方法
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     */
+    private EntryKind classify(String entryName) throws MergeDocException {
+
+        //debug 処理対象クラス指定
+        //if (!entryName.equals("java/lang/String.java")) return EntryKind.COPY;
+        //if (!entryName.endsWith("/SuppressWarnings.java")) return EntryKind.COPY;
+        //if (!entryName.endsWith("/System.java")) return EntryKind.COPY;
+
+        if (!entryName.endsWith(".java") || entryName.endsWith("/package-info.java")) {
+            return EntryKind.COPY;
+        }
+        if (!pathFilter.accept(entryName)) {
+            return EntryKind.EXCLUDE;
+        }
+        if (documentIndex != null && !documentIndex.mayHaveDocument(entryName) && !hasClassConfig(entryName)) {
+            return EntryKind.PASS_THROUGH;
+        }
+        return EntryKind.MERGE;
+    }
+
+    /**
+     * そのまま出力したエントリを処理方法ごとのカウンタに加算します。
+     * @param kind 処理方法
+     */
+    private void countCopied(EntryKind kind) {
+        if (kind == EntryKind.EXCLUDE) {
+            workingState.add(Counter.ENTRY_EXCLUDED, 1);
+        } else if (kind == EntryKind.PASS_THROUGH) {
+            workingState.add(Counter.ENTRY_PASSED_THROUGH, 1);
+        }
+    }
+
     /**
      * アーカイブ入力ストリームから順次エントリを読み込み、Java ソースの場合は
      * API ドキュメントとマージし、それ以外のファイルはそのまま ZIP
-     * 出力ストリームに書き込みます。
+     * 出力ストリームに書き込みます（{@link #classify(String)}）。
+     *
+     * 一定間隔でチェックポイントを記録します。
      *
      * @param  in  アーカイブ入力ストリーム
      * @param  out ZIP 出力ストリーム
+     * @param  entryCount 処理済みのエントリ数
      * @throws MergeDocException コンフィグ情報の取得に失敗した場合
      * @throws SAXException SAX パース例外が発生した場合
      * @throws IOException 入出力例外が発生した場合
      */
-    private void merge(ArchiveInputStream in, ZipOutputStream out) throws MergeDocException, SAXException, IOException {
-        Merger merger = new Merger(pref.getDocDirectory());
-        merger.setDocEncoding(pref.getDocEncoding());
+    private void merge(ArchiveInputStream in, ZipOutputStream out, int entryCount) throws MergeDocException, SAXException, IOException {
 
+        Merger merger = createMerger();
         ArchiveInputStream.Entry inEntry = null;
         while ((inEntry = in.getNextEntry()) != null) {
 
@@ -205,81 +785,373 @@ public class MergeManager {
                 return;
             }
             String entryName = inEntry.getName();
+            long entryStart = System.nanoTime();
+            long entryBytes = costReport.allocatedBytes();
+            long bytesIn = workingState.getCount(Counter.BYTES_IN);
+            long bytesOut = workingState.getCount(Counter.BYTES_OUT);
+            Object event = events.beginEntry();
+            long time = entryStart;
             out.putNextEntry(new ZipEntry(entryName));
+            workingState.lap(Stage.DEFLATE, time);
             workingState.changeWorkingText(entryName);
 
-            //debug 処理対象クラス指定
-            //if (!entryName.equals("java/lang/String.java")) continue;
-            //if (!entryName.endsWith("/SuppressWarnings.java")) continue;
-            //if (!entryName.endsWith("/System.java")) continue;
-
-            if (entryName.endsWith(".java") && !entryName.endsWith("/package-info.java")) {
+            EntryKind kind = classify(entryName);
+            if (kind == EntryKind.MERGE) {
 
                 // Java ソースの場合
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                copyStream(in, baos);
-                String source = baos.toString(pref.getInputEncoding());
-                source = FastStringUtils.optimizeLineSeparator(source);
-                source = FastStringUtils.untabify(source);
-
-                // Java ソースを API ドキュメントとマージ
-                Pattern classPat = PatternCache.getPattern(".*/(.*)\\.java");
-                Matcher classMat = classPat.matcher(entryName);
-                if (classMat.find()) {
-                    String result = merger.merge(source, classMat.group(1));
-                    String className = merger.getMergedClassName();
-                    if (className != null) {
-                        result = doFilter(className, result);
-                    }
-                    byte[] resultBuf = result.getBytes(pref.getOutputEncoding());
+                copyStream(in, baos, Stage.READ);
+                byte[] resultBuf = mergeSource(baos.toByteArray(), entryName, merger);
+                time = System.nanoTime();
+                out.write(resultBuf);
+                workingState.lap(Stage.DEFLATE, time);
+                workingState.add(Counter.BYTES_OUT, resultBuf.length);
+            } else {
+                copyStream(in, out, Stage.DEFLATE);
+                countCopied(kind);
+            }
+            long entryNanos = System.nanoTime() - entryStart;
+            long bytes = (entryBytes < 0) ? -1 : costReport.allocatedBytes() - entryBytes;
+            costReport.record(entryName, entryNanos, bytes);
+            if (kind == EntryKind.MERGE) {
+                timings.record(entryName, entryNanos);
+            }
+            events.commitEntry(event, entryName,
+                workingState.getCount(Counter.BYTES_IN) - bytesIn,
+                workingState.getCount(Counter.BYTES_OUT) - bytesOut);
+
+            // エントリを書き込み終えた状態でチェックポイントを記録
+            entryCount++;
+            if (checkpoint.isDue()) {
+                out.closeEntry();
+                out.flush();
+                checkpoint.save(entryCount, partChannel.position());
+            }
+        }
+    }
+
+    /**
+     * ZIP ファイルのエントリのうち、マージする Java ソースを複数のスレッドで
+     * 並行してマージし、ZIP 出力ストリームにエントリの順に書き込みます。
+     * それ以外のエントリは書き込む時点でそのまま書き込みます。
+     *
+     * エントリの順序はセントラルディレクトリの順序です。通常の ZIP ファイルでは
+     * エントリの格納順と同じです。
+     *
+     * 一定間隔でチェックポイントを記録します。
+     *
+     * @param  zipFile 入力 ZIP ファイル
+     * @param  out ZIP 出力ストリーム
+     * @param  entryCount 処理済みのエントリ数
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     * @throws SAXException SAX パース例外が発生した場合
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private void mergeParallel(final ZipFile zipFile, ZipOutputStream out, int entryCount) throws MergeDocException, SAXException, IOException {
+
+        List<? extends ZipEntry> allEntries = Collections.list(zipFile.entries());
+        List<? extends ZipEntry> entries = allEntries.subList(Math.min(entryCount, allEntries.size()), allEntries.size());
+
+        // マージするエントリのサイズと処理時間の履歴
+        EntryKind[] kinds = new EntryKind[entries.size()];
+        int[] taskIndexes = new int[entries.size()];
+        final List<ZipEntry> mergeEntries = new ArrayList<ZipEntry>();
+        for (int i = 0; i < entries.size(); i++) {
+            kinds[i] = classify(entries.get(i).getName());
+            if (kinds[i] == EntryKind.MERGE) {
+                taskIndexes[i] = mergeEntries.size();
+                mergeEntries.add(entries.get(i));
+            }
+        }
+        long[] sizes = new long[mergeEntries.size()];
+        long[] historyNanos = new long[mergeEntries.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            ZipEntry entry = mergeEntries.get(i);
+            sizes[i] = entry.getSize();
+            if (sizes[i] < 0) {
+                // サイズが不明な場合は圧縮後のサイズから見積もる
+                sizes[i] = Math.max(0, entry.getCompressedSize()) * 4;
+            }
+            historyNanos[i] = timings.getNanos(entry.getName());
+        }
+
+        EntryScheduler scheduler = new EntryScheduler(sizes, historyNanos, entryThreads, new EntryScheduler.Processor() {
+            @Override
+            public byte[] process(int index) throws Exception {
+                return mergeEntry(zipFile, mergeEntries.get(index));
+            }
+        });
+        try {
+            scheduler.start();
+            for (int i = 0; i < entries.size(); i++) {
+
+                if (workingState.isCanceled()) {
+                    return;
+                }
+                ZipEntry entry = entries.get(i);
+                String entryName = entry.getName();
+                long time = System.nanoTime();
+                out.putNextEntry(new ZipEntry(entryName));
+                workingState.lap(Stage.DEFLATE, time);
+                workingState.changeWorkingText(entryName);
+
+                if (kinds[i] == EntryKind.MERGE) {
+
+                    // Java ソースの場合（処理時間などはマージしたスレッドで記録済み）
+                    byte[] resultBuf = take(scheduler, taskIndexes[i]);
+                    time = System.nanoTime();
                     out.write(resultBuf);
+                    workingState.lap(Stage.DEFLATE, time);
+                    workingState.add(Counter.BYTES_OUT, resultBuf.length);
                 } else {
-                    copyStream(in, out);
+                    long entryStart = time;
+                    long entryBytes = costReport.allocatedBytes();
+                    Object event = events.beginEntry();
+                    long size;
+                    InputStream is = zipFile.getInputStream(entry);
+                    try {
+                        size = copyStream(is, out, Stage.DEFLATE, byteBuffer);
+                    } finally {
+                        is.close();
+                    }
+                    countCopied(kinds[i]);
+                    long bytes = (entryBytes < 0) ? -1 : costReport.allocatedBytes() - entryBytes;
+                    costReport.record(entryName, System.nanoTime() - entryStart, bytes);
+                    events.commitEntry(event, entryName, size, size);
                 }
-            } else {
-                // Java ソース以外の場合
-                copyStream(in, out);
+
+                // エントリを書き込み終えた状態でチェックポイントを記録
+                entryCount++;
+                if (checkpoint.isDue()) {
+                    out.closeEntry();
+                    out.flush();
+                    checkpoint.save(entryCount, partChannel.position());
+                }
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * ZIP ファイルの Java ソースのエントリを読み込んでマージします。
+     * 複数のスレッドから呼び出されます。
+     * @param zipFile 入力 ZIP ファイル
+     * @param entry エントリ
+     * @return マージ後の Java ソース
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     * @throws SAXException SAX パース例外が発生した場合
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private byte[] mergeEntry(ZipFile zipFile, ZipEntry entry) throws MergeDocException, SAXException, IOException {
+
+        String entryName = entry.getName();
+        long entryStart = System.nanoTime();
+        long entryBytes = costReport.allocatedBytes();
+        Object event = events.beginEntry();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((int) Math.max(32, entry.getSize()));
+        InputStream is = zipFile.getInputStream(entry);
+        try {
+            copyStream(is, baos, Stage.READ, new byte[4096]);
+        } finally {
+            is.close();
+        }
+        byte[] resultBuf = mergeSource(baos.toByteArray(), entryName, createMerger());
+
+        long entryNanos = System.nanoTime() - entryStart;
+        long bytes = (entryBytes < 0) ? -1 : costReport.allocatedBytes() - entryBytes;
+        costReport.record(entryName, entryNanos, bytes);
+        timings.record(entryName, entryNanos);
+        events.commitEntry(event, entryName, baos.size(), resultBuf.length);
+        return resultBuf;
+    }
+
+    /**
+     * エントリの処理結果を取り出します。処理中に発生した例外はそのままスローします。
+     * @param scheduler スケジューラ
+     * @param index エントリのインデックス
+     * @return 処理結果
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     * @throws SAXException SAX パース例外が発生した場合
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private static byte[] take(EntryScheduler scheduler, int index) throws MergeDocException, SAXException, IOException {
+        try {
+            return scheduler.take(index);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MergeDocException) {
+                throw (MergeDocException) cause;
+            } else if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * マージを行うオブジェクトを作成します。
+     * @return マージを行うオブジェクト
+     */
+    private Merger createMerger() {
+        Merger merger = new Merger(pref.getDocDirectory());
+        merger.setDocEncoding(pref.getDocEncoding());
+        merger.setWorkingState(workingState);
+        return merger;
+    }
+
+    /**
+     * Java ソースを API ドキュメントとマージし、置換エントリを適用します。
+     * エントリ名からクラス名を取得できない場合はそのまま返します。
+     * @param sourceBuf Java ソース
+     * @param entryName エントリ名
+     * @param merger マージを行うオブジェクト
+     * @return マージ後の Java ソース
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     * @throws SAXException SAX パース例外が発生した場合
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private byte[] mergeSource(byte[] sourceBuf, String entryName, Merger merger) throws MergeDocException, SAXException, IOException {
+
+        Pattern classPat = PatternCache.getPattern(".*/(.*)\\.java");
+        Matcher classMat = classPat.matcher(entryName);
+        if (!classMat.find()) {
+            return sourceBuf;
+        }
+        long time = System.nanoTime();
+        String source = new String(sourceBuf, pref.getInputEncoding());
+        source = FastStringUtils.optimizeLineSeparator(source);
+        source = FastStringUtils.untabify(source);
+        workingState.lap(Stage.DECODE, time);
+
+        // Java ソースを API ドキュメントとマージ
+        String result = merger.merge(source, classMat.group(1));
+        String className = merger.getMergedClassName();
+        time = System.nanoTime();
+        if (className != null) {
+            result = doFilter(className, result, globalEngine);
+        }
+        time = workingState.lap(Stage.FILTER, time);
+        byte[] resultBuf = result.getBytes(pref.getOutputEncoding());
+        workingState.lap(Stage.ENCODE, time);
+        return resultBuf;
+    }
+
+    /**
+     * API ドキュメントが無い Java ソースをデコードせずにそのまま出力できるか判定します。
+     * 入力と出力のエンコーディングが同じで、グローバル置換エントリが無い場合のみ
+     * 出力できます。この場合、API ドキュメントが無い Java ソースのタブと改行は
+     * 元のままになります。
+     * @return そのまま出力できる場合は true
+     */
+    private boolean canPassThrough() {
+        if (pref.getGlobalEntries().length > 0) {
+            return false;
+        }
+        try {
+            return Charset.forName(pref.getInputEncoding()).equals(Charset.forName(pref.getOutputEncoding()));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Java ソースのエントリに対応するクラス別置換定義があるか判定します。
+     * @param entryName エントリ名
+     * @return クラス別置換定義がある場合は true
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     */
+    private boolean hasClassConfig(String entryName) throws MergeDocException {
+        ConfigManager config = ConfigManager.getInstance();
+        for (String path : DocumentIndex.classPaths(entryName)) {
+            if (config.getFile(path + ".xml").exists()) {
+                return true;
             }
         }
+        return false;
     }
 
     /**
      * 入力ストリームを出力ストリームにコピーします。
+     * 読み込みの時間は {@link Stage#READ} に、書き込みの時間は指定した処理段階に加算します。
      * @param in 入力ストリーム
      * @param out 出力ストリーム
+     * @param writeStage 書き込みの時間を加算する処理段階
      * @throws IOException 入出力例外が発生した場合
      */
-    private void copyStream(ArchiveInputStream in, OutputStream out) throws IOException {
+    private void copyStream(ArchiveInputStream in, OutputStream out, Stage writeStage) throws IOException {
+        long time = System.nanoTime();
         for (int size = 0; (size = in.read(byteBuffer)) > 0;) {
+            WorkingState.checkInterrupted();
+            time = workingState.lap(Stage.READ, time);
             out.write(byteBuffer, 0, size);
+            time = workingState.lap(writeStage, time);
+            workingState.add(Counter.BYTES_IN, size);
+            if (writeStage == Stage.DEFLATE) {
+                workingState.add(Counter.BYTES_OUT, size);
+            }
+        }
+        workingState.lap(Stage.READ, time);
+    }
+
+    /**
+     * ZIP ファイルのエントリの入力ストリームを出力ストリームにコピーします。
+     * 読み込みの時間は {@link Stage#READ} に、書き込みの時間は指定した処理段階に加算します。
+     * @param in 入力ストリーム
+     * @param out 出力ストリーム
+     * @param writeStage 書き込みの時間を加算する処理段階
+     * @param buf コピー用のバイトバッファ
+     * @return コピーしたバイト数
+     * @throws IOException 入出力例外が発生した場合
+     */
+    private long copyStream(InputStream in, OutputStream out, Stage writeStage, byte[] buf) throws IOException {
+        long time = System.nanoTime();
+        long total = 0;
+        for (int size = 0; (size = in.read(buf)) > 0;) {
+            WorkingState.checkInterrupted();
+            time = workingState.lap(Stage.READ, time);
+            out.write(buf, 0, size);
+            time = workingState.lap(writeStage, time);
+            workingState.add(Counter.BYTES_IN, size);
+            if (writeStage == Stage.DEFLATE) {
+                workingState.add(Counter.BYTES_OUT, size);
+            }
+            total += size;
         }
+        workingState.lap(Stage.READ, time);
+        return total;
     }
 
     /**
      * XML に定義された置換エントリを元にソース置換処理を行います。
      * @param className クラス名
      * @param source Java ソース文字列
+     * @param globalEngine グローバル置換定義の置換エンジン
      * @return 処理後のソース文字列
      * @throws MergeDocException コンフィグ情報の取得に失敗した場合
      * @throws SAXException SAX パース例外が発生した場合
      * @throws IOException 入出力例外が発生した場合
      */
-    private String doFilter(String className, String source) throws MergeDocException, SAXException, IOException {
+    private String doFilter(String className, String source, ReplaceEngine globalEngine) throws MergeDocException, SAXException, IOException {
         // クラス別置換定義の処理
         String path = FastStringUtils.replaceAll(className, "\\.", "/") + ".xml";
         ConfigManager config = ConfigManager.getInstance();
         File entryXML = config.getFile(path);
         if (entryXML.exists()) {
             SAXParser saxParser = config.getSAXPerser();
-            ReplaceHandler handler = new ReplaceHandler(source);
+            ReplaceHandler handler = new ReplaceHandler(source, className);
             saxParser.parse(entryXML, handler);
             source = handler.getResult();
         }
 
         // グローバル置換定義の処理
-        for (ReplaceEntry entry : pref.getGlobalEntries()) {
-            source = entry.replace(source);
-        }
+        source = globalEngine.replace(source, className);
 
         return source;
     }
@@ -294,6 +1166,14 @@ public class MergeManager {
         return entrySizeFuture.get();
     }
 
+    /**
+     * エントリ別処理レポートの出力先ファイルを取得します。
+     * @return エントリ別処理レポートの出力先ファイル
+     */
+    public File getReportFile() {
+        return EntryCostReport.fileFor(pref.getOutputArchive());
+    }
+
     /**
      * 進捗監視用のリスナをセットします。
      * @param changeListener 進捗監視用のリスナ
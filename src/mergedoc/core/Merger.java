@@ -7,14 +7,27 @@ package mergedoc.core;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import mergedoc.core.WorkingState.Counter;
+import mergedoc.core.WorkingState.Stage;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * マージを行うクラスです。
+ * <p>
+ * Java ソースのブロックコメントとシグネチャをすべて走査してから、ローカライズ
+ * されたコメントを構築します。API ドキュメントに対応するコメントが多い大きな
+ * クラスの場合は、コメントを Fork/Join プールで並行して構築します。プールの
+ * スレッド数はシステムプロパティ {@value #COMMENT_THREADS_KEY} で指定でき、
+ * デフォルトはプロセッサ数です。1 を指定すると並行して構築しません。
  * @author Shinji Kashihara
  */
 public class Merger {
@@ -22,6 +35,18 @@ public class Merger {
     /** ロガー */
     private static final Log log = LogFactory.getLog(Merger.class);
 
+    /** イベント */
+    private static final MergeEvents events = MergeEvents.getInstance();
+
+    /** コメントを並行して構築するスレッド数を指定するシステムプロパティのキー */
+    public static final String COMMENT_THREADS_KEY = "mergedoc.comment.threads";
+
+    /** コメントを並行して構築する、API ドキュメントに対応するコメント数の下限 */
+    private static final int PARALLEL_COMMENTS = 64;
+
+    /** コメントを並行して構築する Fork/Join プール。並行して構築しない場合は null。 */
+    private static final ForkJoinPool commentPool = createCommentPool();
+
     /** クラス種類（class|interface|@interface|enum） */
     private String classKind;
 
@@ -34,6 +59,9 @@ public class Merger {
     /** API ドキュメントエンコーディング */
     private String docEncoding = System.getProperty("file.encoding");
 
+    /** 処理段階の時間とカウンタの記録先 */
+    private WorkingState workingState = new WorkingState();
+
     /**
      * コンストラクタです。
      * @param docDirectory
@@ -42,6 +70,15 @@ public class Merger {
         this.docDirectory = docDirectory;
     }
 
+    /**
+     * コメントを並行して構築する Fork/Join プールを作成します。
+     * @return Fork/Join プール。スレッド数が 1 以下の場合は null。
+     */
+    private static ForkJoinPool createCommentPool() {
+        int threads = Integer.getInteger(COMMENT_THREADS_KEY, Runtime.getRuntime().availableProcessors());
+        return (threads > 1) ? new ForkJoinPool(threads) : null;
+    }
+
     /**
      * API ドキュメントエンコーディングを設定します。
      * 設定されなかった場合はデフォルトエンコーディングを使用します。
@@ -51,6 +88,14 @@ public class Merger {
         this.docEncoding = docEncoding;
     }
 
+    /**
+     * 処理段階の時間とカウンタの記録先を設定します。
+     * @param workingState 処理状態
+     */
+    void setWorkingState(WorkingState workingState) {
+        this.workingState = workingState;
+    }
+
     /**
      * Java ソースと Javadoc コメントをマージします。
      * Java ソースに package 宣言が無い場合や、対応する API
@@ -58,26 +103,62 @@ public class Merger {
      * @param javaSource Java ソース文字列
      * @return マージ後の Java ソース文字列
      * @throws IOException 入出力例外が発生した場合
+     * @throws CancellationException 処理中のスレッドが割り込まれた場合
      */
     public String merge(String source, String targetClassName) throws IOException {
 
+        Object event = events.beginMerge();
+        long time = System.nanoTime();
         scanClassName(source, targetClassName);
+        time = workingState.lap(Stage.CLASS_SCAN, time);
         if (className == null) {
             return source;
         }
-        APIDocument apiDoc = new APIDocument(docDirectory, className, docEncoding);
+        WorkingState.checkInterrupted();
+        APIDocument apiDoc = APIDocumentCache.getInstance().get(docDirectory, className, docEncoding, workingState);
+        time = workingState.lap(Stage.DOC_LOAD, time);
         if (apiDoc.isEmpty()) {
+            events.commitMerge(event, className, source.length(), 0, 0);
             return source;
         }
+        int matched = 0;
+        int unmatched = 0;
 
+        // コメントとシグネチャをすべて走査し、対応するコメントを登録
         JavaBuffer javaBuf = new JavaBuffer(classKind, className, source);
+        List<Comment> comments = new ArrayList<Comment>();
         while (javaBuf.nextComment()) {
             Signature sig = javaBuf.getSignature();
             Comment com = apiDoc.getComment(sig);
-            javaBuf.setLocalizedComment(sig, com);
+            if (com == null) {
+                unmatched++;
+                continue;
+            }
+            matched++;
+            javaBuf.addLocalizedComment(sig, com);
+            comments.add(com);
+        }
+        workingState.add(Counter.COMMENT_MATCHED, matched);
+        workingState.add(Counter.COMMENT_UNMATCHED, unmatched);
+        workingState.lap(Stage.CLASS_SCAN, time);
+
+        // コメントを構築（大きなクラスは並行して構築）
+        javaBuf.buildLocalizedComments((comments.size() >= PARALLEL_COMMENTS) ? commentPool : null);
+        long resizeTime = 0;
+        for (Comment com : comments) {
+            resizeTime += com.getResizeTime();
+            if (com.isResizeFailed()) {
+                workingState.add(Counter.RESIZE_FALLBACK, 1);
+            }
         }
 
+        // 行数調整の時間はコメント構築の時間から分離
+        workingState.addTime(Stage.RESIZE, resizeTime);
+        workingState.addTime(Stage.COMMENT_BUILD, javaBuf.getBuildTime() - resizeTime);
+        time = System.nanoTime();
         String result = javaBuf.finishToString();
+        workingState.lap(Stage.COMMENT_BUILD, time);
+        events.commitMerge(event, className, source.length(), matched, unmatched);
         return result;
     }
 
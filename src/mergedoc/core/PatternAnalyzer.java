@@ -0,0 +1,546 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 正規表現文字列を解析するユーティリティです。
+ * <p>
+ * java.util.regex.Pattern の構文を簡易的に解析します。解析できない構文が
+ * 含まれる場合は、常に安全側（マッチする可能性がある側）の結果を返します。
+ *
+ * @author Shinji Kashihara
+ */
+public class PatternAnalyzer {
+
+    /** 空の文字列配列 */
+    private static final String[] EMPTY_STRINGS = new String[0];
+
+    /** 繰り返しを含むグループの繰り返し回数の上限がこの値以上の場合に警告対象とする */
+    private static final int NESTED_REPEAT_LIMIT = 10;
+
+    /**
+     * コンストラクタです。生成不可。
+     */
+    private PatternAnalyzer() {
+    }
+
+    /**
+     * 正規表現にマッチする文字列に必ず含まれるリテラル文字列を取得します。
+     * <p>
+     * 戻り値のリテラル文字列のいずれかが含まれない文字列は、その正規表現に
+     * マッチしないことが保証されます。トップレベルに選択（|）がある場合や、
+     * 大文字小文字を区別しない指定がある場合など、必須のリテラル文字列を
+     * 判定できない場合はサイズ 0 の配列を返します。
+     *
+     * <pre>
+     *     "&lt;/?font .*?&gt;"    → { "&lt;", "font ", "&gt;" }
+     *     "\s@exception\s" → { "@exception" }
+     *     "abc(?i)|xyz"    → { }
+     * </pre>
+     *
+     * @param regex 正規表現文字列
+     * @return 必須のリテラル文字列の配列
+     */
+    public static String[] requiredLiterals(String regex) {
+
+        List<String> literals = new ArrayList<String>();
+        StringBuilder run = new StringBuilder();
+        int size = regex.length();
+
+        for (int i = 0; i < size;) {
+
+            char c = regex.charAt(i);
+            boolean literal = false;
+
+            if (c == '\\') {
+                if (i + 1 >= size) {
+                    return EMPTY_STRINGS;
+                }
+                char e = regex.charAt(i + 1);
+                i += 2;
+                if (e == 'Q') {
+                    // \Q ～ \E は引用
+                    int end = regex.indexOf("\\E", i);
+                    if (end == -1) {
+                        end = size;
+                    }
+                    String quoted = regex.substring(i, end);
+                    i = Math.min(end + 2, size);
+                    if (quoted.length() == 0) {
+                        continue;
+                    }
+                    run.append(quoted);
+                    literal = true;
+                } else {
+                    char ch = unescape(e);
+                    if (ch == 0) {
+                        i = skipEscapeArgument(regex, e, i);
+                        if (i == -1) {
+                            return EMPTY_STRINGS;
+                        }
+                        flush(run, literals);
+                    } else {
+                        run.append(ch);
+                        literal = true;
+                    }
+                }
+
+            } else if (c == '[') {
+                // 文字クラスは読み飛ばし
+                i = skipCharClass(regex, i);
+                if (i == -1) {
+                    return EMPTY_STRINGS;
+                }
+                flush(run, literals);
+
+            } else if (c == '(') {
+                int end = skipGroup(regex, i);
+                if (end == -1) {
+                    return EMPTY_STRINGS;
+                }
+                String group = regex.substring(i, end);
+                i = end;
+                if (FastStringUtils.matches(group, "\\(\\?[idmsuxU]*(-[idmsuxU]*)?\\)")) {
+                    // フラグ指定。大文字小文字無視とコメントは解析対象外。
+                    // 以降のトップレベルの選択も判定できないため、必須のリテラル文字列は無し。
+                    String on = FastStringUtils.replaceFirst(group, "-.*", "");
+                    if (on.contains("i") || on.contains("x")) {
+                        return EMPTY_STRINGS;
+                    }
+                    continue;
+                }
+                flush(run, literals);
+
+            } else if (c == '|' || c == ')') {
+                // トップレベルの選択
+                return EMPTY_STRINGS;
+
+            } else if (c == '*' || c == '+' || c == '?' || c == '{') {
+                // 量指定子の位置が不正
+                return EMPTY_STRINGS;
+
+            } else if (c == '.' || c == '^' || c == '$') {
+                i++;
+                flush(run, literals);
+
+            } else {
+                i++;
+                run.append(c);
+                literal = true;
+            }
+
+            // 量指定子の処理
+            if (i < size) {
+                int min = -1;
+                char q = regex.charAt(i);
+                if (q == '*' || q == '?') {
+                    min = 0;
+                    i++;
+                } else if (q == '+') {
+                    min = 1;
+                    i++;
+                } else if (q == '{') {
+                    int end = regex.indexOf('}', i);
+                    if (end == -1) {
+                        return EMPTY_STRINGS;
+                    }
+                    String bounds = FastStringUtils.replaceFirst(regex.substring(i + 1, end), ",.*", "").trim();
+                    try {
+                        min = Integer.parseInt(bounds);
+                    } catch (NumberFormatException e) {
+                        return EMPTY_STRINGS;
+                    }
+                    i = end + 1;
+                }
+                if (min != -1) {
+                    // 最短一致、強欲な量指定子
+                    if (i < size && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+                        i++;
+                    }
+                    // 量指定子は直前の 1 文字にかかるため、その文字以降は連続しない
+                    if (literal && min == 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    flush(run, literals);
+                }
+            }
+        }
+        flush(run, literals);
+
+        return literals.toArray(new String[literals.size()]);
+    }
+
+    /**
+     * 正規表現が特定のリテラル文字列にのみマッチする場合に、そのリテラル文字列を
+     * 取得します。
+     * <p>
+     * メタ文字を含まず、エスケープされた記号、制御文字のエスケープ、\Q ～ \E
+     * による引用、マッチに影響しないフラグ指定のみで構成される正規表現が対象です。
+     *
+     * <pre>
+     *     "no mark: throw away the buffer" → "no mark: throw away the buffer"
+     *     "\* shuffling"                   → "* shuffling"
+     *     "count."                         → null
+     * </pre>
+     *
+     * @param regex 正規表現文字列
+     * @return リテラル文字列。リテラルとみなせない場合や空文字列の場合は null。
+     */
+    public static String literalOf(String regex) {
+
+        StringBuilder sb = new StringBuilder(regex.length());
+        int size = regex.length();
+
+        for (int i = 0; i < size;) {
+
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                if (i + 1 >= size) {
+                    return null;
+                }
+                char e = regex.charAt(i + 1);
+                i += 2;
+                if (e == 'Q') {
+                    int end = regex.indexOf("\\E", i);
+                    if (end == -1) {
+                        end = size;
+                    }
+                    sb.append(regex, i, end);
+                    i = Math.min(end + 2, size);
+                } else {
+                    char ch = unescape(e);
+                    if (ch == 0) {
+                        return null;
+                    }
+                    sb.append(ch);
+                }
+
+            } else if (c == '(') {
+                // マッチに影響しないフラグ指定のみ許可
+                int end = regex.indexOf(')', i);
+                if (end == -1) {
+                    return null;
+                }
+                String group = regex.substring(i, end + 1);
+                if (!FastStringUtils.matches(group, "\\(\\?[dmsuU]*(-[idmsuxU]*)?\\)")) {
+                    return null;
+                }
+                i = end + 1;
+
+            } else if ("[])|*+?{}.^$".indexOf(c) != -1) {
+                return null;
+
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return (sb.length() == 0) ? null : sb.toString();
+    }
+
+    /**
+     * 置換文字列がグループ参照を含まない場合に、置換結果となるリテラル文字列を
+     * 取得します。置換文字列の \ によるエスケープは解除されます。
+     * @param replacement Matcher#replaceAll に指定する置換文字列
+     * @return リテラル文字列。グループ参照を含む場合や構文が不正な場合は null。
+     */
+    public static String literalReplacementOf(String replacement) {
+
+        StringBuilder sb = new StringBuilder(replacement.length());
+        int size = replacement.length();
+
+        for (int i = 0; i < size; i++) {
+            char c = replacement.charAt(i);
+            if (c == '$') {
+                return null;
+            }
+            if (c == '\\') {
+                if (++i >= size) {
+                    return null;
+                }
+                c = replacement.charAt(i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 正規表現が入れ子になった量指定子を含むか判定します。
+     * <p>
+     * "(a+)+" や "(?s)(.*a){20}" のように、繰り返しを含むグループ自体を
+     * 上限無く、または多数回繰り返すパターンは、マッチしない入力に対して
+     * バックトラックが爆発的に増え、処理が終わらなくなる可能性があります。
+     * 強欲な量指定子や独立グループ (?&gt;...) はバックトラックしないため
+     * 対象外です。
+     *
+     * @param regex 正規表現文字列
+     * @return 入れ子になった量指定子を含む場合は true
+     */
+    public static boolean hasNestedQuantifier(String regex) {
+
+        // グループごとに、内部に繰り返しがあるかと独立グループかを保持
+        LinkedList<boolean[]> stack = new LinkedList<boolean[]>();
+        boolean repeated = false;
+        boolean atomic = false;
+        int size = regex.length();
+
+        for (int i = 0; i < size;) {
+
+            char c = regex.charAt(i);
+            boolean inner = false;
+
+            if (c == '\\') {
+                if (i + 1 < size && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = (end == -1) ? size : end + 2;
+                } else {
+                    i += 2;
+                }
+
+            } else if (c == '[') {
+                i = skipCharClass(regex, i);
+                if (i == -1) {
+                    return false;
+                }
+
+            } else if (c == '(') {
+                stack.addLast(new boolean[] { repeated, atomic });
+                repeated = false;
+                atomic = false;
+                i++;
+                if (i < size && regex.charAt(i) == '?') {
+                    // グループの種類の指定を読み飛ばす
+                    atomic = regex.startsWith(">", i + 1);
+                    while (i < size && ":)=!>".indexOf(regex.charAt(i)) == -1) {
+                        i++;
+                    }
+                    if (i < size && regex.charAt(i) != ')') {
+                        i++;
+                    }
+                }
+                continue;
+
+            } else if (c == ')') {
+                if (stack.isEmpty()) {
+                    return false;
+                }
+                inner = repeated && !atomic;
+                boolean[] outer = stack.removeLast();
+                repeated = outer[0] || repeated;
+                atomic = outer[1];
+                i++;
+
+            } else {
+                i++;
+            }
+
+            // 量指定子の処理
+            if (i < size) {
+                int max = -1;
+                char q = regex.charAt(i);
+                if (q == '*' || q == '+') {
+                    max = Integer.MAX_VALUE;
+                    i++;
+                } else if (q == '?') {
+                    max = 1;
+                    i++;
+                } else if (q == '{') {
+                    int end = regex.indexOf('}', i);
+                    if (end == -1) {
+                        return false;
+                    }
+                    String bounds = regex.substring(i + 1, end);
+                    int comma = bounds.indexOf(',');
+                    try {
+                        if (comma == -1) {
+                            max = Integer.parseInt(bounds.trim());
+                        } else if (bounds.substring(comma + 1).trim().length() == 0) {
+                            max = Integer.MAX_VALUE;
+                        } else {
+                            max = Integer.parseInt(bounds.substring(comma + 1).trim());
+                        }
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    i = end + 1;
+                }
+                if (max == -1) {
+                    continue;
+                }
+                if (i < size && regex.charAt(i) == '+') {
+                    // 強欲な量指定子
+                    i++;
+                    continue;
+                }
+                if (i < size && regex.charAt(i) == '?') {
+                    i++;
+                }
+                if (inner && max >= NESTED_REPEAT_LIMIT) {
+                    return true;
+                }
+                if (max > 1) {
+                    repeated = true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * エスケープされた文字をリテラル文字に変換します。
+     * @param e \ の次の文字
+     * @return リテラル文字。リテラルでない場合は 0。
+     */
+    private static char unescape(char e) {
+        switch (e) {
+        case 't':
+            return '\t';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 'f':
+            return '\f';
+        case 'a':
+            return '\u0007';
+        case 'e':
+            return '\u001B';
+        }
+        if (Character.isLetterOrDigit(e)) {
+            return 0;
+        }
+        return e;
+    }
+
+    /**
+     * リテラルでないエスケープの引数部分を読み飛ばします。
+     * 例えば \x41 の 41 や \p{Lu} の {Lu} がこれに該当します。
+     * @param regex 正規表現文字列
+     * @param e \ の次の文字
+     * @param pos 引数の開始位置
+     * @return 引数の次の位置。構文が不正な場合は -1。
+     */
+    private static int skipEscapeArgument(String regex, char e, int pos) {
+        int size = regex.length();
+        switch (e) {
+        case 'x':
+        case 'p':
+        case 'P':
+        case 'N':
+            if (pos < size && regex.charAt(pos) == '{') {
+                int end = regex.indexOf('}', pos);
+                return (end == -1) ? -1 : end + 1;
+            }
+            return Math.min(pos + ((e == 'x') ? 2 : 1), size);
+        case 'u':
+            return Math.min(pos + 4, size);
+        case 'c':
+            return Math.min(pos + 1, size);
+        case 'k':
+            int end = regex.indexOf('>', pos);
+            return (end == -1) ? -1 : end + 1;
+        }
+        if (Character.isDigit(e)) {
+            // 8 進数や後方参照の数字
+            while (pos < size && Character.isDigit(regex.charAt(pos))) {
+                pos++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * 文字列バッファの内容をリテラルリストに追加し、バッファを空にします。
+     * @param run 文字列バッファ
+     * @param literals リテラルリスト
+     */
+    private static void flush(StringBuilder run, List<String> literals) {
+        if (run.length() > 0) {
+            String literal = run.toString();
+            if (!literals.contains(literal)) {
+                literals.add(literal);
+            }
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * 文字クラスを読み飛ばします。
+     * @param regex 正規表現文字列
+     * @param start [ の位置
+     * @return 文字クラスの次の位置。閉じていない場合は -1。
+     */
+    private static int skipCharClass(String regex, int start) {
+        int depth = 0;
+        int size = regex.length();
+        for (int i = start; i < size; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+                // 先頭の ^ と ] はリテラル
+                if (i + 1 < size && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < size && regex.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * グループを読み飛ばします。
+     * @param regex 正規表現文字列
+     * @param start ( の位置
+     * @return グループの次の位置。閉じていない場合は -1。
+     */
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        int size = regex.length();
+        for (int i = start; i < size; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < size && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    if (end == -1) {
+                        return -1;
+                    }
+                    i = end + 1;
+                } else {
+                    i++;
+                }
+            } else if (c == '[') {
+                int end = skipCharClass(regex, i);
+                if (end == -1) {
+                    return -1;
+                }
+                i = end - 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -5,8 +5,8 @@
  */
 package mergedoc.core;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -14,7 +14,7 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * Pattern オブジェクトのキャッシュです。
- * キャッシュの同期化は行われません。
+ * 複数のスレッドから使用できます。
  *
  * @author Shinji Kashihara
  */
@@ -24,10 +24,10 @@ public class PatternCache {
     private static final Log log = LogFactory.getLog(PatternCache.class);
 
     /** 正規表現キャッシュ（キー：正規表現文字列、値：Pattern オブジェクト） */
-    private static final Map<String, Pattern> regexCache = new HashMap<String, Pattern>();
+    private static final ConcurrentMap<String, Pattern> regexCache = new ConcurrentHashMap<String, Pattern>();
 
     /** リテラルキャッシュ（キー：リテラル文字列、値：Pattern オブジェクト） */
-    private static final Map<String, Pattern> literalCache = new HashMap<String, Pattern>();
+    private static final ConcurrentMap<String, Pattern> literalCache = new ConcurrentHashMap<String, Pattern>();
 
     /**
      * コンストラクタです。生成不可。
@@ -51,7 +51,7 @@ public class PatternCache {
         Pattern pattern = regexCache.get(regex);
         if (pattern == null) {
             pattern = Pattern.compile(regex);
-            regexCache.put(regex, pattern);
+            regexCache.putIfAbsent(regex, pattern);
         }
         return pattern;
     }
@@ -72,7 +72,7 @@ public class PatternCache {
         Pattern pattern = literalCache.get(target);
         if (pattern == null) {
             pattern = Pattern.compile(target, Pattern.LITERAL);
-            literalCache.put(target, pattern);
+            literalCache.putIfAbsent(target, pattern);
         }
         return pattern;
     }
@@ -56,4 +56,18 @@ public interface Preference {
      * @return グローバル置換エントリの配列
      */
     ReplaceEntry[] getGlobalEntries();
+
+    /**
+     * マージの対象とするエントリのパスの glob パターンの配列を取得します。
+     * 空の配列の場合はすべてのエントリを対象とします。
+     * @return 対象パスの glob パターンの配列
+     */
+    String[] getIncludePatterns();
+
+    /**
+     * マージの対象外とするエントリのパスの glob パターンの配列を取得します。
+     * 対象外のエントリはマージせずにそのまま出力されます。
+     * @return 除外パスの glob パターンの配列
+     */
+    String[] getExcludePatterns();
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import mergedoc.MergeDocException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * 入力ソースアーカイブファイルの指定したクラスだけをマージするクラスです。
+ * <p>
+ * IDE でソースを表示する場合など、アーカイブ全体ではなく 1 つのクラスの
+ * マージ結果だけが必要な場合に使用します。入力ソースアーカイブファイルは
+ * {@link ZipFile} で開き、セントラルディレクトリからクラス名とエントリの索引を
+ * 作成するため、検索のたびにアーカイブを走査することはありません。マージは
+ * {@link MergeManager#execute()} と同じ処理（対象パスと除外パス、API ドキュメントが
+ * 無いクラスの判定、グローバル置換とクラス別置換を含む）で行い、結果は
+ * {@link MergeManager#execute()} で出力ソースアーカイブファイルに書き込まれる内容と
+ * 同じになります。
+ * <p>
+ * マージ結果は最も長く使用されていないものから破棄するキャッシュに保持します。
+ * キャッシュの大きさの上限はシステムプロパティ {@value #CACHE_SIZE_KEY} で MB 単位で
+ * 指定できます（デフォルト 16、0 でキャッシュしない）。API ドキュメントの解析結果は
+ * {@link APIDocumentCache} で共有されるため、同じパッケージのクラスは 2 回目以降
+ * 解析を省略します。開いた後に入力ソースアーカイブファイルや API ドキュメントが
+ * 更新された場合は、新しいインスタンスを作成してください。
+ * <p>
+ * 入力ソースアーカイブファイルは ZIP 形式（.zip または .jar）のみ使用できます。
+ * マージ設定の出力ソースアーカイブファイルは使用しません。複数のスレッドから
+ * 使用できます。
+ *
+ * @author Shinji Kashihara
+ */
+public class SourceLookup implements Closeable {
+
+    /** マージ結果のキャッシュの大きさの上限（MB）を指定するシステムプロパティのキー */
+    public static final String CACHE_SIZE_KEY = "mergedoc.lookup.cache.mb";
+
+    /** マージ結果のキャッシュの大きさの上限（バイト） */
+    private static final long MAX_CACHE_BYTES = Math.max(0, Long.getLong(CACHE_SIZE_KEY, 16)) * 1024 * 1024;
+
+    /** 入力ソースアーカイブファイル */
+    private final ZipFile zipFile;
+
+    /** エントリ単位の変換を行うマージマネージャ */
+    private final MergeManager mergeManager;
+
+    /** クラス名（パッケージを含む）とエントリ名の索引 */
+    private final Map<String, String> classIndex = new HashMap<String, String>();
+
+    /** エントリ名とマージ結果のキャッシュ（アクセス順） */
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<String, byte[]>(256, 0.75f, true);
+
+    /** キャッシュしているマージ結果のバイト数の合計 */
+    private long cacheBytes;
+
+    /** キャッシュのヒット数 */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** キャッシュのミス数 */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * コンストラクタです。
+     * 入力ソースアーカイブファイルを開き、クラス名の索引を作成します。
+     * @param pref マージ設定
+     * @throws MergeDocException 入力ソースアーカイブファイルが ZIP 形式でない場合、
+     *         コンフィグ情報の取得に失敗した場合
+     * @throws IOException 入力ソースアーカイブファイルを開けない場合
+     */
+    public SourceLookup(Preference pref) throws MergeDocException, IOException {
+
+        File inFile = pref.getInputArchive();
+        String inName = inFile.getName();
+        if (!inName.endsWith(".zip") && !inName.endsWith(".jar")) {
+            throw new MergeDocException("クラス単位のマージは ZIP 形式の入力ソースアーカイブファイルのみ使用できます。\n" + inFile);
+        }
+        mergeManager = new MergeManager();
+        mergeManager.prepareEntryConversion(pref);
+        zipFile = new ZipFile(inFile);
+        try {
+            buildIndex();
+        } catch (RuntimeException e) {
+            zipFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * セントラルディレクトリの Java ソースのエントリからクラス名の索引を作成します。
+     * エントリ名の先頭にパッケージ以外のディレクトリ（モジュール名など）が含まれる
+     * 場合を考慮し、{@link DocumentIndex#classPaths(String)} の候補をすべて登録します。
+     * 複数のエントリが同じ候補になる場合は、除いたディレクトリが少ないエントリを優先します。
+     */
+    private void buildIndex() {
+
+        Map<String, Integer> depths = new HashMap<String, Integer>();
+        for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements();) {
+            ZipEntry entry = e.nextElement();
+            String entryName = entry.getName();
+            if (entry.isDirectory() || !entryName.endsWith(".java")) {
+                continue;
+            }
+            List<String> paths = DocumentIndex.classPaths(entryName);
+            for (int depth = 0; depth < paths.size(); depth++) {
+                String className = paths.get(depth).replace('/', '.');
+                Integer known = depths.get(className);
+                if (known == null || depth < known) {
+                    depths.put(className, depth);
+                    classIndex.put(className, entryName);
+                }
+            }
+        }
+    }
+
+    /**
+     * クラス名に対応するエントリ名を取得します。
+     * インナークラス名（java.util.Map.Entry や java.util.Map$Entry）の場合は、
+     * トップレベルクラスのエントリ名を返します。
+     * @param className クラス名（パッケージを含む）
+     * @return エントリ名。入力ソースアーカイブファイルに無い場合は null。
+     */
+    public String findEntryName(String className) {
+
+        String name = className.replace('$', '.');
+        for (;;) {
+            String entryName = classIndex.get(name);
+            if (entryName != null) {
+                return entryName;
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot == -1) {
+                return null;
+            }
+            name = name.substring(0, dot);
+        }
+    }
+
+    /**
+     * クラスの Java ソースを API ドキュメントとマージした結果を取得します。
+     * @param className クラス名（パッケージを含む）
+     * @return 出力エンコーディングでエンコードされたマージ後の Java ソース。
+     *         入力ソースアーカイブファイルに無い場合は null。
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     * @throws SAXException SAX パース例外が発生した場合
+     * @throws IOException 入出力例外が発生した場合
+     */
+    public byte[] getSource(String className) throws MergeDocException, SAXException, IOException {
+        String entryName = findEntryName(className);
+        return (entryName == null) ? null : getEntry(entryName);
+    }
+
+    /**
+     * エントリを {@link MergeManager#execute()} で出力される内容に変換して取得します。
+     * Java ソース以外のエントリはそのままの内容を返します。
+     * @param entryName エントリ名
+     * @return 変換後の内容。入力ソースアーカイブファイルに無い場合は null。
+     * @throws MergeDocException コンフィグ情報の取得に失敗した場合
+     * @throws SAXException SAX パース例外が発生した場合
+     * @throws IOException 入出力例外が発生した場合
+     */
+    public byte[] getEntry(String entryName) throws MergeDocException, SAXException, IOException {
+
+        byte[] result;
+        synchronized (cache) {
+            result = cache.get(entryName);
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+            return result.clone();
+        }
+        ZipEntry entry = zipFile.getEntry(entryName);
+        if (entry == null) {
+            return null;
+        }
+        result = mergeManager.convertEntry(zipFile, entry);
+        if (entryName.endsWith(".java")) {
+            misses.incrementAndGet();
+            putCache(entryName, result);
+        }
+        return result.clone();
+    }
+
+    /**
+     * マージ結果をキャッシュに登録し、上限を超えた分を古いものから破棄します。
+     * @param entryName エントリ名
+     * @param result マージ結果
+     */
+    private void putCache(String entryName, byte[] result) {
+        if (result.length > MAX_CACHE_BYTES) {
+            return;
+        }
+        synchronized (cache) {
+            byte[] old = cache.put(entryName, result);
+            if (old != null) {
+                cacheBytes -= old.length;
+            }
+            cacheBytes += result.length;
+            for (Iterator<byte[]> it = cache.values().iterator(); cacheBytes > MAX_CACHE_BYTES && it.hasNext();) {
+                cacheBytes -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 入力ソースアーカイブファイルのすべてのエントリを取得します。
+     * 順序はセントラルディレクトリの順です。
+     * @return エントリのリスト
+     */
+    public List<? extends ZipEntry> getEntries() {
+        return Collections.list(zipFile.entries());
+    }
+
+    /**
+     * 処理状態を取得します。マージした Java ソースの処理段階ごとの時間などを
+     * 累積で保持します。
+     * @return 処理状態
+     */
+    public WorkingState getWorkingState() {
+        return mergeManager.getWorkingState();
+    }
+
+    /**
+     * マージ結果のキャッシュのヒット率を表示用の文字列で取得します。
+     * @return 表示用の文字列
+     */
+    public String getCacheStatsText() {
+        long hit = hits.get();
+        long lookup = hit + misses.get();
+        return "マージ結果キャッシュ: ヒット " + hit + " 件, ミス " + (lookup - hit) + " 件"
+            + " (ヒット率 " + String.format("%.1f", (lookup == 0) ? 0 : hit * 100.0 / lookup) + "%)";
+    }
+
+    /**
+     * 入力ソースアーカイブファイルを閉じます。
+     * @throws IOException 入出力例外が発生した場合
+     */
+    @Override
+    public void close() throws IOException {
+        zipFile.close();
+    }
+}
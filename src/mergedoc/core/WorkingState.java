@@ -5,14 +5,115 @@
  */
 package mergedoc.core;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import javax.swing.event.ChangeListener;
 
 /**
  * 処理状態を保持するクラスです。
+ * <p>
+ * 処理段階ごとの累積時間とコメントの一致数などのカウンタも保持します。
+ * これらは処理中に別スレッドから参照することができます。
+ * <p>
+ * キャンセルは別スレッドから行うことができます。キャンセルすると処理中の
+ * スレッドに割り込みを行い、エントリの途中であっても Java ソースの走査や
+ * 置換処理のループで {@link #checkInterrupted()} により処理を打ち切ります。
  * @author Shinji Kashihara
  */
 public class WorkingState {
 
+    /**
+     * 時間を計測する処理段階です。
+     */
+    public static enum Stage {
+
+        /** アーカイブからの読み込みと展開 */
+        READ("読み込み・展開"),
+
+        /** 文字コードのデコードと改行、タブの正規化 */
+        DECODE("デコード"),
+
+        /** クラス名とコメント、シグネチャの走査 */
+        CLASS_SCAN("クラス走査"),
+
+        /** API ドキュメントの読み込みと解析 */
+        DOC_LOAD("API ドキュメント解析"),
+
+        /** 日本語コメントの構築 */
+        COMMENT_BUILD("コメント構築"),
+
+        /** コメントの行数調整 */
+        RESIZE("行数調整"),
+
+        /** 置換エントリの適用 */
+        FILTER("置換"),
+
+        /** 文字コードのエンコード */
+        ENCODE("エンコード"),
+
+        /** アーカイブへの圧縮と書き込み */
+        DEFLATE("圧縮・書き込み");
+
+        /** 表示名 */
+        private final String label;
+
+        /**
+         * コンストラクタです。
+         * @param label 表示名
+         */
+        private Stage(String label) {
+            this.label = label;
+        }
+
+        /**
+         * 表示名を取得します。
+         * @return 表示名
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * カウンタです。
+     */
+    public static enum Counter {
+
+        /** API ドキュメントに対応するコメントがあったコメント数 */
+        COMMENT_MATCHED,
+
+        /** API ドキュメントに対応するコメントが無かったコメント数 */
+        COMMENT_UNMATCHED,
+
+        /** 行数調整が出来ず英語のまま残したコメント数 */
+        RESIZE_FALLBACK,
+
+        /** 入力エントリの展開後のバイト数 */
+        BYTES_IN,
+
+        /** 出力エントリの圧縮前のバイト数 */
+        BYTES_OUT,
+
+        /** 中断したマージの再開時に前回の出力から複製したエントリ数 */
+        ENTRY_RESUMED,
+
+        /** API ドキュメントが無いためデコードせずにそのまま出力した Java ソースのエントリ数 */
+        ENTRY_PASSED_THROUGH,
+
+        /** 対象パスに一致しないか除外パスに一致したためそのまま出力した Java ソースのエントリ数 */
+        ENTRY_EXCLUDED,
+
+        /** 解析済みの API ドキュメントをキャッシュから取得した数 */
+        DOC_CACHE_HIT,
+
+        /** API ドキュメントがキャッシュに無いか更新されていたため解析した数 */
+        DOC_CACHE_MISS,
+
+        /** キャッシュの上限を超えたため破棄した API ドキュメントの数 */
+        DOC_CACHE_EVICTED
+    }
+
     /** 状態監視用のリスナ */
     private ChangeListener changeListener;
 
@@ -23,11 +124,23 @@ public class WorkingState {
     private int changedCount;
 
     /** キャンセル */
-    private boolean canceled;
+    private volatile boolean canceled;
+
+    /** 作成途中の出力を破棄するキャンセル */
+    private volatile boolean aborted;
+
+    /** 処理中のスレッド */
+    private volatile Thread workerThread;
 
     /** 処理に要した時間（秒） */
     private long workTime;
 
+    /** 処理段階ごとの累積時間（ナノ秒） */
+    private final AtomicLongArray stageTimes = new AtomicLongArray(Stage.values().length);
+
+    /** カウンタの値 */
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
     /**
      * コンストラクタです。
      */
@@ -39,6 +152,13 @@ public class WorkingState {
      */
     void initialize() {
         canceled = false;
+        aborted = false;
+        for (int i = 0; i < stageTimes.length(); i++) {
+            stageTimes.set(i, 0);
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
     }
 
     /**
@@ -59,11 +179,49 @@ public class WorkingState {
         changeListener.stateChanged(null);
     }
 
+    /**
+     * 処理中のスレッドを設定します。キャンセル時に割り込みを行います。
+     * @param workerThread 処理中のスレッド。処理終了時は null。
+     */
+    void setWorkerThread(Thread workerThread) {
+        this.workerThread = workerThread;
+        if (workerThread != null && canceled) {
+            workerThread.interrupt();
+        }
+    }
+
     /**
      * キャンセル状態にします。
+     * 処理中のスレッドがある場合は割り込みを行います。
      */
     public void cancel() {
         canceled = true;
+        Thread thread = workerThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * キャンセル状態にし、作成途中の出力ファイルとチェックポイントも破棄します。
+     * ユーザーの操作による中止で使用し、次回のマージは前回の続きから再開しません。
+     * 終了時などの {@link #cancel()} では、チェックポイントを記録済みであれば
+     * 次回のマージで再開します。
+     */
+    public void abort() {
+        aborted = true;
+        cancel();
+    }
+
+    /**
+     * 現在のスレッドが割り込まれている場合は、キャンセルされたものとして
+     * 例外をスローします。時間のかかるループから定期的に呼び出します。
+     * @throws CancellationException 現在のスレッドが割り込まれている場合
+     */
+    public static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("処理がキャンセルされました。");
+        }
     }
 
     /**
@@ -82,6 +240,14 @@ public class WorkingState {
         return canceled;
     }
 
+    /**
+     * {@link #abort()} でキャンセルされたか判定します。
+     * @return 作成途中の出力を破棄する場合は true
+     */
+    boolean isAborted() {
+        return aborted;
+    }
+
     /**
      * 処理対象文字列変更回数を取得します．
      * @return 処理対象文字列変更回数
@@ -105,4 +271,91 @@ public class WorkingState {
     public long getWorkTime() {
         return workTime;
     }
+
+    /**
+     * 開始時刻から現在までの時間を処理段階の時間に加算します。
+     * 戻り値を次の処理段階の開始時刻として使用できます。
+     * @param stage 処理段階
+     * @param start 開始時刻（{@link System#nanoTime()} の値）
+     * @return 現在時刻（{@link System#nanoTime()} の値）
+     */
+    long lap(Stage stage, long start) {
+        long now = System.nanoTime();
+        stageTimes.addAndGet(stage.ordinal(), now - start);
+        return now;
+    }
+
+    /**
+     * 処理段階の時間を加算します。
+     * @param stage 処理段階
+     * @param nanos 加算する時間（ナノ秒）
+     */
+    void addTime(Stage stage, long nanos) {
+        stageTimes.addAndGet(stage.ordinal(), nanos);
+    }
+
+    /**
+     * カウンタに値を加算します。
+     * @param counter カウンタ
+     * @param delta 加算する値
+     */
+    void add(Counter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    /**
+     * 処理段階の累積時間を取得します。
+     * @param stage 処理段階
+     * @return 累積時間（ナノ秒）
+     */
+    public long getTime(Stage stage) {
+        return stageTimes.get(stage.ordinal());
+    }
+
+    /**
+     * カウンタの値を取得します。
+     * @param counter カウンタ
+     * @return カウンタの値
+     */
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * 処理段階ごとの時間とカウンタを表示用の複数行の文字列で取得します。
+     * @return 表示用の文字列
+     */
+    public String getMetricsText() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("処理段階ごとの時間:");
+        for (Stage stage : Stage.values()) {
+            sb.append("\n  ").append(stage.getLabel()).append(": ");
+            sb.append(String.format("%.2f", getTime(stage) / 1e9)).append("秒");
+        }
+        sb.append("\nコメント: 一致 ").append(getCount(Counter.COMMENT_MATCHED));
+        sb.append(" 件, 不一致 ").append(getCount(Counter.COMMENT_UNMATCHED));
+        sb.append(" 件, 行数調整不可 ").append(getCount(Counter.RESIZE_FALLBACK)).append(" 件");
+        sb.append("\n非圧縮サイズ: 入力 ").append(String.format("%.1f", getCount(Counter.BYTES_IN) / (1024.0 * 1024.0))).append(" MB");
+        sb.append(", 出力 ").append(String.format("%.1f", getCount(Counter.BYTES_OUT) / (1024.0 * 1024.0))).append(" MB");
+        if (getCount(Counter.ENTRY_EXCLUDED) > 0) {
+            sb.append("\n対象外の Java ソース: ").append(getCount(Counter.ENTRY_EXCLUDED)).append(" エントリをそのまま出力");
+        }
+        if (getCount(Counter.ENTRY_PASSED_THROUGH) > 0) {
+            sb.append("\nAPI ドキュメントが無い Java ソース: ").append(getCount(Counter.ENTRY_PASSED_THROUGH)).append(" エントリをそのまま出力");
+        }
+        long hit = getCount(Counter.DOC_CACHE_HIT);
+        long lookup = hit + getCount(Counter.DOC_CACHE_MISS);
+        if (lookup > 0) {
+            sb.append("\nAPI ドキュメントキャッシュ: ヒット ").append(hit).append(" 件, ミス ").append(lookup - hit);
+            sb.append(" 件, 破棄 ").append(getCount(Counter.DOC_CACHE_EVICTED)).append(" 件");
+            sb.append(" (ヒット率 ").append(String.format("%.1f", hit * 100.0 / lookup)).append("%)");
+        }
+        sb.append(MemoCache.getStatsText());
+        sb.append(CommentStore.getStatsText());
+        if (getCount(Counter.ENTRY_RESUMED) > 0) {
+            sb.append("\n再開: 前回中断した出力から ").append(getCount(Counter.ENTRY_RESUMED)).append(" エントリを複製");
+        }
+        return sb.toString();
+    }
 }
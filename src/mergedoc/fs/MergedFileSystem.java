@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.ZipEntry;
+
+import mergedoc.MergeDocException;
+import mergedoc.core.Preference;
+import mergedoc.core.SourceLookup;
+
+import org.xml.sax.SAXException;
+
+/**
+ * 入力ソースアーカイブファイルをマージ済みのアーカイブとして見せる読み込み専用の
+ * ファイルシステムです。
+ * <p>
+ * ディレクトリの構成は入力ソースアーカイブファイルのセントラルディレクトリから
+ * 作成し、ファイルの内容は読み込んだときに {@link SourceLookup} でエントリ単位に
+ * マージします。マージ結果は SourceLookup のキャッシュに保持されます。
+ * <p>
+ * ファイルのサイズ属性は、一度読み込んだファイルはマージ後のサイズ、まだ読み込んで
+ * いないファイルは入力ソースアーカイブファイルのエントリのサイズです。
+ * 属性の取得のためにマージは行いません。
+ *
+ * @author Shinji Kashihara
+ */
+class MergedFileSystem extends FileSystem {
+
+    /** ファイルシステムプロバイダ */
+    private final MergedFileSystemProvider provider;
+
+    /** 入力ソースアーカイブファイルのパス（プロバイダでの登録キー） */
+    private final Path archive;
+
+    /** 入力ソースアーカイブファイルの URI */
+    private final URI archiveUri;
+
+    /** マージを行うクラス */
+    private final SourceLookup lookup;
+
+    /** ディレクトリの絶対パスと子の名前の集合（セントラルディレクトリの順） */
+    private final Map<String, Set<String>> directories = new HashMap<String, Set<String>>();
+
+    /** ファイルの絶対パスとエントリ */
+    private final Map<String, ZipEntry> files = new HashMap<String, ZipEntry>();
+
+    /** 読み込んだファイルの絶対パスとマージ後のサイズ */
+    private final Map<String, Long> mergedSizes = new ConcurrentHashMap<String, Long>();
+
+    /** 入力ソースアーカイブファイルの最終更新日時（暗黙のディレクトリに使用） */
+    private final FileTime archiveTime;
+
+    /** ファイルストア */
+    private final FileStore fileStore = new MergedFileStore();
+
+    /** 開いている場合は true */
+    private volatile boolean open = true;
+
+    /**
+     * コンストラクタです。
+     * @param provider ファイルシステムプロバイダ
+     * @param archive 入力ソースアーカイブファイルのパス
+     * @param pref マージ設定
+     * @throws IOException 入力ソースアーカイブファイルを開けない場合
+     */
+    MergedFileSystem(MergedFileSystemProvider provider, Path archive, Preference pref) throws IOException {
+
+        this.provider = provider;
+        this.archive = archive;
+        this.archiveUri = archive.toUri();
+        this.archiveTime = FileTime.fromMillis(archive.toFile().lastModified());
+        try {
+            lookup = new SourceLookup(pref);
+        } catch (MergeDocException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        directories.put("/", new LinkedHashSet<String>());
+        for (ZipEntry entry : lookup.getEntries()) {
+            String path = "/" + entry.getName();
+            if (entry.isDirectory()) {
+                addDirectory(path.substring(0, path.length() - 1));
+            } else {
+                files.put(path, entry);
+                addChild(path);
+            }
+        }
+    }
+
+    /**
+     * ディレクトリを親ディレクトリとともに登録します。
+     * @param path ディレクトリの絶対パス
+     */
+    private void addDirectory(String path) {
+        if (path.length() == 0 || directories.containsKey(path)) {
+            return;
+        }
+        directories.put(path, new LinkedHashSet<String>());
+        addChild(path);
+    }
+
+    /**
+     * 親ディレクトリに子の名前を登録します。親ディレクトリが無い場合は作成します。
+     * @param path 子の絶対パス
+     */
+    private void addChild(String path) {
+        int slash = path.lastIndexOf('/');
+        String parent = (slash == 0) ? "/" : path.substring(0, slash);
+        addDirectory(parent);
+        directories.get(parent).add(path.substring(slash + 1));
+    }
+
+    /**
+     * 入力ソースアーカイブファイルの URI を取得します。
+     * @return 入力ソースアーカイブファイルの URI
+     */
+    URI getArchiveUri() {
+        return archiveUri;
+    }
+
+    /**
+     * ファイルシステムが開いていることを確認します。
+     * @throws ClosedFileSystemException 閉じている場合
+     */
+    void checkOpen() {
+        if (!open) {
+            throw new ClosedFileSystemException();
+        }
+    }
+
+    /**
+     * パスを検索用の絶対パス文字列に変換します。
+     * @param path パス
+     * @return 正規化した絶対パス文字列
+     */
+    private static String key(MergedPath path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * パスが存在するか判定します。
+     * @param path パス
+     * @return 存在する場合は true
+     */
+    boolean exists(MergedPath path) {
+        String key = key(path);
+        return files.containsKey(key) || directories.containsKey(key);
+    }
+
+    /**
+     * ディレクトリの子のパスのリストを取得します。
+     * @param dir ディレクトリのパス
+     * @return 子のパスのリスト
+     * @throws IOException ディレクトリが存在しない場合
+     */
+    List<Path> list(MergedPath dir) throws IOException {
+        checkOpen();
+        Set<String> names = directories.get(key(dir));
+        if (names == null) {
+            if (files.containsKey(key(dir))) {
+                throw new NotDirectoryException(dir.toString());
+            }
+            throw new NoSuchFileException(dir.toString());
+        }
+        List<Path> list = new ArrayList<Path>(names.size());
+        for (String name : names) {
+            list.add(dir.resolve(name));
+        }
+        return list;
+    }
+
+    /**
+     * ファイルの内容をマージして取得します。
+     * @param path ファイルのパス
+     * @return マージ後の内容
+     * @throws IOException ファイルが存在しない場合、マージに失敗した場合
+     */
+    byte[] read(MergedPath path) throws IOException {
+        checkOpen();
+        String key = key(path);
+        ZipEntry entry = files.get(key);
+        if (entry == null) {
+            if (directories.containsKey(key)) {
+                throw new FileSystemException(path.toString(), null, "ディレクトリです。");
+            }
+            throw new NoSuchFileException(path.toString());
+        }
+        byte[] bytes;
+        try {
+            bytes = lookup.getEntry(entry.getName());
+        } catch (MergeDocException e) {
+            throw new IOException(e.getMessage(), e);
+        } catch (SAXException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (bytes == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        mergedSizes.put(key, (long) bytes.length);
+        return bytes;
+    }
+
+    /**
+     * ファイルの基本属性を取得します。
+     * @param path パス
+     * @return 基本属性
+     * @throws IOException ファイルが存在しない場合
+     */
+    BasicFileAttributes readAttributes(MergedPath path) throws IOException {
+        checkOpen();
+        String key = key(path);
+        ZipEntry entry = files.get(key);
+        if (entry != null) {
+            Long size = mergedSizes.get(key);
+            long length = (size != null) ? size : Math.max(0, entry.getSize());
+            return new MergedFileAttributes(false, length, FileTime.fromMillis(entry.getTime()), key);
+        }
+        if (directories.containsKey(key)) {
+            return new MergedFileAttributes(true, 0, archiveTime, key);
+        }
+        throw new NoSuchFileException(path.toString());
+    }
+
+    @Override
+    public FileSystemProvider provider() {
+        return provider;
+    }
+
+    /**
+     * ファイルシステムを閉じ、入力ソースアーカイブファイルを閉じます。
+     * @throws IOException 入出力例外が発生した場合
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+        }
+        provider.removeFileSystem(archive);
+        lookup.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.<Path>singletonList(new MergedPath(this, "/"));
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.singletonList(fileStore);
+    }
+
+    /**
+     * ファイルストアを取得します。
+     * @return ファイルストア
+     */
+    FileStore getFileStore() {
+        return fileStore;
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Collections.singleton("basic");
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        StringBuilder sb = new StringBuilder(first);
+        for (String name : more) {
+            if (name.length() > 0) {
+                if (sb.length() > 0) {
+                    sb.append('/');
+                }
+                sb.append(name);
+            }
+        }
+        return new MergedPath(this, sb.toString());
+    }
+
+    /**
+     * パスマッチャを取得します。構文は glob と regex をサポートします。
+     * @param syntaxAndPattern 構文とパターン
+     * @return パスマッチャ
+     */
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("構文が指定されていません: " + syntaxAndPattern);
+        }
+        String syntax = syntaxAndPattern.substring(0, colon);
+        String pattern = syntaxAndPattern.substring(colon + 1);
+        String regex;
+        if (syntax.equalsIgnoreCase("glob")) {
+            regex = globToRegex(pattern);
+        } else if (syntax.equalsIgnoreCase("regex")) {
+            regex = pattern;
+        } else {
+            throw new UnsupportedOperationException("サポートしていない構文です: " + syntax);
+        }
+        final Pattern compiled = Pattern.compile(regex);
+        return new PathMatcher() {
+            @Override
+            public boolean matches(Path path) {
+                return compiled.matcher(path.toString()).matches();
+            }
+        };
+    }
+
+    /**
+     * glob パターンを正規表現に変換します。
+     * * と ? は / に一致せず、** は / を含めて一致します。
+     * @param glob glob パターン
+     * @return 正規表現
+     */
+    private static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+            case '*':
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    sb.append(".*");
+                    i++;
+                } else {
+                    sb.append("[^/]*");
+                }
+                break;
+            case '?':
+                sb.append("[^/]");
+                break;
+            case '\\':
+                if (++i >= glob.length()) {
+                    throw new PatternSyntaxException("末尾に \\ があります。", glob, i - 1);
+                }
+                sb.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                break;
+            case '[':
+                int end = glob.indexOf(']', i + 1);
+                if (end == -1) {
+                    throw new PatternSyntaxException("[ が閉じていません。", glob, i);
+                }
+                String chars = glob.substring(i + 1, end);
+                sb.append('[');
+                if (chars.startsWith("!")) {
+                    sb.append('^');
+                    chars = chars.substring(1);
+                }
+                sb.append(chars.replace("\\", "\\\\").replace("[", "\\[").replace("&", "\\&"));
+                sb.append(']');
+                i = end;
+                break;
+            case '{':
+                if (inGroup) {
+                    throw new PatternSyntaxException("{ は入れ子にできません。", glob, i);
+                }
+                sb.append("(?:");
+                inGroup = true;
+                break;
+            case '}':
+                if (inGroup) {
+                    sb.append(')');
+                    inGroup = false;
+                } else {
+                    sb.append("\\}");
+                }
+                break;
+            case ',':
+                sb.append(inGroup ? "|" : ",");
+                break;
+            default:
+                if ("^$.|+()".indexOf(c) != -1) {
+                    sb.append('\\');
+                }
+                sb.append(c);
+            }
+        }
+        if (inGroup) {
+            throw new PatternSyntaxException("{ が閉じていません。", glob, glob.length());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("ユーザーの検索はサポートしません。");
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("変更の監視はサポートしません。");
+    }
+
+    @Override
+    public String toString() {
+        return archive.toString();
+    }
+
+    /**
+     * ファイルの基本属性です。
+     */
+    private static class MergedFileAttributes implements BasicFileAttributes {
+
+        /** ディレクトリの場合は true */
+        private final boolean directory;
+
+        /** サイズ */
+        private final long size;
+
+        /** 最終更新日時 */
+        private final FileTime time;
+
+        /** ファイルキー */
+        private final String fileKey;
+
+        /**
+         * コンストラクタです。
+         * @param directory ディレクトリの場合は true
+         * @param size サイズ
+         * @param time 最終更新日時
+         * @param fileKey ファイルキー
+         */
+        MergedFileAttributes(boolean directory, long size, FileTime time, String fileKey) {
+            this.directory = directory;
+            this.size = size;
+            this.time = time;
+            this.fileKey = fileKey;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return time;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !directory;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return fileKey;
+        }
+    }
+
+    /**
+     * ファイルストアです。
+     */
+    private class MergedFileStore extends FileStore {
+
+        @Override
+        public String name() {
+            return archive.toString();
+        }
+
+        @Override
+        public String type() {
+            return MergedFileSystemProvider.SCHEME;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+
+        @Override
+        public long getTotalSpace() throws IOException {
+            return archive.toFile().length();
+        }
+
+        @Override
+        public long getUsableSpace() {
+            return 0;
+        }
+
+        @Override
+        public long getUnallocatedSpace() {
+            return 0;
+        }
+
+        @Override
+        public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+            return type == BasicFileAttributeView.class;
+        }
+
+        @Override
+        public boolean supportsFileAttributeView(String name) {
+            return name.equals("basic");
+        }
+
+        @Override
+        public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+            return null;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) {
+            throw new UnsupportedOperationException("属性 " + attribute + " はサポートしません。");
+        }
+    }
+}
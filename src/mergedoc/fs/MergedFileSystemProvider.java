@@ -0,0 +1,614 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mergedoc.MergeDocException;
+import mergedoc.core.Preference;
+import mergedoc.xml.ConfigManager;
+import mergedoc.xml.ReplaceEntry;
+
+/**
+ * 入力ソースアーカイブファイルをマージ済みのアーカイブとして見せる
+ * ファイルシステムプロバイダです。
+ * <p>
+ * URI のスキームは {@value #SCHEME} で、jar スキームと同じく
+ * <code>mergedoc:file:///path/src.zip!/java/lang/String.java</code> の形式です。
+ * ファイルシステムは {@link java.nio.file.FileSystems#newFileSystem(URI, Map)} に
+ * 入力ソースアーカイブファイルの URI と、次のキーを持つ環境マップを指定して作成します。
+ * <pre>
+ * {@value #ENV_DOC}             API ドキュメントディレクトリ（必須、String または File）
+ * {@value #ENV_DOC_ENCODING}     API ドキュメントエンコーディング
+ * {@value #ENV_INPUT_ENCODING}   入力ソースエンコーディング
+ * {@value #ENV_OUTPUT_ENCODING}  出力ソースエンコーディング
+ * {@value #ENV_REPLACE}         グローバル置換エントリの説明（String、String[] または Collection）
+ * {@value #ENV_INCLUDE}         対象パスの glob パターン（String、String[] または Collection）
+ * {@value #ENV_EXCLUDE}         除外パスの glob パターン（String、String[] または Collection）
+ * {@value #ENV_PREFERENCE}      マージ設定（{@link Preference}、指定した場合は他のキーは無視）
+ * </pre>
+ * エンコーディングのデフォルトは実行環境のデフォルトエンコーディングです。
+ * <p>
+ * ファイルシステムは読み込み専用で、ファイルの内容は読み込んだときにエントリ単位で
+ * マージします。ディレクトリの一覧や属性の取得ではマージは行いません。
+ * 同じ入力ソースアーカイブファイルのファイルシステムは同時に 1 つのみ開けます。
+ *
+ * @author Shinji Kashihara
+ */
+public class MergedFileSystemProvider extends FileSystemProvider {
+
+    /** URI のスキーム */
+    public static final String SCHEME = "mergedoc";
+
+    /** 環境マップのキー: API ドキュメントディレクトリ */
+    public static final String ENV_DOC = "doc";
+
+    /** 環境マップのキー: API ドキュメントエンコーディング */
+    public static final String ENV_DOC_ENCODING = "docenc";
+
+    /** 環境マップのキー: 入力ソースエンコーディング */
+    public static final String ENV_INPUT_ENCODING = "srcenc";
+
+    /** 環境マップのキー: 出力ソースエンコーディング */
+    public static final String ENV_OUTPUT_ENCODING = "outenc";
+
+    /** 環境マップのキー: グローバル置換エントリの説明 */
+    public static final String ENV_REPLACE = "replace";
+
+    /** 環境マップのキー: 対象パスの glob パターン */
+    public static final String ENV_INCLUDE = "include";
+
+    /** 環境マップのキー: 除外パスの glob パターン */
+    public static final String ENV_EXCLUDE = "exclude";
+
+    /** 環境マップのキー: マージ設定 */
+    public static final String ENV_PREFERENCE = "preference";
+
+    /** URI のアーカイブとエントリの区切り */
+    private static final String SEPARATOR = "!/";
+
+    /** 入力ソースアーカイブファイルのパスと開いているファイルシステム */
+    private final Map<Path, MergedFileSystem> fileSystems = new HashMap<Path, MergedFileSystem>();
+
+    /**
+     * コンストラクタです。
+     */
+    public MergedFileSystemProvider() {
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    /**
+     * URI から入力ソースアーカイブファイルのパスを取得します。
+     * @param uri URI
+     * @return 入力ソースアーカイブファイルの実パス
+     * @throws IOException 入力ソースアーカイブファイルが存在しない場合
+     */
+    private Path toArchivePath(URI uri) throws IOException {
+        checkScheme(uri);
+        String spec = uri.getRawSchemeSpecificPart();
+        int sep = spec.indexOf(SEPARATOR);
+        if (sep != -1) {
+            spec = spec.substring(0, sep);
+        }
+        Path archive;
+        try {
+            archive = Paths.get(new URI(spec));
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("入力ソースアーカイブファイルの URI が不正です: " + uri, e);
+        }
+        return archive.toRealPath();
+    }
+
+    /**
+     * URI のスキームを確認します。
+     * @param uri URI
+     * @throws IllegalArgumentException スキームが異なる場合
+     */
+    private static void checkScheme(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("スキームが " + SCHEME + " ではありません: " + uri);
+        }
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        Path archive = toArchivePath(uri);
+        Preference pref = createPreference(archive.toFile(), env);
+        synchronized (fileSystems) {
+            if (fileSystems.containsKey(archive)) {
+                throw new FileSystemAlreadyExistsException(archive.toString());
+            }
+            MergedFileSystem fs = new MergedFileSystem(this, archive, pref);
+            fileSystems.put(archive, fs);
+            return fs;
+        }
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        return getOpenFileSystem(uri);
+    }
+
+    /**
+     * URI の入力ソースアーカイブファイルの開いているファイルシステムを取得します。
+     * @param uri URI
+     * @return ファイルシステム
+     * @throws FileSystemNotFoundException 開いていない場合
+     */
+    private MergedFileSystem getOpenFileSystem(URI uri) {
+        Path archive;
+        try {
+            archive = toArchivePath(uri);
+        } catch (IOException e) {
+            throw new FileSystemNotFoundException(uri.toString());
+        }
+        MergedFileSystem fs;
+        synchronized (fileSystems) {
+            fs = fileSystems.get(archive);
+        }
+        if (fs == null) {
+            throw new FileSystemNotFoundException(uri.toString());
+        }
+        return fs;
+    }
+
+    /**
+     * ファイルシステムの登録を解除します。
+     * @param archive 入力ソースアーカイブファイルのパス
+     */
+    void removeFileSystem(Path archive) {
+        synchronized (fileSystems) {
+            fileSystems.remove(archive);
+        }
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        MergedFileSystem fs = getOpenFileSystem(uri);
+        String spec = uri.getRawSchemeSpecificPart();
+        int sep = spec.indexOf(SEPARATOR);
+        if (sep == -1) {
+            throw new IllegalArgumentException("URI にエントリのパスがありません: " + uri);
+        }
+        return fs.getPath(URI.create(spec.substring(sep + 1)).getPath());
+    }
+
+    /**
+     * 環境マップからマージ設定を作成します。
+     * @param archive 入力ソースアーカイブファイル
+     * @param env 環境マップ
+     * @return マージ設定
+     * @throws IOException グローバル置換定義の取得に失敗した場合
+     */
+    private static Preference createPreference(final File archive, Map<String, ?> env) throws IOException {
+
+        Object value = env.get(ENV_PREFERENCE);
+        if (value != null) {
+            final Preference base = (Preference) value;
+            return new Preference() {
+
+                @Override
+                public File getDocDirectory() {
+                    return base.getDocDirectory();
+                }
+
+                @Override
+                public File getInputArchive() {
+                    return archive;
+                }
+
+                @Override
+                public File getOutputArchive() {
+                    return base.getOutputArchive();
+                }
+
+                @Override
+                public String getDocEncoding() {
+                    return base.getDocEncoding();
+                }
+
+                @Override
+                public String getInputEncoding() {
+                    return base.getInputEncoding();
+                }
+
+                @Override
+                public String getOutputEncoding() {
+                    return base.getOutputEncoding();
+                }
+
+                @Override
+                public ReplaceEntry[] getGlobalEntries() {
+                    return base.getGlobalEntries();
+                }
+
+                @Override
+                public String[] getIncludePatterns() {
+                    return base.getIncludePatterns();
+                }
+
+                @Override
+                public String[] getExcludePatterns() {
+                    return base.getExcludePatterns();
+                }
+            };
+        }
+
+        Object doc = env.get(ENV_DOC);
+        if (doc == null) {
+            throw new IllegalArgumentException("環境マップに " + ENV_DOC + " が指定されていません。");
+        }
+        final File docDir = (doc instanceof File) ? (File) doc : new File(doc.toString());
+        String defaultEncoding = System.getProperty("file.encoding");
+        final String docEnc = getString(env, ENV_DOC_ENCODING, defaultEncoding);
+        final String srcEnc = getString(env, ENV_INPUT_ENCODING, defaultEncoding);
+        final String outEnc = getString(env, ENV_OUTPUT_ENCODING, defaultEncoding);
+        final ReplaceEntry[] entries = getSelectedEntries(getStrings(env, ENV_REPLACE));
+        final String[] includePatterns = getStrings(env, ENV_INCLUDE);
+        final String[] excludePatterns = getStrings(env, ENV_EXCLUDE);
+
+        return new Preference() {
+
+            @Override
+            public File getDocDirectory() {
+                return docDir;
+            }
+
+            @Override
+            public File getInputArchive() {
+                return archive;
+            }
+
+            @Override
+            public File getOutputArchive() {
+                return null;
+            }
+
+            @Override
+            public String getDocEncoding() {
+                return docEnc;
+            }
+
+            @Override
+            public String getInputEncoding() {
+                return srcEnc;
+            }
+
+            @Override
+            public String getOutputEncoding() {
+                return outEnc;
+            }
+
+            @Override
+            public ReplaceEntry[] getGlobalEntries() {
+                return entries;
+            }
+
+            @Override
+            public String[] getIncludePatterns() {
+                return includePatterns;
+            }
+
+            @Override
+            public String[] getExcludePatterns() {
+                return excludePatterns;
+            }
+        };
+    }
+
+    /**
+     * 環境マップから文字列を取得します。
+     * @param env 環境マップ
+     * @param key キー
+     * @param def 値が空の場合のデフォルト値
+     * @return 文字列
+     */
+    private static String getString(Map<String, ?> env, String key, String def) {
+        Object value = env.get(key);
+        return (value == null || value.toString().length() == 0) ? def : value.toString();
+    }
+
+    /**
+     * 環境マップから文字列の配列を取得します。
+     * @param env 環境マップ
+     * @param key キー
+     * @return 文字列の配列。値が無い場合は空の配列。
+     */
+    private static String[] getStrings(Map<String, ?> env, String key) {
+        Object value = env.get(key);
+        List<String> list = new ArrayList<String>();
+        if (value instanceof String[]) {
+            for (String s : (String[]) value) {
+                list.add(s);
+            }
+        } else if (value instanceof Collection) {
+            for (Object o : (Collection<?>) value) {
+                list.add(o.toString());
+            }
+        } else if (value != null) {
+            list.add(value.toString());
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * 説明が指定されたグローバル置換エントリの配列を取得します。
+     * 配列の順序はグローバル置換定義ファイルの順序です。
+     * @param descriptions 説明の配列
+     * @return グローバル置換エントリの配列
+     * @throws IOException グローバル置換定義の取得に失敗した場合
+     */
+    private static ReplaceEntry[] getSelectedEntries(String[] descriptions) throws IOException {
+
+        if (descriptions.length == 0) {
+            return new ReplaceEntry[0];
+        }
+        List<ReplaceEntry> enables = new LinkedList<ReplaceEntry>();
+        List<String> unknowns = new LinkedList<String>(Arrays.asList(descriptions));
+        List<ReplaceEntry> globals;
+        try {
+            globals = ConfigManager.getInstance().getGlobalEntries();
+        } catch (MergeDocException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        for (ReplaceEntry entry : globals) {
+            for (String desc : descriptions) {
+                if (entry.getDescription().equals(desc)) {
+                    enables.add(entry);
+                    unknowns.remove(desc);
+                    break;
+                }
+            }
+        }
+        if (!unknowns.isEmpty()) {
+            throw new IllegalArgumentException("説明が " + unknowns + " のグローバル置換エントリは存在しません。");
+        }
+        return enables.toArray(new ReplaceEntry[enables.size()]);
+    }
+
+    /**
+     * ファイルを読み込み専用で開きます。内容はこの時点でマージします。
+     * @param path パス
+     * @param options オープンオプション
+     * @param attrs ファイル属性
+     * @return 読み込み専用のチャネル
+     * @throws IOException ファイルが存在しない場合、マージに失敗した場合
+     */
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+        FileAttribute<?>... attrs) throws IOException {
+
+        for (OpenOption option : options) {
+            if (option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND
+                || option == StandardOpenOption.CREATE || option == StandardOpenOption.CREATE_NEW
+                || option == StandardOpenOption.DELETE_ON_CLOSE || option == StandardOpenOption.TRUNCATE_EXISTING) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+        MergedPath mpath = MergedPath.cast(path);
+        return new ByteArrayChannel(mpath.getFileSystem().read(mpath));
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+        throws IOException {
+
+        MergedPath mdir = MergedPath.cast(dir);
+        final List<Path> list = new ArrayList<Path>();
+        for (Path child : mdir.getFileSystem().list(mdir)) {
+            if (filter == null || filter.accept(child)) {
+                list.add(child);
+            }
+        }
+        return new DirectoryStream<Path>() {
+
+            private boolean iterated;
+            private boolean closed;
+
+            @Override
+            public synchronized Iterator<Path> iterator() {
+                if (closed) {
+                    throw new IllegalStateException("ディレクトリストリームは閉じています。");
+                }
+                if (iterated) {
+                    throw new IllegalStateException("イテレータは 1 回のみ取得できます。");
+                }
+                iterated = true;
+                return new ArrayList<Path>(list).iterator();
+            }
+
+            @Override
+            public synchronized void close() {
+                closed = true;
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if (path.equals(path2)) {
+            return true;
+        }
+        if (!(path2 instanceof MergedPath) || path.getFileSystem() != path2.getFileSystem()) {
+            return false;
+        }
+        return path.toAbsolutePath().normalize().equals(path2.toAbsolutePath().normalize());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        MergedPath mpath = MergedPath.cast(path);
+        checkExists(mpath);
+        return mpath.getFileSystem().getFileStore();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        MergedPath mpath = MergedPath.cast(path);
+        BasicFileAttributes attrs = mpath.getFileSystem().readAttributes(mpath);
+        for (AccessMode mode : modes) {
+            if (mode == AccessMode.WRITE || (mode == AccessMode.EXECUTE && !attrs.isDirectory())) {
+                throw new AccessDeniedException(path.toString());
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        final MergedPath mpath = MergedPath.cast(path);
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        return (V) new BasicFileAttributeView() {
+
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return mpath.getFileSystem().readAttributes(mpath);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+        throws IOException {
+
+        if (type != BasicFileAttributes.class) {
+            throw new UnsupportedOperationException("属性 " + type.getName() + " はサポートしません。");
+        }
+        MergedPath mpath = MergedPath.cast(path);
+        return (A) mpath.getFileSystem().readAttributes(mpath);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+        throws IOException {
+
+        String names = attributes;
+        int colon = attributes.indexOf(':');
+        if (colon != -1) {
+            if (!attributes.substring(0, colon).equals("basic")) {
+                throw new UnsupportedOperationException("属性 " + attributes + " はサポートしません。");
+            }
+            names = attributes.substring(colon + 1);
+        }
+        MergedPath mpath = MergedPath.cast(path);
+        BasicFileAttributes attrs = mpath.getFileSystem().readAttributes(mpath);
+        Map<String, Object> all = new LinkedHashMap<String, Object>();
+        all.put("lastModifiedTime", attrs.lastModifiedTime());
+        all.put("lastAccessTime", attrs.lastAccessTime());
+        all.put("creationTime", attrs.creationTime());
+        all.put("size", attrs.size());
+        all.put("isRegularFile", attrs.isRegularFile());
+        all.put("isDirectory", attrs.isDirectory());
+        all.put("isSymbolicLink", attrs.isSymbolicLink());
+        all.put("isOther", attrs.isOther());
+        all.put("fileKey", attrs.fileKey());
+
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (String name : names.split(",")) {
+            if (name.equals("*")) {
+                result.putAll(all);
+            } else if (all.containsKey(name)) {
+                result.put(name, all.get(name));
+            } else {
+                throw new IllegalArgumentException("属性 " + name + " はサポートしません。");
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    /**
+     * パスが存在することを確認します。
+     * @param path パス
+     * @throws NoSuchFileException 存在しない場合
+     */
+    private static void checkExists(MergedPath path) throws NoSuchFileException {
+        if (!path.getFileSystem().exists(path)) {
+            throw new NoSuchFileException(path.toString());
+        }
+    }
+}
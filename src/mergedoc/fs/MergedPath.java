@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * {@link MergedFileSystem} のパスです。
+ * <p>
+ * 区切り文字は / で、ルートは / のみです。絶対パスはアーカイブのエントリ名の
+ * 先頭に / を付けたものになります。
+ *
+ * @author Shinji Kashihara
+ */
+class MergedPath implements Path {
+
+    /** ファイルシステム */
+    private final MergedFileSystem fileSystem;
+
+    /** パス文字列。連続する / と末尾の / は除いたもの。 */
+    private final String path;
+
+    /** 名前要素。ルートと空のパスは要素なし。 */
+    private final String[] names;
+
+    /**
+     * コンストラクタです。
+     * @param fileSystem ファイルシステム
+     * @param path パス文字列
+     */
+    MergedPath(MergedFileSystem fileSystem, String path) {
+        this.fileSystem = fileSystem;
+        this.path = clean(path);
+        List<String> list = new ArrayList<String>();
+        for (String name : this.path.split("/")) {
+            if (name.length() > 0) {
+                list.add(name);
+            }
+        }
+        this.names = list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * 連続する / と末尾の / を除きます。
+     * @param path パス文字列
+     * @return 整えたパス文字列
+     */
+    private static String clean(String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\0') {
+                throw new IllegalArgumentException("パスに NUL 文字は使用できません: " + path);
+            }
+            if (c == '/' && sb.length() > 0 && sb.charAt(sb.length() - 1) == '/') {
+                continue;
+            }
+            sb.append(c);
+        }
+        if (sb.length() > 1 && sb.charAt(sb.length() - 1) == '/') {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * パスを MergedPath に変換します。
+     * @param path パス
+     * @return MergedPath
+     * @throws ProviderMismatchException MergedPath でない場合
+     */
+    static MergedPath cast(Path path) {
+        if (!(path instanceof MergedPath)) {
+            throw new ProviderMismatchException();
+        }
+        return (MergedPath) path;
+    }
+
+    /**
+     * 名前要素から新しいパスを作成します。
+     * @param absolute 絶対パスの場合は true
+     * @param list 名前要素
+     * @return パス
+     */
+    private MergedPath create(boolean absolute, List<String> list) {
+        StringBuilder sb = new StringBuilder();
+        if (absolute) {
+            sb.append('/');
+        }
+        for (String name : list) {
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '/') {
+                sb.append('/');
+            }
+            sb.append(name);
+        }
+        return new MergedPath(fileSystem, sb.toString());
+    }
+
+    /**
+     * 空のパスか判定します。
+     * @return 空のパスの場合は true
+     */
+    private boolean isEmpty() {
+        return path.length() == 0;
+    }
+
+    @Override
+    public MergedFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? new MergedPath(fileSystem, "/") : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        if (isEmpty()) {
+            return this;
+        }
+        if (names.length == 0) {
+            return null;
+        }
+        return new MergedPath(fileSystem, names[names.length - 1]);
+    }
+
+    @Override
+    public Path getParent() {
+        if (names.length == 0) {
+            return null;
+        }
+        if (names.length == 1) {
+            return getRoot();
+        }
+        return create(isAbsolute(), Arrays.asList(names).subList(0, names.length - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return isEmpty() ? 1 : names.length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        if (isEmpty() && index == 0) {
+            return this;
+        }
+        if (index < 0 || index >= names.length) {
+            throw new IllegalArgumentException("index " + index);
+        }
+        return new MergedPath(fileSystem, names[index]);
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || beginIndex >= names.length || endIndex > names.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException("beginIndex " + beginIndex + ", endIndex " + endIndex);
+        }
+        return create(false, Arrays.asList(names).subList(beginIndex, endIndex));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        if (!(other instanceof MergedPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        MergedPath that = (MergedPath) other;
+        if (that.isAbsolute() != isAbsolute() || that.names.length > names.length) {
+            return false;
+        }
+        if (that.isEmpty()) {
+            return isEmpty();
+        }
+        for (int i = 0; i < that.names.length; i++) {
+            if (!that.names[i].equals(names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        if (!(other instanceof MergedPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        MergedPath that = (MergedPath) other;
+        if (that.isAbsolute()) {
+            return equals(that);
+        }
+        if (that.isEmpty()) {
+            return isEmpty();
+        }
+        if (that.names.length > names.length) {
+            return false;
+        }
+        int offset = names.length - that.names.length;
+        for (int i = 0; i < that.names.length; i++) {
+            if (!that.names[i].equals(names[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path normalize() {
+        LinkedList<String> list = new LinkedList<String>();
+        for (String name : names) {
+            if (name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                if (!list.isEmpty() && !list.getLast().equals("..")) {
+                    list.removeLast();
+                    continue;
+                }
+                if (isAbsolute()) {
+                    // ルートより上は無いためルートとする
+                    continue;
+                }
+            }
+            list.add(name);
+        }
+        return create(isAbsolute(), list);
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        MergedPath that = cast(other);
+        if (that.isAbsolute()) {
+            return that;
+        }
+        if (that.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return that;
+        }
+        return new MergedPath(fileSystem, path + "/" + that.path);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        cast(other);
+        Path parent = getParent();
+        return (parent == null) ? other : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        MergedPath that = cast(other);
+        if (that.isAbsolute() != isAbsolute()) {
+            throw new IllegalArgumentException("絶対パスと相対パスの間の相対パスは作成できません: " + this + ", " + that);
+        }
+        int common = 0;
+        while (common < names.length && common < that.names.length && names[common].equals(that.names[common])) {
+            common++;
+        }
+        List<String> list = new ArrayList<String>();
+        for (int i = common; i < names.length; i++) {
+            list.add("..");
+        }
+        list.addAll(Arrays.asList(that.names).subList(common, that.names.length));
+        return create(false, list);
+    }
+
+    @Override
+    public URI toUri() {
+        try {
+            String rawPath = new URI(null, null, toAbsolutePath().toString(), null).getRawPath();
+            return new URI(MergedFileSystemProvider.SCHEME + ":" + fileSystem.getArchiveUri() + "!" + rawPath);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public MergedPath toAbsolutePath() {
+        return isAbsolute() ? this : new MergedPath(fileSystem, "/" + path);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        MergedPath real = (MergedPath) toAbsolutePath().normalize();
+        if (!fileSystem.exists(real)) {
+            throw new NoSuchFileException(toString());
+        }
+        return real;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("アーカイブ内のパスはファイルに変換できません。");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("変更の監視はサポートしません。");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+        throw new UnsupportedOperationException("変更の監視はサポートしません。");
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        List<Path> list = new ArrayList<Path>();
+        for (int i = 0; i < getNameCount(); i++) {
+            list.add(getName(i));
+        }
+        return list.iterator();
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return path.compareTo(cast(other).path);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MergedPath)) {
+            return false;
+        }
+        MergedPath that = (MergedPath) obj;
+        return that.fileSystem == fileSystem && that.path.equals(path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
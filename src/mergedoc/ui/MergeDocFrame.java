@@ -151,7 +151,7 @@ public class MergeDocFrame extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 buttonBar.setEnabled(false);
-                mergeManager.getWorkingState().cancel();
+                mergeManager.getWorkingState().abort();
             }
         });
 
@@ -171,12 +171,17 @@ public class MergeDocFrame extends JFrame {
             }
         });
 
-        // 進捗表示のリスナー
+        // 進捗表示のリスナー（表示への反映は進捗パネルが一定間隔で行う）
         mergeManager.setChangeListener(new ChangeListener() {
             @Override
             public void stateChanged(ChangeEvent e) {
                 WorkingState state = mergeManager.getWorkingState();
                 progressPanel.addListText(state.getWorkingText());
+            }
+        });
+        progressPanel.setRefreshListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
                 setTitle(progressPanel.getBarText());
             }
         });
@@ -263,6 +268,7 @@ public class MergeDocFrame extends JFrame {
         } else {
             buttonBar.setState(buttonBar.FINISH_STATE);
             message = "完了しました。 " + state.getWorkTime() + "秒";
+            progressPanel.appendText(state.getMetricsText() + "\nエントリ別処理レポート: " + mergeManager.getReportFile());
         }
         progressPanel.setBarText(message);
         setTitle(message);
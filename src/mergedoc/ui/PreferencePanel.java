@@ -5,6 +5,7 @@
  */
 package mergedoc.ui;
 
+import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
@@ -19,6 +20,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
+import javax.swing.JTextField;
 
 import mergedoc.MergeDocException;
 import mergedoc.core.FastStringUtils;
@@ -48,6 +50,12 @@ public class PreferencePanel extends JPanel {
     /** 基本設定パネル：出力ソースアーカイブファイル ファイル選択フィールド */
     private FileChooserField outField = new FileChooserField();
 
+    /** 基本設定パネル：対象パス テキストフィールド */
+    private JTextField includeField = new JTextField();
+
+    /** 基本設定パネル：除外パス テキストフィールド */
+    private JTextField excludeField = new JTextField();
+
     /** 詳細設定パネル：スプリットペイン */
     private JSplitPane splitPane = new JSplitPane();
 
@@ -88,7 +96,9 @@ public class PreferencePanel extends JPanel {
         docLabel.setText("API ドキュメントディレクトリ");
         srcLabel.setText("入力ソースアーカイブファイル");
         outLabel.setText("出力ソースアーカイブファイル");
-        JLabel[] labels = { docLabel, srcLabel, outLabel };
+        JLabel includeLabel = new JLabel("対象パス");
+        JLabel excludeLabel = new JLabel("除外パス");
+        JLabel[] labels = { docLabel, srcLabel, outLabel, includeLabel, excludeLabel };
         ComponentFactory.ensureMaxFontWidth(labels);
 
         // コンボ設定
@@ -119,6 +129,8 @@ public class PreferencePanel extends JPanel {
         panel.add(docField);
         panel.add(srcField);
         panel.add(outField);
+        panel.add(createPatternField(includeLabel, includeField, "例: java/** javax/**"));
+        panel.add(createPatternField(excludeLabel, excludeField, "例: sun/** com/sun/**"));
 
         // 起動オプションのターゲットディレクトリ取得
         final String OPTION_KEY = "target.directory";
@@ -141,6 +153,9 @@ public class PreferencePanel extends JPanel {
         loadPersister(docField, Persister.DOC_DIR, Persister.DOC_ENC);
         loadPersister(srcField, Persister.IN_FILE, Persister.IN_ENC);
         loadPersister(outField, Persister.OUT_FILE, Persister.OUT_ENC);
+        Persister psst = Persister.getInstance();
+        includeField.setText(joinPatterns(psst.getStrings(Persister.INCLUDE_PATTERN_ARRAY)));
+        excludeField.setText(joinPatterns(psst.getStrings(Persister.EXCLUDE_PATTERN_ARRAY)));
 
         // 未設定時のデフォルト設定
         String docPath = docField.getFile().getPath();
@@ -160,6 +175,56 @@ public class PreferencePanel extends JPanel {
         return panel;
     }
 
+    /**
+     * パスの glob パターンを入力するフィールドを作成します。
+     * @param label ラベル
+     * @param textField テキストフィールド
+     * @param example ツールチップに表示する入力例
+     * @return フィールド
+     */
+    private JComponent createPatternField(JLabel label, JTextField textField, String example) {
+
+        int maxWidth = (int) ComponentFactory.createMaxDimension().getWidth();
+        textField.setMaximumSize(new Dimension(maxWidth, 20));
+        textField.setToolTipText("glob パターンを空白区切りで指定（" + example + "）");
+
+        JPanel field = new JPanel();
+        field.setLayout(new BoxLayout(field, BoxLayout.X_AXIS));
+        field.add(label);
+        field.add(ComponentFactory.createSpacer(10, 0));
+        field.add(textField);
+        return field;
+    }
+
+    /**
+     * glob パターンの配列を空白区切りの文字列に変換します。
+     * @param patterns glob パターンの配列
+     * @return 空白区切りの文字列
+     */
+    private static String joinPatterns(String[] patterns) {
+        StringBuilder sb = new StringBuilder();
+        for (String pattern : patterns) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(pattern);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 空白区切りの文字列を glob パターンの配列に変換します。
+     * @param text 空白区切りの文字列
+     * @return glob パターンの配列
+     */
+    private static String[] splitPatterns(String text) {
+        text = text.trim();
+        if (text.length() == 0) {
+            return new String[0];
+        }
+        return text.split("\\s+");
+    }
+
     /**
      * 下部の詳細設定パネルを作成します。
      * @return 下部の詳細設定パネル
@@ -334,6 +399,8 @@ public class PreferencePanel extends JPanel {
             String srcEnc = srcField.getComboBox().getSelectedItem().toString();
             String outEnc = outField.getComboBox().getSelectedItem().toString();
             ReplaceEntry[] entries = getSelectedEntries();
+            String[] includes = splitPatterns(includeField.getText());
+            String[] excludes = splitPatterns(excludeField.getText());
 
             @Override
             public File getDocDirectory() {
@@ -369,6 +436,16 @@ public class PreferencePanel extends JPanel {
             public ReplaceEntry[] getGlobalEntries() {
                 return entries;
             }
+
+            @Override
+            public String[] getIncludePatterns() {
+                return includes;
+            }
+
+            @Override
+            public String[] getExcludePatterns() {
+                return excludes;
+            }
         };
     }
 
@@ -395,5 +472,7 @@ public class PreferencePanel extends JPanel {
         }
         String[] descs = descList.toArray(new String[descList.size()]);
         psst.setStrings(Persister.REPLACE_DESCRIPTION_ARRAY, descs);
+        psst.setStrings(Persister.INCLUDE_PATTERN_ARRAY, pref.getIncludePatterns());
+        psst.setStrings(Persister.EXCLUDE_PATTERN_ARRAY, pref.getExcludePatterns());
     }
 }
@@ -6,6 +6,9 @@
 package mergedoc.ui;
 
 import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -13,19 +16,53 @@ import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeListener;
 
 /**
  * 進捗パネルです。
+ * <p>
+ * 進捗リストへの追加は表示に即時反映せず、一定間隔のタイマーでまとめて
+ * 反映します。進捗リストには最新の {@value #LIST_SIZE} 件のみを表示するため、
+ * エントリ数によらず表示にかかるコストは一定です。
  * @author Shinji Kashihara
  */
 public class ProgressPanel extends JPanel {
 
+    /** 進捗リストに表示する最大件数 */
+    private static final int LIST_SIZE = 500;
+
+    /** 表示の更新間隔（ミリ秒） */
+    private static final int REFRESH_INTERVAL = 50;
+
     /** 進捗バー */
     private JProgressBar progressBar = new JProgressBar();
 
     /** 進捗テキストエリア */
     private JTextArea textArea = new JTextArea(3, 100);
 
+    /** 表示対象の進捗リスト（最新の LIST_SIZE 件）。このオブジェクトで同期します。 */
+    private final ArrayDeque<String> listTexts = new ArrayDeque<String>(LIST_SIZE);
+
+    /** 進捗リストに追加された件数。listTexts で同期します。 */
+    private int listCount;
+
+    /** 表示済みの件数。イベントディスパッチスレッドからのみ参照します。 */
+    private int shownCount;
+
+    /** 表示更新時のリスナ */
+    private ChangeListener refreshListener;
+
+    /** 表示更新タイマー */
+    private final Timer refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (refresh() && refreshListener != null) {
+                refreshListener.stateChanged(null);
+            }
+        }
+    });
+
     /**
      * コンストラクタです。 
      */
@@ -56,10 +93,25 @@ public class ProgressPanel extends JPanel {
      * 進捗バーは不確定モードとなり、アニメーションを表示します。
      */
     public void init() {
+        synchronized (listTexts) {
+            listTexts.clear();
+            listCount = 0;
+        }
+        shownCount = 0;
         progressBar.setString(null);
         progressBar.setValue(0);
         progressBar.setIndeterminate(true);
         textArea.setText(null);
+        refreshTimer.start();
+    }
+
+    /**
+     * 進捗の表示を更新した時に呼ばれるリスナをセットします。
+     * リスナはイベントディスパッチスレッドから呼ばれます。
+     * @param refreshListener 表示更新時のリスナ
+     */
+    public void setRefreshListener(ChangeListener refreshListener) {
+        this.refreshListener = refreshListener;
     }
 
     /**
@@ -79,20 +131,73 @@ public class ProgressPanel extends JPanel {
     }
 
     /**
-     * 進捗リストに文字列を追加します。<br>
+     * 進捗リストに文字列を追加し、進捗を 1 進めます。
+     * 表示には次の表示更新時にまとめて反映されます。<br>
      * このメソッドはスレッドに対して安全です。
      * @param text 進捗リストに追加する文字列
      */
-    public void addListText(final String text) {
+    public void addListText(String text) {
+        synchronized (listTexts) {
+            if (listTexts.size() == LIST_SIZE) {
+                listTexts.removeFirst();
+            }
+            listTexts.addLast(text);
+            listCount++;
+        }
+    }
+
+    /**
+     * 前回の表示以降に追加された進捗を表示に反映します。
+     * イベントディスパッチスレッドから呼び出します。
+     * @return 表示を更新した場合は true
+     */
+    private boolean refresh() {
+        String text;
+        int count;
+        synchronized (listTexts) {
+            if (listCount == shownCount) {
+                return false;
+            }
+            count = listCount;
+            StringBuilder sb = new StringBuilder();
+            for (String listText : listTexts) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(listText);
+            }
+            text = sb.toString();
+        }
+        shownCount = count;
+        progressBar.setValue(count);
+        textArea.setText(text);
+        textArea.setCaretPosition(textArea.getDocument().getLength());
+        return true;
+    }
+
+    /**
+     * 未反映の進捗を表示に反映し、表示更新タイマーを停止します。
+     * イベントディスパッチスレッドから呼び出します。
+     */
+    private void flush() {
+        refresh();
+        refreshTimer.stop();
+    }
+
+    /**
+     * 進捗リストの末尾に複数行の文字列を追加します。
+     * 進捗バーの値は変更しません。<br>
+     * このメソッドはスレッドに対して安全です。
+     * @param text 進捗リストに追加する文字列
+     */
+    public void appendText(final String text) {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                int value = progressBar.getValue() + 1;
-                progressBar.setValue(value);
-                if (value > 1) {
-                    textArea.append("\n");
-                }
+                flush();
+                textArea.append("\n\n");
                 textArea.append(text);
+                textArea.setCaretPosition(textArea.getDocument().getLength());
             }
         });
     }
@@ -106,12 +211,22 @@ public class ProgressPanel extends JPanel {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
+                flush();
                 progressBar.setIndeterminate(false);
                 progressBar.setString(text);
             }
         });
     }
 
+    /**
+     * パネルが画面から外された時に表示更新タイマーを停止します。
+     */
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        refreshTimer.stop();
+    }
+
     /**
      * 進捗バーの文字列を取得します。
      * @return 進捗バーの文字列
@@ -5,6 +5,10 @@
  */
 package mergedoc.xml;
 
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -15,6 +19,9 @@ import org.xml.sax.helpers.DefaultHandler;
  */
 abstract public class AbstractHandler extends DefaultHandler {
 
+    /** ロガー */
+    private static final Log log = LogFactory.getLog(AbstractHandler.class);
+
     /** 現在のエレメント名 */
     private String currentQName;
 
@@ -79,12 +86,31 @@ abstract public class AbstractHandler extends DefaultHandler {
         if ("置換エントリ".equals(qName)) {
             level--;
             if (level == 0) {
+                checkBacktracking(rootEntry);
                 handle(rootEntry);
             }
         }
         currentQName = null;
     }
 
+    /**
+     * 置換エントリとその子の正規表現を検査し、バックトラックが指数関数的に
+     * 増える可能性があるパターンを警告として出力します。
+     * @param entry 置換エントリ
+     */
+    private void checkBacktracking(ReplaceEntry entry) {
+        if (entry.hasNestedQuantifier()) {
+            log.warn("置換エントリの正規表現に入れ子になった量指定子があるため、処理が終わらなくなる可能性があります。\n" + "説明: "
+                    + entry.getDescription() + "\n" + "前: " + entry.getBefore());
+        }
+        List<ReplaceEntry> children = entry.getChildren();
+        if (children != null) {
+            for (ReplaceEntry child : children) {
+                checkBacktracking(child);
+            }
+        }
+    }
+
     /**
      * 要素内の文字データの通知を受け取ります。
      * @param   c      文字配列
@@ -12,6 +12,7 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.xml.parsers.SAXParser;
@@ -29,8 +30,11 @@ public class ConfigManager {
     /** このクラスのインスタンス */
     private static ConfigManager configManager;
 
-    /** SAX パーサ */
-    private final SAXParser saxParser;
+    /** SAX パーサファクトリ */
+    private final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+
+    /** スレッドごとの SAX パーサ */
+    private final ThreadLocal<SAXParser> saxParser = new ThreadLocal<SAXParser>();
 
     /** コンフィグルートパス */
     private final File configRoot;
@@ -38,18 +42,20 @@ public class ConfigManager {
     /** global.xml ファイル */
     private final File globalXML;
 
+    /** 解析済みの global.xml の置換エントリリスト。未解析の場合は null。 */
+    private List<ReplaceEntry> globalEntries;
+
+    /** 解析した時点の global.xml の更新日時 */
+    private long globalXMLModified;
+
     /**
      * コンストラクタです。
      * @throws MergeDocException SAX パーサの生成に失敗した場合
      */
     private ConfigManager() throws MergeDocException {
 
-        try {
-            saxParser = SAXParserFactory.newInstance().newSAXParser();
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new MergeDocException("SAX パーサの生成に失敗しました。\n" + e);
-        }
+        // 生成できることを確認
+        getSAXPerser();
 
         String globalXMLName = "/global.xml";
         URL url = getClass().getResource(globalXMLName);
@@ -68,11 +74,10 @@ public class ConfigManager {
 
     /**
      * このクラスのシングルトンインスタンスを取得します。
-     * 生成時の同期化は行われません。
      * @return このクラスのインスタンス
      * @throws MergeDocException SAX パーサの生成に失敗した場合
      */
-    public static ConfigManager getInstance() throws MergeDocException {
+    public static synchronized ConfigManager getInstance() throws MergeDocException {
         if (configManager == null) {
             configManager = new ConfigManager();
         }
@@ -81,10 +86,22 @@ public class ConfigManager {
 
     /**
      * SAX パーサを取得します。
+     * SAX パーサはスレッドセーフではないため、スレッドごとに異なるインスタンスを返します。
      * @return SAX パーサ
+     * @throws MergeDocException SAX パーサの生成に失敗した場合
      */
-    public SAXParser getSAXPerser() {
-        return saxParser;
+    public SAXParser getSAXPerser() throws MergeDocException {
+        SAXParser parser = saxParser.get();
+        if (parser == null) {
+            try {
+                parser = saxParserFactory.newSAXParser();
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new MergeDocException("SAX パーサの生成に失敗しました。\n" + e);
+            }
+            saxParser.set(parser);
+        }
+        return parser;
     }
 
     /**
@@ -98,18 +115,27 @@ public class ConfigManager {
 
     /**
      * グローバル定義 XML の置換エントリリストを取得します。
+     * <p>
+     * 解析結果は保持し、global.xml が更新されていない場合は再解析しません。
+     * 同じ置換エントリのインスタンスを返すため、置換エンジンなど置換エントリを
+     * 元に作成したものも再利用できます。
      * @return グローバル定義 XML の置換エントリリスト
      * @throws MergeDocException 取得出来なかった場合
      */
-    public List<ReplaceEntry> getGlobalEntries() throws MergeDocException {
-        ListingHandler handler = new ListingHandler();
-        try {
-            saxParser.parse(globalXML, handler);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new MergeDocException(globalXML.getName() + " のパースに失敗しました。\n" + e);
+    public synchronized List<ReplaceEntry> getGlobalEntries() throws MergeDocException {
+        long modified = globalXML.lastModified();
+        if (globalEntries == null || modified != globalXMLModified) {
+            ListingHandler handler = new ListingHandler();
+            try {
+                getSAXPerser().parse(globalXML, handler);
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new MergeDocException(globalXML.getName() + " のパースに失敗しました。\n" + e);
+            }
+            globalEntries = handler.getReplaceEntries();
+            globalXMLModified = modified;
         }
-        return handler.getReplaceEntries();
+        return new ArrayList<ReplaceEntry>(globalEntries);
     }
 
     /**
@@ -63,6 +63,12 @@ public class Persister {
     /** チェック済み置換エントリの説明（配列）のキー */
     public static final Key REPLACE_DESCRIPTION_ARRAY = new Key("replace.entry.descprition");
 
+    /** 対象パスの glob パターン（配列）のキー */
+    public static final Key INCLUDE_PATTERN_ARRAY = new Key("entry.include.pattern");
+
+    /** 除外パスの glob パターン（配列）のキー */
+    public static final Key EXCLUDE_PATTERN_ARRAY = new Key("entry.exclude.pattern");
+
     /** ウィンドウ幅のキー */
     public static final Key WINDOW_WIDTH = new Key("window.dimention.width");
 
@@ -92,11 +98,11 @@ public class Persister {
 
     /**
      * コンストラクタです。
+     * @param parsistFile 永続化ファイル
      * @throws MergeDocException 永続化操作が出来ない場合
      */
-    private Persister() throws MergeDocException {
-        ConfigManager config = ConfigManager.getInstance();
-        parsistFile = config.getFile("mergedoc.properties");
+    private Persister(File parsistFile) throws MergeDocException {
+        this.parsistFile = parsistFile;
         try {
             parsistFile.createNewFile();
             InputStream is = new BufferedInputStream(new FileInputStream(parsistFile));
@@ -113,11 +119,26 @@ public class Persister {
      */
     public static Persister getInstance() throws MergeDocException {
         if (parsister == null) {
-            parsister = new Persister();
+            ConfigManager config = ConfigManager.getInstance();
+            parsister = new Persister(config.getFile("mergedoc.properties"));
         }
         return parsister;
     }
 
+    /**
+     * 指定したファイルから設定を読み込みます。
+     * シングルトンインスタンスとは別のインスタンスが生成されます。
+     * @param file 設定ファイル
+     * @return 指定したファイルの設定を持つインスタンス
+     * @throws MergeDocException ファイルが存在しないか読み込めない場合
+     */
+    public static Persister load(File file) throws MergeDocException {
+        if (!file.isFile()) {
+            throw new MergeDocException(file + " が見つかりません。");
+        }
+        return new Persister(file);
+    }
+
     /**
      * 永続化します。
      * @throws MergeDocException 永続化に失敗した場合
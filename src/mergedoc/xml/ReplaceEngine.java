@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2003- Shinji Kashihara. All rights reserved.
+ * This program are made available under the terms of the Common Public License
+ * v1.0 which accompanies this distribution, and is available at cpl-v10.html.
+ */
+package mergedoc.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mergedoc.core.AhoCorasick;
+import mergedoc.core.MatchTimeoutException;
+import mergedoc.core.MergeEvents;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 複数の置換エントリをまとめて処理するエンジンです。
+ * <p>
+ * 置換前文字列と置換後文字列がリテラルとみなせる連続した置換エントリは
+ * Aho-Corasick 法の照合器にまとめ、ソースを 1 回走査するだけですべての置換を
+ * 適用します。それ以外の置換エントリは 1 つずつ {@link ReplaceEntry} で処理し、
+ * 置換前文字列の正規表現に必須のリテラル文字列がソースに含まれない場合は
+ * 正規表現による走査を省略します。
+ * <p>
+ * 処理結果と処理順序は、置換エントリを上から順に replace した場合と同じです。
+ * <p>
+ * 置換処理が制限時間を超えた置換エントリは、そのソースに対しては適用せずに
+ * 警告をログに 1 回出力し、後続の置換エントリの処理を続けます。制限時間は
+ * 置換エントリごとにソース単位で適用し、Javadoc コメント対象の置換エントリでは
+ * ソース内のすべてのコメントの処理時間の合計を制限します。
+ *
+ * @author Shinji Kashihara
+ */
+public class ReplaceEngine {
+
+    /** ロガー */
+    private static final Log log = LogFactory.getLog(ReplaceEngine.class);
+
+    /** イベント */
+    private static final MergeEvents events = MergeEvents.getInstance();
+
+    /** 処理単位のリスト */
+    private final List<Step> steps = new ArrayList<Step>();
+
+    /**
+     * コンストラクタです。
+     * @param entries 置換エントリの配列。配列の順に処理されます。
+     */
+    public ReplaceEngine(ReplaceEntry... entries) {
+
+        // 子を含む置換エントリを処理順に平坦化し、連続するリテラルとみなせる
+        // ものを 1 つの処理単位にまとめる
+        List<ReplaceEntry> rules = new ArrayList<ReplaceEntry>();
+        Map<ReplaceEntry, String> descriptions = new IdentityHashMap<ReplaceEntry, String>();
+        for (ReplaceEntry entry : entries) {
+            flatten(entry, null, rules, descriptions);
+        }
+        LiteralStep literalStep = null;
+        for (ReplaceEntry rule : rules) {
+            if (rule.isLiteral() && !rule.isJavadocTarget()) {
+                if (literalStep == null || !literalStep.accepts(rule)) {
+                    literalStep = new LiteralStep();
+                    steps.add(literalStep);
+                }
+                literalStep.rules.add(rule);
+                literalStep.describe(descriptions.get(rule));
+            } else {
+                literalStep = null;
+                RuleStep ruleStep = new RuleStep(rule);
+                ruleStep.describe(descriptions.get(rule));
+                steps.add(ruleStep);
+            }
+        }
+        for (Step step : steps) {
+            if (step instanceof LiteralStep) {
+                ((LiteralStep) step).compile();
+            }
+        }
+    }
+
+    /**
+     * 置換エントリとその子を処理順にリストに追加します。
+     * 置換前文字列が空の置換エントリは何もしないため追加しません。
+     * 説明の無い子の置換エントリには親の説明を対応付けます。
+     * @param entry 置換エントリ
+     * @param parentDescription 親の置換エントリの説明
+     * @param rules 追加先のリスト
+     * @param descriptions 置換エントリと説明の対応の追加先
+     */
+    private static void flatten(ReplaceEntry entry, String parentDescription, List<ReplaceEntry> rules,
+            Map<ReplaceEntry, String> descriptions) {
+        String description = entry.getDescription();
+        if (description == null || description.length() == 0) {
+            description = parentDescription;
+        }
+        if (entry.getBefore().length() > 0) {
+            rules.add(entry);
+            descriptions.put(entry, description);
+        }
+        List<ReplaceEntry> children = entry.getChildren();
+        if (children != null) {
+            for (ReplaceEntry child : children) {
+                flatten(child, description, rules, descriptions);
+            }
+        }
+    }
+
+    /**
+     * 指定した文字列をすべての置換エントリで処理します。
+     * @param source ソース文字列
+     * @return 処理後のソース文字列
+     * @throws IllegalStateException 置換エントリの正規表現の構文が無効な場合
+     */
+    public String replace(String source) {
+        return replace(source, null);
+    }
+
+    /**
+     * 指定したクラスのソース文字列をすべての置換エントリで処理します。
+     * @param source ソース文字列
+     * @param className クラス名。制限時間を超えた場合のログ出力に使用されます。
+     * @return 処理後のソース文字列
+     * @throws IllegalStateException 置換エントリの正規表現の構文が無効な場合
+     */
+    public String replace(String source, String className) {
+        for (Step step : steps) {
+            Object event = events.beginReplace();
+            String result = step.replace(source, className);
+            if (event != null) {
+                events.commitReplace(event, className, step.description.toString(), step.ruleCount, source.length(), result.length());
+            }
+            source = result;
+        }
+        return source;
+    }
+
+    /**
+     * 置換エントリの置換を適用します。期限を超えた場合は警告を出力します。
+     * @param rule 置換エントリ
+     * @param str 文字列
+     * @param className クラス名
+     * @param deadline 期限（System#nanoTime の値）
+     * @return 処理後の文字列。期限を超えた場合は null。
+     */
+    private static String replaceText(ReplaceEntry rule, String str, String className, long deadline) {
+        try {
+            return rule.replaceText(str, deadline);
+        } catch (MatchTimeoutException e) {
+            warnTimeout(e, className);
+            return null;
+        }
+    }
+
+    /**
+     * 置換処理が制限時間を超えたことを警告として出力します。
+     * @param e 制限時間超過例外
+     * @param className クラス名
+     */
+    private static void warnTimeout(MatchTimeoutException e, String className) {
+        log.warn(e.getMessage() + "\nクラス: " + className);
+    }
+
+    /**
+     * 置換の処理単位です。
+     */
+    private static abstract class Step {
+
+        /** まとめた置換エントリの数 */
+        int ruleCount;
+
+        /** まとめた置換エントリの説明（カンマ区切り） */
+        final StringBuilder description = new StringBuilder();
+
+        /** 最後に追加した説明 */
+        private String lastDescription;
+
+        /**
+         * 置換エントリをまとめたことを記録します。
+         * @param desc 置換エントリの説明
+         */
+        void describe(String desc) {
+            ruleCount++;
+            if (desc == null || desc.equals(lastDescription)) {
+                return;
+            }
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(desc);
+            lastDescription = desc;
+        }
+
+        abstract String replace(String source, String className);
+    }
+
+    /**
+     * 1 つの置換エントリの処理単位です。
+     */
+    private static class RuleStep extends Step {
+        final ReplaceEntry rule;
+
+        RuleStep(ReplaceEntry rule) {
+            this.rule = rule;
+        }
+
+        @Override
+        String replace(String source, String className) {
+            try {
+                return rule.replaceSelf(source, ReplaceEntry.newDeadline());
+            } catch (MatchTimeoutException e) {
+                warnTimeout(e, className);
+                return source;
+            }
+        }
+    }
+
+    /**
+     * 連続するリテラルとみなせる置換エントリの処理単位です。
+     * <p>
+     * 置換エントリを順に適用した場合と結果が同じになるよう、前の置換エントリの
+     * 置換結果が後の置換エントリの置換前文字列を新たに生じさせる可能性が
+     * 無いものだけをまとめます。また、異なる置換エントリの出現位置が重なる
+     * 場合は、そのソースに限り置換エントリを 1 つずつ処理します。
+     */
+    private static class LiteralStep extends Step {
+        final List<ReplaceEntry> rules = new ArrayList<ReplaceEntry>();
+        AhoCorasick matcher;
+
+        /**
+         * 置換エントリをこの処理単位にまとめられるか判定します。
+         * @param rule 置換エントリ
+         * @return まとめられる場合は true
+         */
+        boolean accepts(ReplaceEntry rule) {
+            String before = rule.getLiteralBefore();
+            for (ReplaceEntry r : rules) {
+                if (mayCreate(r.getLiteralAfter(), before)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 置換結果により、置換前文字列が新たに生じる可能性があるか判定します。
+         * @param after 置換結果の文字列
+         * @param before 置換前文字列
+         * @return 生じる可能性がある場合は true
+         */
+        static boolean mayCreate(String after, String before) {
+
+            // 削除の場合は前後の文字列が連結される
+            if (after.length() == 0) {
+                return true;
+            }
+            if (after.contains(before) || before.contains(after)) {
+                return true;
+            }
+            // 置換結果の前端または後端と置換前文字列の一部が重なる
+            int max = Math.min(after.length(), before.length());
+            for (int k = 1; k < max; k++) {
+                if (after.regionMatches(after.length() - k, before, 0, k)) {
+                    return true;
+                }
+                if (after.regionMatches(0, before, before.length() - k, k)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 照合器を作成します。
+         */
+        void compile() {
+            String[] patterns = new String[rules.size()];
+            for (int i = 0; i < patterns.length; i++) {
+                patterns[i] = rules.get(i).getLiteralBefore();
+            }
+            matcher = new AhoCorasick(patterns);
+        }
+
+        @Override
+        String replace(final String source, String className) {
+
+            // 置換エントリごとに、左から重ならない出現位置を選択
+            final int[] nexts = new int[rules.size()];
+            final long[][] found = { new long[16] };
+            final int[] count = { 0 };
+            matcher.search(source, new AhoCorasick.MatchListener() {
+                public void found(int index, int start) {
+                    if (start < nexts[index]) {
+                        return;
+                    }
+                    nexts[index] = start + matcher.length(index);
+                    if (count[0] == found[0].length) {
+                        found[0] = Arrays.copyOf(found[0], count[0] * 2);
+                    }
+                    found[0][count[0]++] = ((long) start << 32) | index;
+                }
+            });
+            if (count[0] == 0) {
+                return source;
+            }
+            long[] matches = found[0];
+            Arrays.sort(matches, 0, count[0]);
+
+            StringBuilder sb = new StringBuilder(source.length() + 16 * count[0]);
+            int last = 0;
+            for (int i = 0; i < count[0]; i++) {
+                int start = (int) (matches[i] >>> 32);
+                int index = (int) matches[i];
+
+                // 異なる置換エントリの出現位置が重なる場合は 1 つずつ処理
+                if (start < last) {
+                    return replaceEach(source, className);
+                }
+                sb.append(source, last, start);
+                sb.append(rules.get(index).getLiteralAfter());
+                last = start + matcher.length(index);
+            }
+            sb.append(source, last, source.length());
+            return sb.toString();
+        }
+
+        /**
+         * 置換エントリを 1 つずつ処理します。
+         * @param source ソース文字列
+         * @param className クラス名
+         * @return 処理後のソース文字列
+         */
+        String replaceEach(String source, String className) {
+            for (ReplaceEntry rule : rules) {
+                String result = replaceText(rule, source, className, ReplaceEntry.newDeadline());
+                if (result != null) {
+                    source = result;
+                }
+            }
+            return source;
+        }
+    }
+}
@@ -7,11 +7,15 @@ package mergedoc.xml;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+import mergedoc.core.BoundedCharSequence;
 import mergedoc.core.FastStringUtils;
+import mergedoc.core.MatchTimeoutException;
+import mergedoc.core.PatternAnalyzer;
 import mergedoc.core.PatternCache;
 
 /**
@@ -26,6 +30,18 @@ public class ReplaceEntry {
     /** 置換前文字列 */
     private String before = "";
 
+    /** 置換前文字列の正規表現にマッチする文字列に必ず含まれるリテラル文字列 */
+    private String[] requiredLiterals = new String[0];
+
+    /** 置換前文字列の正規表現がリテラルとみなせる場合のリテラル文字列 */
+    private String literalBefore;
+
+    /** 置換後文字列がグループ参照を含まない場合の置換結果となるリテラル文字列 */
+    private String literalAfter = "";
+
+    /** 置換前文字列の正規表現が入れ子になった量指定子を含むか */
+    private boolean nestedQuantifier;
+
     /** 置換後文字列 */
     private String after = "";
 
@@ -35,6 +51,18 @@ public class ReplaceEntry {
     /** 子となる置換エントリ */
     private List<ReplaceEntry> entries;
 
+    /** 対象が Javadoc コメントの場合に置換範囲となる Javadoc コメントのパターン */
+    private static final Pattern JAVADOC_PATTERN = PatternCache.getPattern("(?s)/\\*\\*.+?\\*/");
+
+    /** システムプロパティに指定する、1 つのソースに対する置換エントリの置換処理の制限時間（ミリ秒）のキー */
+    public static final String TIMEOUT_KEY = "mergedoc.replace.timeout";
+
+    /**
+     * 1 つのソースに対する置換エントリの置換処理の制限時間（ミリ秒）。0 以下の場合は制限無し。
+     * 対象が Javadoc コメントの場合も、コメントごとではなくソース内のすべてのコメントの合計に適用します。
+     */
+    private static final long TIMEOUT = Long.getLong(TIMEOUT_KEY, 10000);
+
     /**
      * コンストラクタです。
      */
@@ -63,6 +91,18 @@ public class ReplaceEntry {
      */
     public void setBefore(String before) {
         this.before = before;
+
+        // 構文が無効な場合は置換時にエラーとするため、リテラルによる判定は行わない
+        try {
+            PatternCache.getPattern(before);
+            requiredLiterals = PatternAnalyzer.requiredLiterals(before);
+            literalBefore = PatternAnalyzer.literalOf(before);
+            nestedQuantifier = PatternAnalyzer.hasNestedQuantifier(before);
+        } catch (PatternSyntaxException e) {
+            requiredLiterals = new String[0];
+            literalBefore = null;
+            nestedQuantifier = false;
+        }
     }
 
     /**
@@ -73,12 +113,22 @@ public class ReplaceEntry {
         return before;
     }
 
+    /**
+     * 置換前文字列の正規表現が入れ子になった量指定子を含むか判定します。
+     * 該当する正規表現は入力によっては処理が終わらなくなる可能性があります。
+     * @return 入れ子になった量指定子を含む場合は true
+     */
+    public boolean hasNestedQuantifier() {
+        return nestedQuantifier;
+    }
+
     /**
      * 置換後文字列をセットします。
      * @param after 置換後文字列
      */
     public void setAfter(String after) {
         this.after = after;
+        literalAfter = PatternAnalyzer.literalReplacementOf(after);
     }
 
     /**
@@ -105,6 +155,48 @@ public class ReplaceEntry {
         return target;
     }
 
+    /**
+     * 対象が Javadoc コメントか判定します。
+     * @return 対象が Javadoc コメントの場合は true
+     */
+    boolean isJavadocTarget() {
+        return "Javadocコメント".equalsIgnoreCase(target);
+    }
+
+    /**
+     * 置換前文字列、置換後文字列ともにリテラルとみなせるか判定します。
+     * リテラルとみなせる置換エントリの置換は、正規表現を使用しない
+     * 単純な文字列置換と同じ結果になります。
+     * @return リテラルとみなせる場合は true
+     */
+    boolean isLiteral() {
+        return literalBefore != null && literalAfter != null;
+    }
+
+    /**
+     * 置換前文字列の正規表現がマッチするリテラル文字列を取得します。
+     * @return リテラル文字列。リテラルとみなせない場合は null。
+     */
+    String getLiteralBefore() {
+        return literalBefore;
+    }
+
+    /**
+     * 置換結果となるリテラル文字列を取得します。
+     * @return リテラル文字列。グループ参照を含む場合は null。
+     */
+    String getLiteralAfter() {
+        return literalAfter;
+    }
+
+    /**
+     * 子となる置換エントリのリストを取得します。
+     * @return 子となる置換エントリのリスト。子を持たない場合は null。
+     */
+    List<ReplaceEntry> getChildren() {
+        return entries;
+    }
+
     /**
      * 子となる置換エントリを追加します。
      * @param entry 子となる置換エントリ
@@ -122,17 +214,13 @@ public class ReplaceEntry {
      * @param source ソース文字列
      * @return 処理後のソース文字列
      * @throws IllegalStateException 置換エントリの正規表現の構文が無効な場合
+     * @throws MatchTimeoutException 置換処理が制限時間を超えた場合
      */
     public String replace(String source) {
 
         // この置換エントリの処理
         if (before.length() > 0) {
-            try {
-                source = replaceSelf(source);
-            } catch (PatternSyntaxException e) {
-                throw new IllegalStateException("置換エントリの処理でエラーが発生しました。\n" + "原因: " + e.getMessage() + "\n" + "前: " + before + "\n" + "後: "
-                        + after);
-            }
+            source = replaceSelf(source);
         }
         // 子置換エントリの処理
         if (entries != null) {
@@ -145,21 +233,40 @@ public class ReplaceEntry {
 
     /**
      * 指定した文字列をこの置換エントリの設定で処理します。
+     * 子の置換エントリは処理されません。
+     * @param source ソース文字列
+     * @return 処理後のソース文字列
+     * @throws IllegalStateException 置換エントリの正規表現の構文が無効な場合
+     * @throws MatchTimeoutException 置換処理が制限時間を超えた場合
+     */
+    String replaceSelf(String source) {
+        return replaceSelf(source, newDeadline());
+    }
+
+    /**
+     * 指定した文字列をこの置換エントリの設定で処理します。
+     * 子の置換エントリは処理されません。
      * @param source ソース文字列
+     * @param deadline 期限（System#nanoTime の値）。{@link #newDeadline()} で作成します。
      * @return 処理後のソース文字列
-     * @throws PatternSyntaxException 置換エントリの正規表現の構文が無効な場合
+     * @throws IllegalStateException 置換エントリの正規表現の構文が無効な場合
+     * @throws MatchTimeoutException 置換処理が期限を超えた場合
      */
-    private String replaceSelf(String source) {
+    String replaceSelf(String source, long deadline) {
 
-        if ("Javadocコメント".equalsIgnoreCase(target)) {
+        if (isJavadocTarget()) {
+
+            // ソース全体にマッチする可能性が無ければコメントを探さない
+            if (!mayMatch(source)) {
+                return source;
+            }
 
             // 対象が Javadocコメント の場合
-            Pattern pat = PatternCache.getPattern("(?s)/\\*\\*.+?\\*/");
-            Matcher mat = pat.matcher(source);
+            Matcher mat = JAVADOC_PATTERN.matcher(source);
             StringBuffer sb = new StringBuffer(source.length());
             while (mat.find()) {
                 String str = mat.group();
-                str = FastStringUtils.replaceAll(str, before, after);
+                str = replaceText(str, deadline);
                 str = FastStringUtils.quoteReplacement(str);
                 mat.appendReplacement(sb, str);
             }
@@ -169,11 +276,64 @@ public class ReplaceEntry {
         } else {
 
             // 対象が指定されていない場合
-            source = FastStringUtils.replaceAll(source, before, after);
+            source = replaceText(source, deadline);
         }
         return source;
     }
 
+    /**
+     * 1 つのソースに対する置換処理の期限を作成します。
+     * 同じソースの置換処理で共有し、ソースごとに作成します。
+     * @return 期限（System#nanoTime の値）
+     */
+    static long newDeadline() {
+        return System.nanoTime() + TIMEOUT * 1000000L;
+    }
+
+    /**
+     * 指定した文字列全体に、対象に関係なくこの置換エントリの置換を適用します。
+     * @param str 文字列
+     * @param deadline 期限（System#nanoTime の値）。{@link #newDeadline()} で作成します。
+     * @return 処理後の文字列
+     * @throws IllegalStateException 置換エントリの正規表現の構文が無効な場合
+     * @throws MatchTimeoutException 置換処理が期限を超えた場合
+     * @throws CancellationException 処理中のスレッドが割り込まれた場合
+     */
+    String replaceText(String str, long deadline) {
+        if (!mayMatch(str)) {
+            return str;
+        }
+        try {
+            // 短い文字列は charAt での期限の確認に達しないため、先に確認する
+            if (TIMEOUT > 0 && System.nanoTime() - deadline > 0) {
+                throw new MatchTimeoutException("", TIMEOUT);
+            }
+            Pattern pattern = PatternCache.getPattern(before);
+            return pattern.matcher(new BoundedCharSequence(str, TIMEOUT, deadline)).replaceAll(after);
+        } catch (MatchTimeoutException e) {
+            throw new MatchTimeoutException("置換エントリの処理が 1 つのソースで " + TIMEOUT + " ミリ秒を超えたため打ち切りました。\n" + "説明: " + description
+                    + "\n" + "前: " + before, TIMEOUT);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalStateException("置換エントリの処理でエラーが発生しました。\n" + "原因: " + e.getMessage() + "\n" + "前: " + before + "\n" + "後: "
+                    + after);
+        }
+    }
+
+    /**
+     * 指定した文字列に置換前文字列の正規表現がマッチする可能性があるか判定します。
+     * 正規表現を使用せず、必須のリテラル文字列が含まれるかで判定します。
+     * @param str 文字列
+     * @return マッチする可能性がある場合は true
+     */
+    boolean mayMatch(String str) {
+        for (String literal : requiredLiterals) {
+            if (!str.contains(literal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * このインスタンスの文字列表現を取得します。
      * @return 文字列表現
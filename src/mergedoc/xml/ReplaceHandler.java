@@ -5,8 +5,12 @@
  */
 package mergedoc.xml;
 
+import java.util.LinkedList;
+import java.util.List;
+
 /**
  * ソース文字列の置換処理を行うハンドラです。
+ * 置換エントリはパース終了後に {@link ReplaceEngine} でまとめて処理されます。
  * @author Shinji Kashihara
  */
 public class ReplaceHandler extends AbstractHandler {
@@ -14,12 +18,28 @@ public class ReplaceHandler extends AbstractHandler {
     /** ソース文字列 */
     private String source;
 
+    /** クラス名 */
+    private String className;
+
+    /** 置換エントリのリスト */
+    private List<ReplaceEntry> replaceEntries = new LinkedList<ReplaceEntry>();
+
     /**
      * コンストラクタです。
      * @param source ソース文字列
      */
     public ReplaceHandler(String source) {
+        this(source, null);
+    }
+
+    /**
+     * コンストラクタです。
+     * @param source ソース文字列
+     * @param className クラス名。置換処理が制限時間を超えた場合のログ出力に使用されます。
+     */
+    public ReplaceHandler(String source, String className) {
         this.source = source;
+        this.className = className;
     }
 
     /**
@@ -28,14 +48,20 @@ public class ReplaceHandler extends AbstractHandler {
      */
     @Override
     protected void handle(ReplaceEntry entry) {
-        source = entry.replace(source);
+        replaceEntries.add(entry);
     }
 
     /**
      * 置換後のソース文字列を取得します。
      * @return 置換後のソース文字列
+     * @throws IllegalStateException 置換エントリの正規表現の構文が無効な場合
      */
     public String getResult() {
+        if (!replaceEntries.isEmpty()) {
+            ReplaceEngine engine = new ReplaceEngine(replaceEntries.toArray(new ReplaceEntry[replaceEntries.size()]));
+            source = engine.replace(source, className);
+            replaceEntries.clear();
+        }
         return source;
     }
 }